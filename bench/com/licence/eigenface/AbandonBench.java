@@ -0,0 +1,54 @@
+package com.licence.eigenface;
+
+/**
+ * Abandonarea timpurie a imaginilor in {@link FaceBundle#match(double[])}
+ * (metrica {@link DistanceMetric#LEGACY}) fata de punctarea completa a
+ * fiecarei imagini. Proiectia nu este inclusa.
+ *
+ * Argumente: numarul imaginilor (2000), numarul componentelor (64).
+ */
+public final class AbandonBench {
+
+	public static void main(String[] args) {
+
+		int m = Bench.arg(args, 0, 2000), k = Bench.arg(args, 1, 64);
+		int queries = 2000;
+		Bench data = new Bench(m, k, 1);
+		FaceBundle b = Bench.bundle(data.wk, data.labels);
+		double[][] q = new double[queries][];
+		for (int t = 0; t < queries; t++)
+			q[t] = data.query();
+		MatchBuffers buffers = new MatchBuffers();
+		DistanceMetric metric = DistanceMetric.LEGACY;
+
+		int[] full = new int[queries];
+		double abandonUs = 0, fullUs = 0;
+		for (int rep = 0; rep < 3; rep++) {
+			long t0 = System.nanoTime();
+			for (int t = 0; t < queries; t++)
+				b.score(q[t], 0, buffers);
+			long t1 = System.nanoTime();
+			for (int t = 0; t < queries; t++) {
+				double best = Double.POSITIVE_INFINITY;
+				for (int i = 0; i < m; i++) {
+					double s = metric.score(q[t], 0.0, data.wk[i], i, k,
+							Double.POSITIVE_INFINITY);
+					if (s < best) {
+						best = s;
+						full[t] = i;
+					}
+				}
+			}
+			long t2 = System.nanoTime();
+			abandonUs = (t1 - t0) / 1e3 / queries;
+			fullUs = (t2 - t1) / 1e3 / queries;
+		}
+		int same = 0;
+		for (int t = 0; t < queries; t++)
+			if (full[t] == b.score(q[t], 0, buffers).getIndex())
+				same++;
+		System.out.printf("%d x %d: %.0f us cu abandonare, %.0f us complet, "
+				+ "acelasi rezultat %d/%d%n", m, k, abandonUs, fullUs, same,
+				queries);
+	}
+}
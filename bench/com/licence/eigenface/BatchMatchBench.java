@@ -0,0 +1,53 @@
+package com.licence.eigenface;
+
+/**
+ * Potrivirea tuturor fetelor unui cadru deodata ({@link FaceBundle#match(double[][])})
+ * fata de potrivirea lor pe rand, pe imagini de 256x256, in dubla si in
+ * simpla precizie. Al doilea cadru are mai multe fete decat
+ * {@link FaceBundle#BATCH}, ca sa fie masurate si loturile de dupa primul.
+ *
+ * Argumente: numarul fetelor din primul cadru (8), numarul de vectori proprii
+ * (40).
+ */
+public final class BatchMatchBench {
+
+	public static void main(String[] args) {
+
+		int[] frames = { Bench.arg(args, 0, 8), 2 * FaceBundle.BATCH + 8 };
+		int k = Bench.arg(args, 1, 40);
+		int n = 256 * 256;
+		MatchBuffers buffers = new MatchBuffers();
+
+		for (int i = 0; i < frames.length; i++) {
+			int frame = frames[i], rounds = Math.max(2, 160 / frame);
+			double[][] faces = Bench.faces(frame, n, 1);
+			for (int single = 0; single < 2; single++) {
+				FaceBundle b = Bench.random(n, k, 100, single == 1, 2);
+				int same = 0;
+				MatchResult[] batch = b.match(faces, frame, buffers);
+				for (int f = 0; f < frame; f++)
+					if (batch[f].getIndex() == b.match(faces[f], buffers)
+							.getIndex())
+						same++;
+
+				double one = 0, all = 0;
+				for (int rep = 0; rep < 2; rep++) {
+					long t0 = System.nanoTime();
+					for (int r = 0; r < rounds; r++)
+						for (int f = 0; f < frame; f++)
+							b.match(faces[f], buffers);
+					long t1 = System.nanoTime();
+					for (int r = 0; r < rounds; r++)
+						b.match(faces, frame, buffers);
+					long t2 = System.nanoTime();
+					one = (t1 - t0) / 1e3 / rounds / frame;
+					all = (t2 - t1) / 1e3 / rounds / frame;
+				}
+				System.out.printf("%s, %d fete: %.0f us pe fata separat, %.0f us "
+						+ "in lot (%.1fx), aceeasi imagine %d/%d%n",
+						single == 1 ? "float" : "double", frame, one, all, one
+								/ all, same, frame);
+			}
+		}
+	}
+}
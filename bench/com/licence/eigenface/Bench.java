@@ -0,0 +1,149 @@
+package com.licence.eigenface;
+
+import java.util.Random;
+
+/**
+ * Datele sintetice comune masuratorilor din acest director. Masuratorile nu
+ * fac parte din aplicatie si nu folosesc Android: se compileaza cu sursele
+ * din src si se ruleaza pe o masina virtuala Java obisnuita, vezi README.md.
+ *
+ * Ponderile sunt grupate pe persoane, ca intr-o galerie reala: fiecare
+ * persoana are un centru, iar imaginile ei sunt centrul plus zgomot. Ca in
+ * spatiile fetei antrenate, componentele au varianta descrescatoare.
+ */
+final class Bench {
+
+	/** Numarul imaginilor fiecarei persoane. */
+	static final int PER_PERSON = 10;
+
+	final double[][] centers;
+	final double[][] wk;
+	final String[] labels;
+	final int components;
+	private final Random random;
+
+	/**
+	 * m imagini cu k componente.
+	 */
+	Bench(int m, int k, long seed) {
+
+		random = new Random(seed);
+		components = k;
+		int people = Math.max(1, m / PER_PERSON);
+		centers = new double[people][k];
+		for (int p = 0; p < people; p++)
+			for (int j = 0; j < k; j++)
+				centers[p][j] = random.nextGaussian() * 1000 / (j + 1);
+		wk = new double[m][];
+		labels = new String[m];
+		for (int i = 0; i < m; i++) {
+			wk[i] = near(i / PER_PERSON % people);
+			labels[i] = "p" + (i / PER_PERSON % people);
+		}
+	}
+
+	/**
+	 * O interogare: o imagine noua a unei persoane alese la intamplare.
+	 */
+	double[] query() {
+		return near(random.nextInt(centers.length));
+	}
+
+	/**
+	 * Persoana cu centrul cel mai apropiat de q, cu care se verifica
+	 * identitatea gasita pentru o interogare.
+	 */
+	String person(double[] q) {
+
+		int best = 0;
+		double d = Double.POSITIVE_INFINITY;
+		for (int p = 0; p < centers.length; p++) {
+			double s = 0.0;
+			for (int j = 0; j < components; j++) {
+				double x = q[j] - Math.abs(centers[p][j]);
+				s += x * x;
+			}
+			if (s < d) {
+				d = s;
+				best = p;
+			}
+		}
+		return "p" + best;
+	}
+
+	private double[] near(int p) {
+
+		double[] w = new double[components];
+		for (int j = 0; j < components; j++)
+			w[j] = Math.abs(centers[p][j] + random.nextGaussian() * 150
+					/ (j + 1));
+		return w;
+	}
+
+	/**
+	 * Un spatiu al fetei cu ponderile date si vectorii proprii unitari, de
+	 * lungime k: proiectia unei imagini este chiar imaginea, asa ca
+	 * interogarile pot fi date direct ca ponderi.
+	 */
+	static FaceBundle bundle(double[][] wk, String[] labels) {
+
+		int k = wk[0].length;
+		double[] eig = new double[k * k];
+		for (int j = 0; j < k; j++)
+			eig[j * k + j] = 1.0;
+		return new FaceBundle(new DoubleEigenSpace(new double[k], eig), wk,
+				labels);
+	}
+
+	/**
+	 * Un spatiu al fetei de lungime n cu k vectori proprii aleatori si m
+	 * imagini, in dubla sau simpla precizie.
+	 */
+	static FaceBundle random(int n, int k, int m, boolean single, long seed) {
+
+		Random r = new Random(seed);
+		double[][] wk = new double[m][k];
+		String[] id = new String[m];
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < k; j++)
+				wk[i][j] = Math.abs(r.nextGaussian() * 1e7 / (j + 1));
+			id[i] = "img" + i;
+		}
+		EigenSpace space;
+		if (single) {
+			float[] avg = new float[n];
+			float[] eig = new float[k * n];
+			for (int p = 0; p < n; p++)
+				avg[p] = r.nextInt(1 << 24);
+			for (int i = 0; i < eig.length; i++)
+				eig[i] = (float) (r.nextGaussian() / Math.sqrt(n));
+			space = new FloatEigenSpace(avg, eig);
+		} else {
+			double[] avg = new double[n];
+			double[] eig = new double[k * n];
+			for (int p = 0; p < n; p++)
+				avg[p] = r.nextInt(1 << 24);
+			for (int i = 0; i < eig.length; i++)
+				eig[i] = r.nextGaussian() / Math.sqrt(n);
+			space = new DoubleEigenSpace(avg, eig);
+		}
+		return new FaceBundle(space, wk, id);
+	}
+
+	/**
+	 * Imagini ARGB aleatoare de lungime n.
+	 */
+	static double[][] faces(int count, int n, long seed) {
+
+		Random r = new Random(seed);
+		double[][] f = new double[count][n];
+		for (int i = 0; i < count; i++)
+			for (int p = 0; p < n; p++)
+				f[i][p] = r.nextInt(1 << 24);
+		return f;
+	}
+
+	static int arg(String[] args, int i, int def) {
+		return args.length > i ? Integer.parseInt(args[i]) : def;
+	}
+}
@@ -0,0 +1,101 @@
+package com.licence.eigenface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Formatul binar {@link BundleFile} fata de serializarea Java a unui spatiu
+ * al fetei: timpul scrierii si al citirii, o pornire din cache ({@link
+ * BundleCache#read}, {@link BundleStack} si prima potrivire), diferenta
+ * distantelor dupa citire si timpul proiectiei din tablouri fata de cel din
+ * fisierul mapat, in dubla si in simpla precizie.
+ *
+ * Argumente: numarul imaginilor (400), latura unei imagini (256), numarul
+ * componentelor (40).
+ */
+public final class BundleFileBench {
+
+	public static void main(String[] args) throws Exception {
+
+		int m = Bench.arg(args, 0, 400), side = Bench.arg(args, 1, 256);
+		int k = Bench.arg(args, 2, 40), n = side * side;
+		double[][] faces = Bench.faces(100, n, 2);
+		File dir = new File(System.getProperty("java.io.tmpdir"),
+				"bundlefilebench");
+		boolean[] single = { false, true };
+		for (int s = 0; s < single.length; s++) {
+			FaceBundle bundle = Bench.random(n, k, m, single[s], 1);
+			File bin = File.createTempFile("bench", ".efbn");
+			File ser = File.createTempFile("bench", ".ser");
+			bin.deleteOnExit();
+			ser.deleteOnExit();
+
+			long t0 = System.nanoTime();
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(ser)));
+			out.writeObject(bundle);
+			out.close();
+			long t1 = System.nanoTime();
+			BundleFile.write(bin, bundle);
+			long t2 = System.nanoTime();
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(ser)));
+			in.readObject();
+			in.close();
+			long t3 = System.nanoTime();
+			FaceBundle mapped = BundleFile.read(bin);
+			long t4 = System.nanoTime();
+			System.out.printf("%s %d x %d, k %d: scriere %.0f ms serializat, "
+					+ "%.0f ms binar; citire %.0f ms serializat, %.1f ms "
+					+ "binar%n", single[s] ? "float" : "double", m, n, k,
+					(t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6,
+					(t4 - t3) / 1e6);
+
+			BundleCache cache = new BundleCache(dir, 1);
+			cache.write("bench", bundle);
+			t0 = System.nanoTime();
+			FaceBundle hit = cache.read("bench");
+			MatchResult first = new BundleStack(new FaceBundle[] { hit })
+					.match(faces[0], null, new MatchBuffers());
+			t1 = System.nanoTime();
+			System.out.printf("  pornire din cache cu prima potrivire: "
+					+ "%.0f ms (%s)%n", (t1 - t0) / 1e6, first.getIdentity());
+
+			MatchBuffers buffers = new MatchBuffers();
+			double diff = 0;
+			int same = 0;
+			for (int f = 0; f < faces.length; f++) {
+				MatchResult a = bundle.match(faces[f], buffers);
+				MatchResult b = mapped.match(faces[f], buffers);
+				if (a.getIndex() == b.getIndex())
+					same++;
+				diff = Math.max(diff, Math.abs(a.getDistance()
+						- b.getDistance()));
+			}
+			System.out.printf("  %d/%d aceleasi imagini, diferenta maxima a "
+					+ "distantei %.2e%n", same, faces.length, diff);
+
+			double[] w = new double[k];
+			double array = 0, file = 0;
+			for (int rep = 0; rep < 5; rep++) {
+				t0 = System.nanoTime();
+				for (int f = 0; f < faces.length; f++)
+					bundle.space().project(faces[f], w, k);
+				t1 = System.nanoTime();
+				for (int f = 0; f < faces.length; f++)
+					mapped.space().project(faces[f], w, k);
+				t2 = System.nanoTime();
+				array = (t1 - t0) / 1e6 / faces.length;
+				file = (t2 - t1) / 1e6 / faces.length;
+			}
+			System.out.printf("  proiectie %.2f ms din tablouri, %.2f ms din "
+					+ "fisierul mapat%n", array, file);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.licence.eigenface;
+
+/**
+ * Cautarea in cascada ({@link Cascade}) fata de cautarea completa, pentru
+ * metricile legacy, L2^2 si cosinus, cu cat de des cascada schimba
+ * raspunsul.
+ *
+ * Argumente: numarul imaginilor (20000), numarul componentelor (64),
+ * componentele primei etape (8), lista scurta (200).
+ */
+public final class CascadeBench {
+
+	public static void main(String[] args) {
+
+		int m = Bench.arg(args, 0, 20000), k = Bench.arg(args, 1, 64);
+		int first = Bench.arg(args, 2, 8), keep = Bench.arg(args, 3, 200);
+		int queries = 400;
+		Bench data = new Bench(m, k, 1);
+		double[][] q = new double[queries][];
+		for (int t = 0; t < queries; t++)
+			q[t] = data.query();
+		FaceBundle plain = Bench.bundle(data.wk, data.labels);
+		MatchBuffers buffers = new MatchBuffers();
+
+		DistanceMetric[] metrics = { DistanceMetric.LEGACY,
+				DistanceMetric.L2_SQUARED, DistanceMetric.COSINE };
+		for (int i = 0; i < metrics.length; i++) {
+			FaceBundle b = plain.withMetric(metrics[i]);
+			Cascade checked = new Cascade(first, keep, 1);
+			for (int t = 0; t < queries; t++)
+				b.match(q[t], checked, buffers);
+
+			Cascade cascade = new Cascade(first, keep, 0);
+			double exhaustive = 0, staged = 0;
+			for (int rep = 0; rep < 3; rep++) {
+				long t0 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					b.score(q[t], 0, buffers);
+				long t1 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					b.cascade(q[t], 0, cascade, buffers);
+				long t2 = System.nanoTime();
+				exhaustive = (t1 - t0) / 1e6 / queries;
+				staged = (t2 - t1) / 1e6 / queries;
+			}
+			System.out.printf("%s: %.2f ms complet, %.2f ms cascada "
+					+ "(%d -> %d), raspuns schimbat %.4f%n", metrics[i],
+					exhaustive, staged, first, keep, checked.getChangeRate());
+		}
+	}
+}
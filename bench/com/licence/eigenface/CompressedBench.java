@@ -0,0 +1,82 @@
+package com.licence.eigenface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Galeria comprimata ({@link FaceBundle#compress}) fata de parcurgerea
+ * ponderilor necomprimate: timpul unei potriviri, fractiunea potrivirilor
+ * care au imaginea cea mai apropiata printre primele 10 rezultate
+ * (recall@10), fractiunea identitatilor corecte, fara si cu comprimare, si
+ * marimea serializata.
+ *
+ * Argumente: numarul imaginilor (100000), numarul componentelor (32),
+ * subvectori (8), liste (256), liste cautate (8).
+ */
+public final class CompressedBench {
+
+	public static void main(String[] args) throws IOException {
+
+		int m = Bench.arg(args, 0, 100000), k = Bench.arg(args, 1, 32);
+		int sv = Bench.arg(args, 2, 8), lists = Bench.arg(args, 3, 256);
+		int probes = Bench.arg(args, 4, 8);
+		int queries = 1000;
+		Bench data = new Bench(m, k, 1);
+		double[][] q = new double[queries][];
+		for (int t = 0; t < queries; t++)
+			q[t] = data.query();
+		FaceBundle plain = Bench.bundle(data.wk, data.labels);
+		MatchBuffers buffers = new MatchBuffers();
+
+		DistanceMetric[] metrics = { DistanceMetric.LEGACY,
+				DistanceMetric.L2_SQUARED, DistanceMetric.COSINE };
+		for (int i = 0; i < metrics.length; i++) {
+			FaceBundle linear = plain.withMetric(metrics[i]);
+			CompressedBundle gallery = linear.compress(sv, lists, probes);
+
+			int recall = 0, exactPerson = 0, person = 0;
+			for (int t = 0; t < queries; t++) {
+				MatchResult best = linear.score(q[t], 0, buffers);
+				int exact = best.getIndex();
+				if (best.getIdentity().equals(data.person(q[t])))
+					exactPerson++;
+				MatchResult[] top = gallery.match(q[t], 10, buffers);
+				for (int r = 0; r < top.length; r++)
+					if (top[r].getIndex() == exact)
+						recall++;
+				if (top.length > 0
+						&& top[0].getIdentity().equals(data.person(q[t])))
+					person++;
+			}
+
+			double scan = 0, compressed = 0;
+			for (int rep = 0; rep < 3; rep++) {
+				long t0 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					linear.score(q[t], 0, buffers);
+				long t1 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					gallery.match(q[t], buffers);
+				long t2 = System.nanoTime();
+				scan = (t1 - t0) / 1e6 / queries;
+				compressed = (t2 - t1) / 1e6 / queries;
+			}
+			System.out.printf("%s: %.2f ms parcurgere, %.2f ms comprimat, "
+					+ "recall@10 %.3f, identitate %.3f fata de %.3f, %.1f MB "
+					+ "fata de %.1f MB%n", metrics[i], scan, compressed,
+					(double) recall / queries, (double) person / queries,
+					(double) exactPerson / queries,
+					size(gallery), size(linear));
+		}
+	}
+
+	private static double size(Object o) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.size() / 1e6;
+	}
+}
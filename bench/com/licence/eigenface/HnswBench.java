@@ -0,0 +1,58 @@
+package com.licence.eigenface;
+
+/**
+ * Graful {@link HnswIndex} ({@link FaceBundle#withHnsw}) fata de parcurgerea
+ * tuturor imaginilor, cu metrica L2^2, pe un singur fir: timpul construirii,
+ * timpul unei potriviri si fractiunea potrivirilor care gasesc imaginea
+ * cea mai apropiata (recall@1), pentru mai multe valori ale lui efSearch.
+ *
+ * Argumente: numarul imaginilor (200000), numarul componentelor (32), M
+ * (16), efConstruction (200).
+ */
+public final class HnswBench {
+
+	public static void main(String[] args) {
+
+		int m = Bench.arg(args, 0, 200000), k = Bench.arg(args, 1, 32);
+		int mm = Bench.arg(args, 2, 16), efc = Bench.arg(args, 3, 200);
+		int queries = 500;
+		Bench data = new Bench(m, k, 1);
+		double[][] q = new double[queries][];
+		for (int t = 0; t < queries; t++)
+			q[t] = data.query();
+		FaceBundle linear = Bench.bundle(data.wk, data.labels).withMetric(
+				DistanceMetric.L2_SQUARED);
+		MatchBuffers buffers = new MatchBuffers();
+
+		int[] exact = new int[queries];
+		long t0 = System.nanoTime();
+		for (int t = 0; t < queries; t++)
+			exact[t] = linear.score(q[t], 0, buffers).getIndex();
+		double scan = (System.nanoTime() - t0) / 1e6 / queries;
+
+		t0 = System.nanoTime();
+		FaceBundle graph = linear.withHnsw(new HnswIndex(mm, efc, 64));
+		double build = (System.nanoTime() - t0) / 1e6 / m;
+		System.out.printf("%d x %d: parcurgere %.2f ms, construire %.3f ms "
+				+ "pe imagine (M %d, efConstruction %d)%n", m, k, scan, build,
+				mm, efc);
+
+		int[] ef = { 16, 32, 64, 128 };
+		for (int e = 0; e < ef.length; e++) {
+			FaceBundle b = graph.withEfSearch(ef[e]);
+			int found = 0;
+			for (int t = 0; t < queries; t++)
+				if (b.score(q[t], 0, buffers).getIndex() == exact[t])
+					found++;
+			double ms = 0;
+			for (int rep = 0; rep < 3; rep++) {
+				t0 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					b.score(q[t], 0, buffers);
+				ms = (System.nanoTime() - t0) / 1e6 / queries;
+			}
+			System.out.printf("efSearch %d: %.3f ms, recall@1 %.3f%n", ef[e],
+					ms, (double) found / queries);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.licence.eigenface;
+
+/**
+ * Indexul exact {@link VpTree} ({@link FaceBundle#withIndex}) fata de
+ * parcurgerea tuturor imaginilor, pentru fiecare metrica.
+ *
+ * Argumente: numarul imaginilor (50000), numarul componentelor (32).
+ */
+public final class VpTreeBench {
+
+	public static void main(String[] args) {
+
+		int m = Bench.arg(args, 0, 50000), k = Bench.arg(args, 1, 32);
+		int queries = 500;
+		Bench data = new Bench(m, k, 1);
+		double[][] q = new double[queries][];
+		for (int t = 0; t < queries; t++)
+			q[t] = data.query();
+		FaceBundle plain = Bench.bundle(data.wk, data.labels);
+		MatchBuffers buffers = new MatchBuffers();
+
+		DistanceMetric[] metrics = { DistanceMetric.LEGACY, DistanceMetric.L1,
+				DistanceMetric.L2_SQUARED, DistanceMetric.COSINE,
+				DistanceMetric.MAHALANOBIS };
+		for (int i = 0; i < metrics.length; i++) {
+			FaceBundle linear = plain.withMetric(metrics[i]);
+			FaceBundle indexed = linear.withIndex(true);
+			int same = 0;
+			for (int t = 0; t < queries; t++)
+				if (linear.score(q[t], 0, buffers).getIndex() == indexed
+						.score(q[t], 0, buffers).getIndex())
+					same++;
+
+			double scan = 0, tree = 0;
+			for (int rep = 0; rep < 3; rep++) {
+				long t0 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					linear.score(q[t], 0, buffers);
+				long t1 = System.nanoTime();
+				for (int t = 0; t < queries; t++)
+					indexed.score(q[t], 0, buffers);
+				long t2 = System.nanoTime();
+				scan = (t1 - t0) / 1e6 / queries;
+				tree = (t2 - t1) / 1e6 / queries;
+			}
+			System.out.printf("%s: %.3f ms parcurgere, %.3f ms index "
+					+ "(%.1fx), acelasi rezultat %d/%d%n", metrics[i], scan,
+					tree, scan / tree, same, queries);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.licence.eigenface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache-ul spatiilor fetei antrenate, intr-un director. Fiecare intrare are
+ * ca nume amprenta intrarilor antrenarii (vezi {@link #key}): numele,
+ * marimea si data modificarii fiecarei imagini, setarile care schimba
+ * rezultatul si {@link #VERSION}. Orice imagine schimbata, adaugata sau
+ * scoasa da alta amprenta, deci o intrare nu poate fi folosita pentru alte
+ * imagini decat cele din care a fost construita; intrarile nefolosite sunt
+ * sterse cand sunt mai multe decat capacitatea.
+ *
+ * Intrarile sunt in formatul binar al lui {@link BundleFile}, citite prin
+ * mapare in memorie; doar spatiile care pot fi actualizate (vezi
+ * {@link FaceBundle#isUpdatable}) sunt serializate, ca sa-si pastreze
+ * modelul. Intrarile care nu mai pot fi citite (ie: scrise de alta versiune a
+ * formatului sau a spatiului fetei) sunt sterse, iar spatiul este
+ * reconstruit.
+ *
+ * Langa fiecare intrare pot fi salvate grafurile HNSW construite peste ea
+ * (vezi {@link #writeGraph}), cate unul pentru fiecare metrica si fiecare
+ * set de parametri ai grafului, ca o pornire din cache sa nu construiasca
+ * din nou graful. Sunt sterse odata cu intrarea lor.
+ */
+final class BundleCache {
+
+	/**
+	 * Versiunea antrenarii. Trebuie marita la orice schimbare care da alte
+	 * spatii ale fetei din aceleasi imagini, ca intrarile vechi sa nu mai fie
+	 * gasite.
+	 */
+	static final int VERSION = 2;
+
+	private static final String SUFFIX = ".cache";
+	private static final String GRAPH_SUFFIX = ".graph";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File dir;
+	private final int capacity;
+
+	/**
+	 * @param dir
+	 *            directorul intrarilor; este creat la prima scriere.
+	 * @param capacity
+	 *            numarul maxim de intrari pastrate.
+	 */
+	BundleCache(File dir, int capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Amprenta SHA-1 a imaginilor din directorul base si a setarilor date.
+	 *
+	 * @param settings
+	 *            setarile antrenarii, intr-o forma care se schimba cu ele.
+	 */
+	static String key(String base, String[] files, String settings) {
+
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder s = new StringBuilder();
+		s.append(VERSION).append('\n').append(settings).append('\n');
+		for (int i = 0; i < files.length; i++) {
+			File f = new File(base + files[i]);
+			s.append(files[i]).append('\t').append(f.length()).append('\t')
+					.append(f.lastModified()).append('\n');
+		}
+		byte[] digest;
+		try {
+			digest = sha.digest(s.toString().getBytes("UTF-8"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		char[] hex = new char[2 * digest.length];
+		for (int i = 0; i < digest.length; i++) {
+			hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Spatiul fetei salvat cu cheia data sau null daca nu exista ori nu mai
+	 * poate fi citit.
+	 */
+	FaceBundle read(String key) {
+
+		File f = new File(dir, key + SUFFIX);
+		if (!f.isFile())
+			return null;
+		try {
+			FaceBundle bundle;
+			if (BundleFile.matches(f))
+				bundle = BundleFile.read(f);
+			else {
+				ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(f)));
+				try {
+					bundle = (FaceBundle) in.readObject();
+				} finally {
+					in.close();
+				}
+			}
+			// intrarile folosite recent sunt ultimele sterse
+			f.setLastModified(System.currentTimeMillis());
+			return bundle;
+		} catch (IOException e) {
+			f.delete();
+		} catch (ClassNotFoundException e) {
+			f.delete();
+		} catch (ClassCastException e) {
+			f.delete();
+		}
+		return null;
+	}
+
+	/**
+	 * Salveaza spatiul fetei cu cheia data si sterge intrarile cele mai
+	 * vechi peste capacitate. Intrarea este scrisa intr-un fisier temporar si
+	 * apoi redenumita, ca o scriere intrerupta sa nu lase o intrare stricata.
+	 */
+	void write(String key, FaceBundle bundle) throws IOException {
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Nu se poate crea " + dir);
+		File tmp = File.createTempFile(key, ".tmp", dir);
+		try {
+			if (bundle.isUpdatable()) {
+				ObjectOutputStream out = new ObjectOutputStream(
+						new BufferedOutputStream(new FileOutputStream(tmp)));
+				try {
+					out.writeObject(bundle);
+				} finally {
+					out.close();
+				}
+			} else
+				BundleFile.write(tmp, bundle);
+			File f = new File(dir, key + SUFFIX);
+			f.delete();
+			if (!tmp.renameTo(f))
+				throw new IOException("Nu se poate scrie " + f);
+		} finally {
+			tmp.delete();
+		}
+		evict();
+	}
+
+	/**
+	 * Graful salvat cu {@link #writeGraph} pentru intrarea key, sau null daca
+	 * nu exista ori nu mai poate fi citit.
+	 *
+	 * @param name
+	 *            numele grafului: spatiul construit din intrare si parametrii
+	 *            grafului, fara '-' la inceput.
+	 */
+	HnswIndex readGraph(String key, String name) {
+
+		File f = new File(dir, key + "-" + name + GRAPH_SUFFIX);
+		if (!f.isFile())
+			return null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(f)));
+			try {
+				return (HnswIndex) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			f.delete();
+		} catch (ClassNotFoundException e) {
+			f.delete();
+		} catch (ClassCastException e) {
+			f.delete();
+		}
+		return null;
+	}
+
+	/**
+	 * Salveaza graful construit peste spatiul intrarii key, ca
+	 * {@link #write}. Graful este serializat in forma lui compacta.
+	 */
+	void writeGraph(String key, String name, HnswIndex graph)
+			throws IOException {
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Nu se poate crea " + dir);
+		File tmp = File.createTempFile(key, ".tmp", dir);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeObject(graph);
+			} finally {
+				out.close();
+			}
+			File f = new File(dir, key + "-" + name + GRAPH_SUFFIX);
+			f.delete();
+			if (!tmp.renameTo(f))
+				throw new IOException("Nu se poate scrie " + f);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private void evict() {
+
+		File[] entries = dir.listFiles();
+		if (entries == null)
+			return;
+		int n = 0;
+		for (int i = 0; i < entries.length; i++)
+			if (entries[i].getName().endsWith(SUFFIX))
+				entries[n++] = entries[i];
+		if (n > capacity) {
+			Arrays.sort(entries, 0, n, new Comparator<File>() {
+				public int compare(File a, File b) {
+					long x = a.lastModified(), y = b.lastModified();
+					return x < y ? -1 : x == y ? 0 : 1;
+				}
+			});
+			for (int i = 0; i < n - Math.max(capacity, 0); i++)
+				entries[i].delete();
+		}
+
+		// grafurile intrarilor sterse
+		String[] names = dir.list();
+		if (names == null)
+			return;
+		for (int i = 0; i < names.length; i++) {
+			int dash = names[i].indexOf('-');
+			if (names[i].endsWith(GRAPH_SUFFIX)
+					&& dash > 0
+					&& !new File(dir, names[i].substring(0, dash) + SUFFIX)
+							.isFile())
+				new File(dir, names[i]).delete();
+		}
+	}
+}
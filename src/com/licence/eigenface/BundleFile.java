@@ -0,0 +1,267 @@
+package com.licence.eigenface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Formatul binar al unui spatiu al fetei. Toate valorile sunt little-endian,
+ * iar fiecare sectiune este completata cu 0 pana la un multiplu de 8 octeti,
+ * asa ca fiecare tablou incepe la un multiplu de 8 octeti:
+ *
+ * <pre>
+ * 0   4 octeti   "EFBN"
+ * 4   int        versiunea formatului ({@link #VERSION})
+ * 8   int        marimea unei valori a fetei medii si a vectorilor proprii:
+ *                4 (float) sau 8 (double)
+ * 12  int        lungimea unei imagini, N^2
+ * 16  int        numarul de vectori proprii, k
+ * 20  int        numarul de imagini, m
+ * 24  int        octetii tabelului de nume, cu completarea
+ * 28  int        1 daca urmeaza alegerea componentelor, altfel 0
+ * 32  double[k]  proiectiile fetei medii pe vectorii proprii
+ *     nume       pentru fiecare imagine: int lungimea si octetii UTF-8 ai
+ *                numelui
+ *     [N^2]      fata medie
+ *     [N^2 * k]  vectorii proprii intretesuti: valoarea vectorului j in
+ *                pixelul p este a (p * k + j)-a
+ *     double[m * k] ponderile imaginilor, rand dupa rand
+ *     alegerea componentelor ({@link ComponentSelection}), daca exista:
+ *                double varianta tinta, double timpul tinta, double
+ *                varianta totala, double timpul estimat, int numarul maxim
+ *                de componente, int c, double[c] valorile proprii
+ * </pre>
+ *
+ * La citire fisierul este mapat in memorie (vezi
+ * {@link FileChannel#map}): vectorii proprii si fata medie sunt folositi
+ * direct din fisier (vezi {@link MappedEigenSpace}), fara sa fie copiati,
+ * iar doar numele, ponderile si alegerea componentelor sunt citite in
+ * tablouri. Ponderile sunt pastrate in dubla precizie, ca spatiul citit sa
+ * dea aceleasi distante ca cel salvat.
+ *
+ * Formatul pastreaza doar spatiul, numele, ponderile si alegerea
+ * componentelor: metrica, indexurile si modelul lui {@link FaceBundle#enroll}
+ * nu sunt salvate.
+ */
+final class BundleFile {
+
+	/** Versiunea formatului; fisierele cu alta versiune nu sunt citite. */
+	static final int VERSION = 2;
+
+	private static final byte[] MAGIC = { 'E', 'F', 'B', 'N' };
+	private static final int HEADER = 32;
+
+	private BundleFile() {
+	}
+
+	/**
+	 * Daca fisierul incepe cu antetul acestui format.
+	 */
+	static boolean matches(File f) throws IOException {
+
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			if (in.length() < HEADER)
+				return false;
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < magic.length; i++)
+				if (magic[i] != MAGIC[i])
+					return false;
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Scrie spatiul fetei in fisierul f, in precizia spatiului lui (float
+	 * pentru {@link FloatEigenSpace}, double in rest).
+	 */
+	static void write(File f, FaceBundle bundle) throws IOException {
+
+		EigenSpace space = bundle.space();
+		double[][] wk = bundle.weights();
+		String[] id = bundle.getNames();
+		int length = space.length(), k = space.components(), m = wk.length;
+		int size = space instanceof FloatEigenSpace
+				|| space instanceof MappedEigenSpace
+				&& ((MappedEigenSpace) space).size() == 4 ? 4 : 8;
+
+		byte[][] names = new byte[m][];
+		long table = 0;
+		for (int i = 0; i < m; i++) {
+			names[i] = id[i].getBytes("UTF-8");
+			table += 4 + names[i].length;
+		}
+		table = align(table);
+		long mean = align((long) size * length);
+		long eig = align((long) size * length * k);
+		ComponentSelection selection = bundle.getSelection();
+		double[] values = selection == null ? null : selection
+				.getEigenvalues();
+		long total = HEADER + 8L * k + table + mean + eig + 8L * m * k
+				+ (values == null ? 0 : 40 + 8L * values.length);
+		if (table > Integer.MAX_VALUE || total > Integer.MAX_VALUE)
+			throw new IOException("Spatiul fetei este prea mare pentru "
+					+ "formatul binar");
+
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.setLength(total);
+			MappedByteBuffer out = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, total);
+			out.order(ByteOrder.LITTLE_ENDIAN);
+			out.put(MAGIC);
+			out.putInt(VERSION).putInt(size).putInt(length).putInt(k)
+					.putInt(m).putInt((int) table).putInt(values == null ? 0 : 1);
+			for (int j = 0; j < k; j++) {
+				double pm = 0.0;
+				for (int p = 0; p < length; p++)
+					pm += space.get(j, p) * space.mean(p);
+				out.putDouble(pm);
+			}
+			int start = out.position();
+			for (int i = 0; i < m; i++) {
+				out.putInt(names[i].length);
+				out.put(names[i]);
+			}
+			out.position(start + (int) table);
+
+			start = out.position();
+			if (size == 4)
+				for (int p = 0; p < length; p++)
+					out.putFloat((float) space.mean(p));
+			else
+				for (int p = 0; p < length; p++)
+					out.putDouble(space.mean(p));
+			out.position(start + (int) mean);
+			start = out.position();
+			if (size == 4)
+				for (int p = 0; p < length; p++)
+					for (int j = 0; j < k; j++)
+						out.putFloat((float) space.get(j, p));
+			else
+				for (int p = 0; p < length; p++)
+					for (int j = 0; j < k; j++)
+						out.putDouble(space.get(j, p));
+			out.position(start + (int) eig);
+			for (int i = 0; i < m; i++)
+				for (int j = 0; j < k; j++)
+					out.putDouble(wk[i][j]);
+			if (values != null) {
+				ComponentPolicy policy = selection.getPolicy();
+				out.putDouble(policy.getVariance())
+						.putDouble(policy.getBudgetNanos())
+						.putDouble(selection.getTotalVariance())
+						.putDouble(selection.getPredictedNanos());
+				out.putInt(policy.getMaxComponents()).putInt(values.length);
+				for (int j = 0; j < values.length; j++)
+					out.putDouble(values[j]);
+			}
+			out.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Citeste un spatiu al fetei scris de {@link #write}. Fata medie si
+	 * vectorii proprii raman in fisierul mapat.
+	 *
+	 * @throws IOException
+	 *             Fisierul nu este in acest format, are alta versiune sau
+	 *             este trunchiat.
+	 */
+	static FaceBundle read(File f) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		MappedByteBuffer in;
+		try {
+			// maparea ramane valida si dupa inchiderea fisierului
+			in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			raf.close();
+		}
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			return read(in);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException, NegativeArraySizeException, ...
+			IOException io = new IOException("Fisier stricat: " + f);
+			io.initCause(e);
+			throw io;
+		}
+	}
+
+	private static FaceBundle read(ByteBuffer in) throws IOException {
+
+		for (int i = 0; i < MAGIC.length; i++)
+			if (in.get() != MAGIC[i])
+				throw new IOException("Nu este un spatiu al fetei");
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Versiunea " + version
+					+ " a formatului, nu " + VERSION);
+		int size = in.getInt(), length = in.getInt(), k = in.getInt(), m = in
+				.getInt(), table = in.getInt(), selected = in.getInt();
+		if (size != 4 && size != 8 || length < 1 || k < 1 || m < 1)
+			throw new IOException("Antet gresit");
+
+		double[] projectedMean = new double[k];
+		in.asDoubleBuffer().get(projectedMean);
+		in.position(HEADER + 8 * k);
+
+		int start = in.position();
+		String[] id = new String[m];
+		for (int i = 0; i < m; i++) {
+			byte[] name = new byte[in.getInt()];
+			in.get(name);
+			id[i] = new String(name, "UTF-8");
+		}
+		in.position(start + table);
+
+		ByteBuffer mean = slice(in, size * length);
+		ByteBuffer eig = slice(in, size * length * k);
+		double[][] wk = new double[m][k];
+		DoubleBuffer weights = slice(in, 8 * m * k).asDoubleBuffer();
+		for (int i = 0; i < m; i++)
+			weights.get(wk[i]);
+
+		ComponentSelection selection = null;
+		if (selected != 0) {
+			double variance = in.getDouble(), budget = in.getDouble();
+			double trace = in.getDouble(), predicted = in.getDouble();
+			int max = in.getInt();
+			double[] values = new double[in.getInt()];
+			in.asDoubleBuffer().get(values);
+			selection = new ComponentSelection(new ComponentPolicy(max,
+					variance, budget), values, trace, predicted);
+		}
+
+		return new FaceBundle(new MappedEigenSpace(mean, eig, size,
+				projectedMean, length, k), wk, id, null, selection);
+	}
+
+	/**
+	 * Urmatorii n octeti din in, ca buffer little-endian separat; in trece
+	 * si peste completarea pana la un multiplu de 8.
+	 */
+	private static ByteBuffer slice(ByteBuffer in, int n) {
+
+		ByteBuffer s = in.slice();
+		s.limit(n);
+		in.position(in.position() + (int) align(n));
+		return s.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long align(long n) {
+		return (n + 7) & ~7L;
+	}
+}
@@ -0,0 +1,224 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Toate spatiile fetei ale unui {@link EigenFaceCreator}, proiectate
+ * impreuna. O interogare parcurge pixelii imaginii o singura data pentru
+ * toate spatiile, in felii de {@link DoubleEigenSpace#TILE}: felia imaginii
+ * ramane in cache cat timp fiecare spatiu isi aduna sumele pe ea (vezi
+ * {@link EigenSpace#accumulate}), in loc sa centreze si sa proiecteze
+ * imaginea separat pentru fiecare; apoi fiecare spatiu isi puncteaza partea
+ * lui din proiectie.
+ *
+ * Stiva nu copiaza vectorii proprii: fiecare spatiu este citit din tablourile
+ * lui, in precizia lui (float, double sau mapat din fisier), asa ca stiva
+ * ocupa doar cateva tablouri de marimea numarului de spatii si poate fi
+ * construita din nou la fiecare schimbare a spatiilor fetei. Nu se modifica
+ * dupa construire, asa ca poate fi folosita de mai multe fire deodata. Daca
+ * spatiile au imagini de lungimi diferite, nu pot fi proiectate impreuna si
+ * fiecare spatiu isi face propria proiectie.
+ */
+final class BundleStack {
+
+	private final FaceBundle[] bundles;
+	private final EigenSpace[] spaces;
+	// componentele spatiului i sunt [offset[i], offset[i + 1])
+	private final int[] offset;
+	// -1 daca spatiile au lungimi diferite
+	private final int length;
+	private final int total;
+
+	BundleStack(FaceBundle[] bundles) {
+
+		this.bundles = bundles;
+		this.spaces = new EigenSpace[bundles.length];
+		this.offset = new int[bundles.length + 1];
+		for (int i = 0; i < bundles.length; i++) {
+			spaces[i] = bundles[i].space();
+			offset[i + 1] = offset[i] + bundles[i].components();
+		}
+		this.total = offset[bundles.length];
+
+		int n = bundles.length > 0 ? spaces[0].length() : 0;
+		for (int i = 1; i < bundles.length; i++)
+			if (spaces[i].length() != n)
+				n = -1;
+		this.length = n;
+	}
+
+	/**
+	 * Spatiile fetei, in ordinea data la construire.
+	 */
+	FaceBundle[] bundles() {
+		return bundles;
+	}
+
+	/**
+	 * Cea mai apropiata imagine din toate spatiile fetei; la distante egale
+	 * castiga primul spatiu.
+	 *
+	 * @param cascade
+	 *            cautarea in cascada folosita in fiecare spatiu (vezi
+	 *            {@link FaceBundle#match(double[], Cascade)}), sau null pentru
+	 *            cautarea completa. Interogarea este numarata o singura data,
+	 *            iar cele verificate sunt comparate cu o parcurgere a tuturor
+	 *            imaginilor din toate spatiile, pe rezultatul final.
+	 * @return null daca nu exista spatii ale fetei.
+	 */
+	MatchResult match(double[] face, Cascade cascade, MatchBuffers buffers) {
+
+		MatchResult best = nearest(face, cascade, false, buffers);
+		if (cascade != null && best != null && cascade.count()) {
+			MatchResult exact = nearest(face, null, true, buffers);
+			cascade.verified(exact.getIndex() == best.getIndex()
+					&& exact.getIdentity().equals(best.getIdentity()));
+		}
+		return best;
+	}
+
+	/**
+	 * Cea mai apropiata imagine gasita cu cascada sau, daca cascade este
+	 * null, cu cautarea completa a fiecarui spatiu (vezi
+	 * {@link FaceBundle#score}); daca linear, cu o parcurgere a tuturor
+	 * imaginilor, fara indexuri si grafuri.
+	 */
+	private MatchResult nearest(double[] face, Cascade cascade,
+			boolean linear, MatchBuffers buffers) {
+
+		MatchResult best = null;
+		if (length < 0) {
+			for (int i = 0; i < bundles.length; i++) {
+				int k = offset[i + 1] - offset[i];
+				double[] projected = buffers.batch(k);
+				spaces[i].project(face, projected, k);
+				best = nearer(best, search(i, projected, 0, cascade, linear,
+						buffers));
+			}
+			return best;
+		}
+
+		double[] projected = buffers.batch(total);
+		project(face, projected, buffers);
+		for (int i = 0; i < bundles.length; i++)
+			best = nearer(best, search(i, projected, offset[i], cascade,
+					linear, buffers));
+		return best;
+	}
+
+	private MatchResult search(int i, double[] projected, int off,
+			Cascade cascade, boolean linear, MatchBuffers buffers) {
+
+		if (cascade != null)
+			return bundles[i].cascade(projected, off, cascade, buffers);
+		return linear ? bundles[i].scan(projected, off, buffers) : bundles[i]
+				.score(projected, off, buffers);
+	}
+
+	/**
+	 * Cele mai apropiate k imagini din toate spatiile fetei. Fiecare spatiu
+	 * da cei mai buni k candidati ai sai (vezi
+	 * {@link FaceBundle#match(double[], int)}), ordonati dupa distanta
+	 * raportata, iar candidatii tuturor trec printr-un singur heap marginit
+	 * dupa aceeasi distanta: rezultatul este chiar cele mai apropiate k
+	 * imagini dupa {@link MatchResult#getDistance()}.
+	 *
+	 * @return Cel mult k rezultate, cel mai apropiat primul.
+	 */
+	MatchResult[] match(double[] face, int k, MatchBuffers buffers) {
+
+		double[] projected = null;
+		if (length >= 0) {
+			projected = buffers.batch(total);
+			project(face, projected, buffers);
+		}
+
+		TopK heap = new TopK(k);
+		Vector<MatchResult> candidates = new Vector<MatchResult>();
+		for (int i = 0; i < bundles.length; i++) {
+			MatchResult[] r = projected == null ? bundles[i].match(face, k,
+					buffers) : bundles[i].top(projected, offset[i], k,
+					buffers);
+			for (int j = 0; j < r.length; j++)
+				if (heap.offer(r[j].getDistance(), candidates.size()))
+					candidates.addElement(r[j]);
+		}
+
+		int[] best = new int[heap.size()];
+		heap.drain(null, best);
+		MatchResult[] results = new MatchResult[best.length];
+		for (int i = 0; i < best.length; i++)
+			results[i] = candidates.get(best[i]);
+		return results;
+	}
+
+	/**
+	 * Cea mai apropiata imagine pentru fiecare dintre primele count imagini.
+	 * Imaginile sunt proiectate cate {@link FaceBundle#BATCH}, citind
+	 * vectorii proprii o singura data pentru tot lotul.
+	 *
+	 * @return Cate un rezultat pentru fiecare imagine (null daca nu exista
+	 *         spatii ale fetei), in aceeasi ordine.
+	 */
+	MatchResult[] match(double[][] faces, int count, MatchBuffers buffers) {
+
+		MatchResult[] best = new MatchResult[count];
+		if (length < 0) {
+			for (int i = 0; i < bundles.length; i++) {
+				MatchResult[] r = bundles[i].match(faces, count, buffers);
+				for (int f = 0; f < count; f++)
+					best[f] = nearer(best[f], r[f]);
+			}
+			return best;
+		}
+
+		for (int f0 = 0; f0 < count; f0 += FaceBundle.BATCH) {
+			int nf = Math.min(FaceBundle.BATCH, count - f0);
+			double[] projected = buffers.batch(nf * total);
+			Arrays.fill(projected, 0, nf * total, 0.0);
+			for (int p0 = 0; p0 < length; p0 += DoubleEigenSpace.TILE) {
+				int p1 = Math.min(p0 + DoubleEigenSpace.TILE, length);
+				for (int i = 0; i < spaces.length; i++)
+					spaces[i].accumulate(faces, f0, nf, p0, p1, projected,
+							offset[i], total, offset[i + 1] - offset[i],
+							buffers);
+			}
+			for (int f = 0; f < nf; f++) {
+				int o = f * total;
+				subtractMean(projected, o);
+				for (int i = 0; i < bundles.length; i++)
+					best[f0 + f] = nearer(best[f0 + f], bundles[i].score(
+							projected, o + offset[i], buffers));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Proiectia imaginii pe toate componentele, in out[0 ... total).
+	 */
+	private void project(double[] face, double[] out, MatchBuffers buffers) {
+
+		Arrays.fill(out, 0, total, 0.0);
+		for (int p0 = 0; p0 < length; p0 += DoubleEigenSpace.TILE) {
+			int p1 = Math.min(p0 + DoubleEigenSpace.TILE, length);
+			for (int i = 0; i < spaces.length; i++)
+				spaces[i].accumulate(face, p0, p1, out, offset[i], offset[i + 1]
+						- offset[i], buffers);
+		}
+		subtractMean(out, 0);
+	}
+
+	private void subtractMean(double[] out, int o) {
+
+		for (int i = 0; i < spaces.length; i++)
+			for (int j = 0, c = o + offset[i]; c < o + offset[i + 1]; j++, c++)
+				out[c] -= spaces[i].projectedMean(j);
+	}
+
+	private static MatchResult nearer(MatchResult best, MatchResult r) {
+		return best == null || best.getDistance() > r.getDistance() ? r
+				: best;
+	}
+}
@@ -0,0 +1,218 @@
+package com.licence.eigenface;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cautare in cascada peste componentele proiectiei: toate imaginile sunt
+ * punctate doar pe primele cateva componente (cele cu varianta cea mai mare),
+ * se pastreaza cele mai bune, iar etapele urmatoare puncteaza doar lista
+ * scurta, pe tot mai multe componente. Ultima etapa foloseste toate
+ * componentele, ca {@link FaceBundle#match(double[])}. Pentru spatii ale
+ * fetei cu multe imagini, costul unei interogari scade aproape de
+ * components[0] / k din costul cautarii complete.
+ *
+ * Rezultatul poate fi diferit de cel al cautarii complete daca imaginea
+ * castigatoare nu intra in lista scurta. Cascada numara cat de des se
+ * intampla: una din verifyEvery interogari este facuta si complet, iar
+ * rezultatele sunt comparate (vezi {@link #getChangeRate()}). Numaratorile
+ * pot fi actualizate din mai multe fire deodata.
+ */
+public final class Cascade {
+
+	private final int[] components;
+	private final int[] shortlist;
+	private final int verifyEvery;
+
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong verified = new AtomicLong();
+	private final AtomicLong changed = new AtomicLong();
+
+	/**
+	 * @param components
+	 *            Numarul de componente pe care puncteaza fiecare etapa, in
+	 *            ordine crescatoare.
+	 * @param shortlist
+	 *            Numarul de imagini pastrate dupa fiecare etapa, in ordine
+	 *            descrescatoare; cate unul pentru fiecare etapa.
+	 * @param verifyEvery
+	 *            O interogare din verifyEvery este comparata cu cautarea
+	 *            completa; <= 0 inseamna niciuna.
+	 * @throws IllegalArgumentException
+	 *             Etapele nu sunt ordonate sau numarul lor difera.
+	 */
+	public Cascade(int[] components, int[] shortlist, int verifyEvery) {
+
+		if (components.length == 0 || components.length != shortlist.length)
+			throw new IllegalArgumentException(
+					"Trebuie cate o lista scurta pentru fiecare etapa");
+		for (int s = 0; s < components.length; s++) {
+			if (components[s] < 1 || shortlist[s] < 1)
+				throw new IllegalArgumentException("Etapa " + s
+						+ " trebuie sa aiba cel putin o componenta si o imagine");
+			if (s > 0
+					&& (components[s] <= components[s - 1] || shortlist[s] >= shortlist[s - 1]))
+				throw new IllegalArgumentException("Etapa " + s
+						+ " trebuie sa foloseasca mai multe componente si mai putine imagini");
+		}
+		this.components = components.clone();
+		this.shortlist = shortlist.clone();
+		this.verifyEvery = verifyEvery;
+	}
+
+	/**
+	 * O singura etapa: primele components componente, apoi cele mai bune
+	 * shortlist imagini pe toate componentele.
+	 */
+	public Cascade(int components, int shortlist, int verifyEvery) {
+		this(new int[] { components }, new int[] { shortlist }, verifyEvery);
+	}
+
+	int stages() {
+		return components.length;
+	}
+
+	int components(int stage) {
+		return components[stage];
+	}
+
+	int shortlist(int stage) {
+		return shortlist[stage];
+	}
+
+	/**
+	 * Numara o interogare; se apeleaza o singura data pentru raspunsul final,
+	 * nu pentru fiecare spatiu al fetei.
+	 *
+	 * @return true daca interogarea trebuie comparata cu cautarea completa.
+	 */
+	boolean count() {
+		long q = queries.incrementAndGet();
+		return verifyEvery > 0 && q % verifyEvery == 0;
+	}
+
+	/**
+	 * Rezultatul comparatiei unei interogari cu cautarea completa.
+	 */
+	void verified(boolean same) {
+		verified.incrementAndGet();
+		if (!same)
+			changed.incrementAndGet();
+	}
+
+	/**
+	 * Pozitiile celor mai mici keep valori din s[0 .. m), crescator; la valori
+	 * egale sunt alese primele pozitii, in timp O(m).
+	 *
+	 * Pragul (a keep-a valoare) se cauta intai pe un esantion: valorile sub
+	 * pragul esantionului sunt putine, asa ca filtrarea lor aproape nu are
+	 * salturi gresit prezise, iar selectia exacta se face doar pe ele.
+	 *
+	 * @param scratch
+	 *            tablou de lucru, cel putin m valori.
+	 * @param out
+	 *            pozitiile alese, cel putin min(keep, m) valori.
+	 * @return numarul de pozitii alese, min(keep, m).
+	 */
+	static int select(double[] s, int m, int keep, double[] scratch, int[] out) {
+
+		if (keep >= m) {
+			for (int i = 0; i < m; i++)
+				out[i] = i;
+			return m;
+		}
+
+		double threshold = Double.NaN;
+		int stride = m / (16 * keep);
+		if (stride >= 4) {
+			int ns = 0;
+			for (int i = 0; i < m; i += stride)
+				scratch[ns++] = s[i];
+			// de doua ori mai multe valori decat trebuie, in medie
+			double t = kth(scratch, ns, Math.min(ns - 1, 2 * keep / stride + 8));
+			int n = 0;
+			for (int i = 0; i < m; i++)
+				if (s[i] <= t)
+					scratch[n++] = s[i];
+			if (n >= keep)
+				threshold = kth(scratch, n, keep - 1);
+		}
+		if (threshold != threshold) {
+			System.arraycopy(s, 0, scratch, 0, m);
+			threshold = kth(scratch, m, keep - 1);
+		}
+
+		int less = 0;
+		for (int i = 0; i < m; i++)
+			if (s[i] < threshold)
+				less++;
+		int equal = keep - less, n = 0;
+		for (int i = 0; i < m; i++)
+			if (s[i] < threshold || (s[i] == threshold && equal-- > 0))
+				out[n++] = i;
+		return n;
+	}
+
+	/**
+	 * A (k + 1)-a cea mai mica valoare din a[0 .. n) (selectie rapida; a este
+	 * reordonat).
+	 */
+	private static double kth(double[] a, int n, int k) {
+
+		int lo = 0, hi = n - 1;
+		while (lo < hi) {
+			double pivot = a[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (a[i] < pivot)
+					i++;
+				while (a[j] > pivot)
+					j--;
+				if (i <= j) {
+					double t = a[i];
+					a[i++] = a[j];
+					a[j--] = t;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+		return a[k];
+	}
+
+	/** Numarul de interogari facute cu cascada. */
+	public long getQueries() {
+		return queries.get();
+	}
+
+	/** Numarul de interogari comparate cu cautarea completa. */
+	public long getVerified() {
+		return verified.get();
+	}
+
+	/** Numarul de interogari comparate la care cascada a dat alt rezultat. */
+	public long getChanged() {
+		return changed.get();
+	}
+
+	/**
+	 * Fractiunea interogarilor comparate la care cascada a dat alt rezultat
+	 * decat cautarea completa (NaN daca nu s-a comparat nicio interogare).
+	 */
+	public double getChangeRate() {
+		long v = verified.get();
+		return v == 0 ? Double.NaN : (double) changed.get() / v;
+	}
+
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		for (int i = 0; i < components.length; i++)
+			s.append(components[i]).append(" comp -> ").append(shortlist[i])
+					.append(", ");
+		return s.append("schimbate ").append(changed.get()).append(" din ")
+				.append(verified.get()).toString();
+	}
+}
@@ -0,0 +1,173 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Regula dupa care antrenarea alege numarul de componente (eigenfaces)
+ * pastrate. Rezultatul este inregistrat in spatiul fetei, vezi
+ * {@link ComponentSelection}.
+ *
+ * Sunt trei limite, oricare poate lipsi (valoare <= 0):
+ * <ul>
+ * <li>numarul maxim de componente;
+ * <li>fractiunea din varianta totala care trebuie pastrata: se pastreaza cel
+ * mai mic k pentru care suma primelor k valori proprii atinge fractiunea;
+ * <li>timpul maxim al unei interogari pe spatiul fetei, in nanosecunde. O
+ * interogare costa k * (N^2 + M) inmultiri (proiectia si distantele), iar
+ * timpul unei inmultiri se masoara pe dispozitiv, o data pentru fiecare
+ * marime a imaginilor.
+ * </ul>
+ * Limita de timp si numarul maxim se aplica inainte de calculul vectorilor
+ * proprii (nu se calculeaza componente care nu pot fi pastrate); fractiunea
+ * de varianta se aplica dupa.
+ */
+public final class ComponentPolicy implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxComponents;
+	private final double variance;
+	private final double budgetNanos;
+
+	// timpul masurat al unei inmultiri, dupa lungimea imaginilor
+	private static final Map<Integer, Double> nanosPerMultiply =
+			new HashMap<Integer, Double>();
+	// rezultatul masuratorii, ca bucla sa nu fie eliminata
+	private static volatile double sink = 0.0;
+	/**
+	 * Numarul de inmultiri facute inainte de masurare, ca produsul scalar
+	 * sa fie masurat compilat.
+	 */
+	private static final long WARMUP = 20000000L;
+
+	/**
+	 * @param maxComponents
+	 *            Numarul maxim de componente; <= 0 inseamna numarul de
+	 *            imagini.
+	 * @param variance
+	 *            Fractiunea de varianta pastrata, in (0, 1]; <= 0 inseamna
+	 *            fara tinta.
+	 * @param budgetNanos
+	 *            Timpul maxim al unei interogari, in nanosecunde; <= 0
+	 *            inseamna fara limita.
+	 */
+	public ComponentPolicy(int maxComponents, double variance,
+			double budgetNanos) {
+
+		if (variance > 1.0)
+			throw new IllegalArgumentException("Fractiunea de varianta ("
+					+ variance + ") trebuie sa fie cel mult 1");
+		this.maxComponents = maxComponents;
+		this.variance = variance;
+		this.budgetNanos = budgetNanos;
+	}
+
+	/**
+	 * Exact k componente, ca inainte.
+	 */
+	public static ComponentPolicy fixed(int k) {
+		return new ComponentPolicy(k, -1, -1);
+	}
+
+	public int getMaxComponents() {
+		return maxComponents;
+	}
+
+	public double getVariance() {
+		return variance;
+	}
+
+	public double getBudgetNanos() {
+		return budgetNanos;
+	}
+
+	/**
+	 * Numarul maxim de componente permis de numarul maxim si de limita de
+	 * timp, pentru imagini de length pixeli si nrfaces imagini.
+	 */
+	int cap(int length, int nrfaces) {
+
+		int k = maxComponents > 0 ? Math.min(maxComponents, nrfaces)
+				: nrfaces;
+		if (budgetNanos > 0) {
+			double perComponent = (double) (length + nrfaces)
+					* nanosPerMultiply(length);
+			k = Math.min(k, (int) (budgetNanos / perComponent));
+		}
+		return Math.max(1, k);
+	}
+
+	/**
+	 * Alege numarul de componente.
+	 *
+	 * @param values
+	 *            primele valori proprii ale matricii de covarianta, in ordine
+	 *            descrescatoare (cel putin cap(length, nrfaces) valori).
+	 * @param trace
+	 *            urma matricii de covarianta (varianta totala).
+	 */
+	ComponentSelection select(double[] values, double trace, int length,
+			int nrfaces) {
+
+		int cap = Math.min(cap(length, nrfaces), values.length);
+		int k = cap;
+		if (variance > 0 && trace > 0) {
+			double kept = 0.0;
+			for (int j = 0; j < cap; j++) {
+				kept += Math.max(values[j], 0.0);
+				if (kept >= variance * trace) {
+					k = j + 1;
+					break;
+				}
+			}
+		}
+		double[] chosen = new double[k];
+		System.arraycopy(values, 0, chosen, 0, k);
+		double nanos = budgetNanos > 0 ? (double) k * (length + nrfaces)
+				* nanosPerMultiply(length) : -1;
+		return new ComponentSelection(this, chosen, trace, nanos);
+	}
+
+	/**
+	 * Timpul unei inmultiri-adunari in produsul scalar folosit la proiectie,
+	 * pe imagini de length pixeli. Se masoara o data pentru fiecare lungime:
+	 * timpul depinde de cat din imagine incape in cache.
+	 */
+	static synchronized double nanosPerMultiply(int length) {
+
+		Double cached = nanosPerMultiply.get(length);
+		if (cached != null)
+			return cached;
+
+		double[] a = new double[length];
+		double[] b = new double[length];
+		for (int p = 0; p < length; p++) {
+			a[p] = p;
+			b[p] = length - p;
+		}
+		// incalzire: destule apeluri ca bucla sa fie compilata de JIT
+		long start = System.nanoTime();
+		for (long done = 0; done < WARMUP
+				&& System.nanoTime() - start < 200000000L; done += length)
+			sink += TopEigenSolver.dot(a, b);
+		// cel mai bun timp dintre repetari
+		long best = Long.MAX_VALUE;
+		start = System.nanoTime();
+		for (int rep = 0; rep < 2000
+				&& System.nanoTime() - start < 20000000L; rep++) {
+			long t0 = System.nanoTime();
+			sink += TopEigenSolver.dot(a, b);
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+		double nanos = Math.max(best, 1L) / (double) length;
+		nanosPerMultiply.put(length, nanos);
+		return nanos;
+	}
+
+	public String toString() {
+		return "max " + maxComponents + ", varianta " + variance + ", timp "
+				+ budgetNanos + " ns";
+	}
+}
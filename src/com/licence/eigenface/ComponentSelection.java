@@ -0,0 +1,79 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+
+/**
+ * Alegerea numarului de componente facuta la antrenare (vezi
+ * {@link ComponentPolicy}), pastrata in spatiul fetei ca sa poata fi
+ * verificata mai tarziu: regula folosita, valorile proprii pastrate si
+ * fractiunea de varianta pe care o reprezinta.
+ */
+public final class ComponentSelection implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ComponentPolicy policy;
+	private final double[] values;
+	private final double trace;
+	private final double predictedNanos;
+
+	ComponentSelection(ComponentPolicy policy, double[] values, double trace,
+			double predictedNanos) {
+
+		this.policy = policy;
+		this.values = values;
+		this.trace = trace;
+		this.predictedNanos = predictedNanos;
+	}
+
+	public ComponentPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Numarul de componente pastrate.
+	 */
+	public int getComponents() {
+		return values.length;
+	}
+
+	/**
+	 * Valorile proprii ale componentelor pastrate, descrescator.
+	 */
+	public double[] getEigenvalues() {
+		return values.clone();
+	}
+
+	/**
+	 * Varianta totala a imaginilor de instruire (urma matricii de covarianta).
+	 */
+	public double getTotalVariance() {
+		return trace;
+	}
+
+	/**
+	 * Fractiunea din varianta totala pastrata de componente, in [0, 1].
+	 */
+	public double getRetainedVariance() {
+
+		if (trace <= 0)
+			return 1.0;
+		double kept = 0.0;
+		for (int j = 0; j < values.length; j++)
+			kept += Math.max(values[j], 0.0);
+		return Math.min(1.0, kept / trace);
+	}
+
+	/**
+	 * Timpul estimat al unei interogari, in nanosecunde, sau -1 daca regula nu
+	 * are limita de timp.
+	 */
+	public double getPredictedNanos() {
+		return predictedNanos;
+	}
+
+	public String toString() {
+		return values.length + " componente, " + getRetainedVariance()
+				+ " din varianta (" + policy + ")";
+	}
+}
@@ -0,0 +1,364 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * O galerie comprimata: ponderile imaginilor unui spatiu al fetei (vezi
+ * {@link FaceBundle#compress}) nu mai sunt pastrate ca double, ci ca
+ * coduri de cuantizare pe produs, un octet pentru fiecare subvector (vezi
+ * {@link ProductQuantizer}). Cu 8 subvectori, o imagine cu 32 de componente
+ * ocupa 8 octeti de coduri si 4 de index in loc de 256, plus 4 pentru
+ * norma ei cu {@link DistanceMetric#COSINE} si numele ei. Metrica este
+ * pastrata fara datele legate de fiecare imagine (vezi
+ * {@link DistanceMetric#unbound}).
+ *
+ * Imaginile sunt impartite in liste dupa cel mai apropiat centroid al unui
+ * cuantizor grosier (fisier inversat, IVF), iar codurile descriu diferenta
+ * fata de acel centroid. O potrivire cauta doar in cele mai apropiate probes
+ * liste (sau in mai multe, daca acestea au mai putin de k imagini: k-means
+ * poate lasa liste goale); pentru fiecare, contributiile tuturor codurilor se calculeaza o data
+ * intr-un tabel, iar scorul unei imagini este o suma de valori din tabel.
+ *
+ * Scorurile sunt cele ale metricii spatiului fetei pe ponderile
+ * reconstruite, asa ca rezultatul este aproximativ: poate diferi de cel al
+ * spatiului necomprimat cand doua imagini sunt foarte apropiate sau cand
+ * imaginea castigatoare este intr-o lista necautata. La distante egale
+ * castiga imaginea gasita prima.
+ *
+ * Galeria nu se modifica dupa construire, asa ca poate fi folosita de mai
+ * multe fire deodata.
+ */
+public final class CompressedBundle implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final EigenSpace space;
+	private final DistanceMetric metric;
+	private final ProductQuantizer pq;
+	// centroizii cuantizorului grosier, cate unul pentru fiecare lista
+	private final double[][] coarse;
+	// lista l contine pozitiile [start[l], start[l + 1]); images[p] este
+	// imaginea de pe pozitia p, iar codurile ei sunt
+	// codes[p * subvectors ...]
+	private final int[] start;
+	private final int[] images;
+	private final byte[] codes;
+	// normele ponderilor reconstruite ale fiecarei imagini, daca metrica le
+	// foloseste
+	private final float[] norm;
+	private final String[] id;
+	private final int components;
+	private final int probes;
+
+	/**
+	 * Lungimea imaginilor, ca {@link FaceBundle#length}.
+	 */
+	public final int length;
+
+	/**
+	 * Comprima ponderile spatiului fetei dat.
+	 *
+	 * @param wk
+	 *            ponderile imaginilor.
+	 * @param metric
+	 *            metrica spatiului fetei; datele ei legate de fiecare imagine
+	 *            nu sunt folosite.
+	 * @param subvectors
+	 *            octetii fiecarei imagini.
+	 * @param lists
+	 *            numarul listelor fisierului inversat.
+	 * @param probes
+	 *            numarul listelor cautate la o potrivire.
+	 */
+	CompressedBundle(EigenSpace space, double[][] wk, String[] id,
+			DistanceMetric metric, int subvectors, int lists, int probes) {
+
+		int m = wk.length;
+		if (lists < 1 || probes < 1)
+			throw new IllegalArgumentException(
+					"Trebuie cel putin o lista si o lista cautata");
+		this.space = space;
+		this.metric = metric.unbound();
+		this.components = wk[0].length;
+		this.length = space.length();
+		this.id = id.clone();
+		this.probes = probes;
+
+		// invatare pe un esantion, de cel putin 64 de imagini pentru fiecare
+		// centroid
+		Random random = new Random(m);
+		int count = Math.min(m, 64 * Math.max(lists, ProductQuantizer.CODES));
+		double[][] sample = new double[count][];
+		int[] pick = new int[m];
+		for (int i = 0; i < m; i++)
+			pick[i] = i;
+		for (int i = 0; i < count; i++) {
+			int r = i + random.nextInt(m - i);
+			int t = pick[i];
+			pick[i] = pick[r];
+			pick[r] = t;
+			sample[i] = wk[pick[i]];
+		}
+		coarse = ProductQuantizer.kmeans(sample, count, 0, components,
+				Math.min(lists, count), metric, random);
+
+		double[][] residual = new double[count][components];
+		for (int i = 0; i < count; i++) {
+			double[] c = coarse[ProductQuantizer.nearest(sample[i], 0, coarse,
+					metric)];
+			for (int j = 0; j < components; j++)
+				residual[i][j] = sample[i][j] - c[j];
+		}
+		pq = new ProductQuantizer(residual, count, subvectors, random);
+
+		int[] list = new int[m];
+		start = new int[coarse.length + 1];
+		for (int i = 0; i < m; i++) {
+			list[i] = ProductQuantizer.nearest(wk[i], 0, coarse, metric);
+			start[list[i] + 1]++;
+		}
+		for (int l = 0; l < coarse.length; l++)
+			start[l + 1] += start[l];
+		images = new int[m];
+		codes = new byte[m * subvectors];
+		int[] next = start.clone();
+		norm = metric.normed() ? new float[m] : null;
+		double[] w = new double[components];
+		for (int i = 0; i < m; i++) {
+			int p = next[list[i]]++;
+			images[p] = i;
+			pq.encode(wk[i], coarse[list[i]], codes, p * subvectors);
+			if (norm != null)
+				norm[i] = norm(codes, p * subvectors, coarse[list[i]], w);
+		}
+	}
+
+	private CompressedBundle(CompressedBundle g, int[] start, int[] images,
+			byte[] codes, float[] norm, String[] id, int probes) {
+
+		this.space = g.space;
+		this.metric = g.metric;
+		this.pq = g.pq;
+		this.coarse = g.coarse;
+		this.components = g.components;
+		this.length = g.length;
+		this.start = start;
+		this.images = images;
+		this.codes = codes;
+		this.norm = norm;
+		this.id = id;
+		this.probes = probes;
+	}
+
+	/**
+	 * Norma ponderilor reconstruite din codes[o ..]: scorul unei imagini
+	 * foloseste ponderile reconstruite si in produsul scalar, asa ca si norma
+	 * trebuie sa fie a lor.
+	 */
+	private float norm(byte[] codes, int o, double[] offset, double[] w) {
+
+		pq.decode(codes, o, offset, w);
+		return (float) Math.sqrt(DistanceMetric.dot(w, w, components));
+	}
+
+	/** Numarul de imagini. */
+	public int size() {
+		return images.length;
+	}
+
+	/** Numarul listelor fisierului inversat. */
+	public int getLists() {
+		return coarse.length;
+	}
+
+	/** Numarul listelor cautate la o potrivire. */
+	public int getProbes() {
+		return probes;
+	}
+
+	/**
+	 * Aceeasi galerie, cautata in alt numar de liste: mai multe liste gasesc
+	 * mai des imaginea cea mai apropiata, cu un cost proportional.
+	 */
+	public CompressedBundle withProbes(int probes) {
+
+		if (probes < 1)
+			throw new IllegalArgumentException("Cel putin o lista cautata");
+		return new CompressedBundle(this, start, images, codes, norm, id,
+				probes);
+	}
+
+	/**
+	 * Identificatorii imaginilor, in ordinea in care au fost adaugate.
+	 */
+	public String[] getNames() {
+		return id.clone();
+	}
+
+	/**
+	 * Adauga imagini fara a schimba vectorii proprii sau centroizii: fiecare
+	 * imagine este proiectata, atribuita listei ei si codificata, ca la
+	 * construire (vezi {@link FaceBundle#append}).
+	 *
+	 * @return O galerie noua; aceasta ramane neschimbata.
+	 */
+	public CompressedBundle append(double[][] faces, String[] names) {
+
+		if (faces.length == 0 || faces.length != names.length)
+			throw new IllegalArgumentException(
+					"Trebuie cate un nume pentru fiecare imagine");
+		int k = faces.length, m = images.length, sv = pq.subvectors();
+		double[] projected = new double[k * components];
+		space.project(faces, k, projected, components);
+		double[][] wk = new double[k][components];
+		int[] list = new int[k];
+		int[] nstart = start.clone();
+		for (int f = 0; f < k; f++) {
+			for (int j = 0; j < components; j++)
+				wk[f][j] = Math.abs(projected[f * components + j]);
+			list[f] = ProductQuantizer.nearest(wk[f], 0, coarse, metric);
+			for (int l = list[f] + 1; l < nstart.length; l++)
+				nstart[l]++;
+		}
+
+		// pozitiile vechi se muta cu numarul imaginilor noi din listele
+		// dinaintea lor
+		int[] nimages = new int[m + k];
+		byte[] ncodes = new byte[(m + k) * sv];
+		for (int l = 0; l < coarse.length; l++) {
+			int n = start[l + 1] - start[l];
+			System.arraycopy(images, start[l], nimages, nstart[l], n);
+			System.arraycopy(codes, start[l] * sv, ncodes, nstart[l] * sv, n
+					* sv);
+		}
+		int[] fill = new int[coarse.length];
+		for (int l = 0; l < coarse.length; l++)
+			fill[l] = nstart[l] + start[l + 1] - start[l];
+		float[] nnorm = null;
+		if (norm != null) {
+			nnorm = new float[m + k];
+			System.arraycopy(norm, 0, nnorm, 0, m);
+		}
+		double[] w = new double[components];
+		for (int f = 0; f < k; f++) {
+			int p = fill[list[f]]++;
+			nimages[p] = m + f;
+			pq.encode(wk[f], coarse[list[f]], ncodes, p * sv);
+			if (nnorm != null)
+				nnorm[m + f] = norm(ncodes, p * sv, coarse[list[f]], w);
+		}
+
+		String[] nid = new String[m + k];
+		System.arraycopy(id, 0, nid, 0, m);
+		System.arraycopy(names, 0, nid, m, k);
+		return new CompressedBundle(this, nstart, nimages, ncodes, nnorm, nid,
+				probes);
+	}
+
+	/**
+	 * Cea mai apropiata imagine gasita, cu distanta calculata din ponderile
+	 * ei reconstruite, sau null daca galeria este goala.
+	 */
+	public MatchResult match(double[] face) {
+		return match(face, MatchBuffers.local());
+	}
+
+	/**
+	 * {@link #match(double[])} cu tablourile de lucru date.
+	 */
+	public MatchResult match(double[] face, MatchBuffers buffers) {
+		MatchResult[] best = match(face, 1, buffers);
+		return best.length == 0 ? null : best[0];
+	}
+
+	/**
+	 * Cele mai apropiate k imagini gasite, in ordinea crescatoare a
+	 * distantei raportate. Candidatii sunt alesi dupa scorul aproximat; pentru
+	 * {@link DistanceMetric#LEGACY}, a carui distanta nu creste odata cu
+	 * scorul, cei alesi sunt apoi ordonati dupa distanta.
+	 */
+	public MatchResult[] match(double[] face, int k) {
+		return match(face, k, MatchBuffers.local());
+	}
+
+	/**
+	 * {@link #match(double[], int)} cu tablourile de lucru date.
+	 */
+	public MatchResult[] match(double[] face, int k, MatchBuffers buffers) {
+
+		int n = components, sv = pq.subvectors();
+		double[] projected = buffers.projection(n);
+		space.project(face, projected, n);
+		for (int j = 0; j < n; j++)
+			projected[j] = Math.abs(projected[j]);
+		double qdata = metric.query(projected, n);
+
+		// listele cu centroizii cei mai apropiati
+		int lists = coarse.length;
+		double[] d = buffers.scores(lists);
+		for (int l = 0; l < lists; l++)
+			d[l] = metric.metric(projected, coarse[l], n);
+		// mai multe liste daca cele alese au mai putin de k imagini
+		int want = Math.min(k, images.length), np;
+		int[] probed;
+		for (int p = probes;; p *= 2) {
+			probed = new int[Math.min(p, lists)];
+			np = Cascade.select(d, lists, probed.length,
+					buffers.scratch(lists), probed);
+			int found = 0;
+			for (int i = 0; i < np; i++)
+				found += start[probed[i] + 1] - start[probed[i]];
+			if (found >= want || np == lists)
+				break;
+		}
+
+		TopK heap = new TopK(k);
+		double[] table = buffers.batch(sv * ProductQuantizer.CODES);
+		for (int i = 0; i < np; i++) {
+			int l = probed[i];
+			pq.table(projected, coarse[l], metric, table);
+			for (int p = start[l]; p < start[l + 1]; p++) {
+				double sum = 0.0;
+				for (int s = 0, c = p * sv, o = 0; s < sv; s++, c++, o += ProductQuantizer.CODES)
+					sum += table[o + (codes[c] & 0xff)];
+				double score = norm == null ? sum : metric.adc(sum, qdata,
+						norm[images[p]]);
+				if (score < heap.bound())
+					heap.offer(score, p);
+			}
+		}
+
+		double[] scores = new double[heap.size()];
+		int[] found = new int[scores.length];
+		heap.drain(scores, found);
+		MatchResult[] results = new MatchResult[found.length];
+		double[] w = buffers.scratch(n);
+		for (int i = 0; i < found.length; i++) {
+			int p = found[i], image = images[p];
+			pq.decode(codes, p * sv, coarse[list(p)], w);
+			results[i] = new MatchResult(id[image], metric.distance(projected,
+					qdata, w, image, n, scores[i], buffers), image);
+		}
+		if (!metric.ranksByScore())
+			Arrays.sort(results);
+		return results;
+	}
+
+	/**
+	 * Lista care contine pozitia p.
+	 */
+	private int list(int p) {
+
+		int lo = 0, hi = coarse.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (start[mid] <= p)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,564 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Distanta dintre proiectia unei imagini si ponderile imaginilor unui spatiu
+ * al fetei (ambele luate in valoare absoluta, ca wk). Se alege pentru fiecare
+ * spatiu al fetei, vezi {@link FaceBundle#withMetric}.
+ *
+ * Fiecare metrica da un scor, dupa care se ordoneaza imaginile (cel mai mic
+ * castiga), si distanta raportata in {@link MatchResult}. Pentru toate in afara
+ * de {@link #LEGACY} distanta raportata este chiar scorul, asa ca pragurile
+ * (ie: {@link EigenFaceCreator#THRESHOLD}) depind de metrica.
+ *
+ * Datele care depind doar de spatiul fetei (normele randurilor, varianta
+ * componentelor) se calculeaza o data, cand metrica este legata de ponderile
+ * spatiului ({@link #bind}); nucleele sunt desfasurate cate patru componente.
+ */
+public abstract class DistanceMetric implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Algoritmul original: imaginile sunt ordonate dupa suma diferentelor
+	 * absolute (cu prima componenta numarata de doua ori), iar distanta
+	 * raportata este suma diferentelor impartite la cea mai mare dintre ele.
+	 */
+	public static final DistanceMetric LEGACY = new Legacy();
+
+	/** Suma diferentelor absolute. */
+	public static final DistanceMetric L1 = new L1();
+
+	/**
+	 * Patratul distantei euclidiene, calculat ca |q|^2 + |w|^2 - 2 q.w, cu
+	 * |w|^2 calculat la legare.
+	 */
+	public static final DistanceMetric L2_SQUARED = new L2(null);
+
+	/** 1 - cosinusul unghiului, cu normele randurilor calculate la legare. */
+	public static final DistanceMetric COSINE = new Cosine(null);
+
+	/**
+	 * Patratul distantei Mahalanobis: fiecare componenta este impartita la
+	 * varianta ei, adica la valoarea proprie in scara eigenface-ului
+	 * normalizat (media lui wk^2 pe imaginile spatiului).
+	 */
+	public static final DistanceMetric MAHALANOBIS = new Mahalanobis(null);
+
+	/**
+	 * Metrica legata de ponderile unui spatiu al fetei (cate un rand pentru
+	 * fiecare imagine, valori >= 0).
+	 */
+	DistanceMetric bind(double[][] wk) {
+		return this;
+	}
+
+	/**
+	 * Aceeasi metrica fara datele pastrate pentru fiecare imagine la legare
+	 * (ie: normele randurilor); datele componentelor raman. Ajunge pentru tot
+	 * in afara de {@link #score} si {@link #prefix} pe randurile legate, asa
+	 * ca o galerie comprimata (vezi {@link CompressedBundle}) nu pastreaza o
+	 * valoare double in plus pentru fiecare imagine.
+	 */
+	DistanceMetric unbound() {
+		return this;
+	}
+
+	/**
+	 * Datele interogarii (ie: norma ei), calculate o data pentru toate
+	 * imaginile.
+	 */
+	double query(double[] q, int n) {
+		return 0.0;
+	}
+
+	/**
+	 * Scorul imaginii image (ponderile w) sau, daca imaginea nu poate avea un
+	 * scor mai mic decat bound, orice valoare >= bound.
+	 */
+	abstract double score(double[] q, double qdata, double[] w, int image,
+			int n, double bound);
+
+	/**
+	 * Scorul imaginii pe primele n componente, pentru etapele unei cascade
+	 * (vezi {@link Cascade}); n poate fi mai mic decat numarul componentelor
+	 * spatiului. Ca {@link #score}, poate intoarce orice valoare >= bound.
+	 */
+	double prefix(double[] q, double[] w, int image, int n, double bound) {
+		return score(q, query(q, n), w, image, n, bound);
+	}
+
+	/**
+	 * Scorurile primelor m imagini pe primele n componente, ca
+	 * {@link #prefix}, din ponderile asezate pe coloane: columns[j * m + i]
+	 * este componenta j a imaginii i. Fiecare coloana este citita in ordine,
+	 * asa ca bucla interioara se vectorizeaza.
+	 *
+	 * @param out
+	 *            scorurile, cel putin m valori.
+	 * @param scratch
+	 *            tablou de lucru, cel putin m valori.
+	 */
+	abstract void prefixAll(double[] q, double[] columns, int m, int n,
+			double[] out, double[] scratch);
+
+	/**
+	 * O distanta adevarata (respecta inegalitatea triunghiului) intre doi
+	 * vectori de ponderi, crescatoare odata cu scorul: imaginea cu cel mai
+	 * mic scor este si cea mai apropiata dupa aceasta distanta. Folosita de
+	 * indexul {@link VpTree}.
+	 */
+	abstract double metric(double[] a, double[] b, int n);
+
+	/**
+	 * O margine pentru valorile lui {@link #metric} in jurul vectorului v (ie:
+	 * distanta pana la 0), cu care se scaleaza erorile de rotunjire.
+	 */
+	abstract double magnitude(double[] v, int n);
+
+	/**
+	 * Contributia componentei j la scor, pentru tabelele de distante ale unei
+	 * galerii comprimate (vezi {@link CompressedBundle}): scorul unei imagini
+	 * este {@link #adc} aplicat sumei contributiilor tuturor componentelor.
+	 */
+	abstract double term(double q, double w, int j);
+
+	/**
+	 * Scorul din suma contributiilor {@link #term}.
+	 *
+	 * @param norm
+	 *            norma ponderilor imaginii, daca {@link #normed()}.
+	 */
+	double adc(double sum, double qdata, double norm) {
+		return sum;
+	}
+
+	/**
+	 * Daca {@link #adc} are nevoie de norma ponderilor fiecarei imagini.
+	 */
+	boolean normed() {
+		return false;
+	}
+
+	/**
+	 * Distanta raportata pentru imaginea castigatoare.
+	 */
+	double distance(double[] q, double qdata, double[] w, int image, int n,
+			double score, MatchBuffers buffers) {
+		return score;
+	}
+
+	/**
+	 * Daca distanta raportata creste odata cu scorul, adica imaginile sunt in
+	 * aceeasi ordine dupa oricare dintre ele. Nu si pentru {@link #LEGACY}, a
+	 * carui distanta este normalizata cu cea mai mare diferenta.
+	 */
+	boolean ranksByScore() {
+		return true;
+	}
+
+	public abstract String toString();
+
+	private static final class Legacy extends DistanceMetric {
+
+		private static final long serialVersionUID = 1L;
+
+		double score(double[] q, double qdata, double[] w, int image, int n,
+				double bound) {
+
+			double b = Math.abs(q[0] - w[0]);
+			for (int j = 0; j < n && b < bound; j++)
+				b += Math.abs(q[j] - w[j]);
+			return b;
+		}
+
+		double distance(double[] q, double qdata, double[] w, int image,
+				int n, double score, MatchBuffers buffers) {
+
+			double[] distance = buffers.minDistance(n);
+			for (int j = 0; j < n; j++)
+				distance[j] = Math.abs(q[j] - w[j]);
+
+			double max = FaceBundle.max(distance, n);
+			if (max > 0.0)
+				FaceBundle.divide(distance, max, n);
+
+			return FaceBundle.sum(distance, n);
+		}
+
+		boolean ranksByScore() {
+			return false;
+		}
+
+		void prefixAll(double[] q, double[] columns, int m, int n,
+				double[] out, double[] scratch) {
+
+			// prima componenta de doua ori, ca in score()
+			double q0 = q[0];
+			for (int i = 0; i < m; i++)
+				out[i] = 2.0 * Math.abs(q0 - columns[i]);
+			for (int j = 1, o = m; j < n; j++, o += m) {
+				double qj = q[j];
+				for (int i = 0; i < m; i++)
+					out[i] += Math.abs(qj - columns[o + i]);
+			}
+		}
+
+		// L1 cu prima componenta de doua ori, adica score()
+		double metric(double[] a, double[] b, int n) {
+
+			double s = Math.abs(a[0] - b[0]);
+			for (int j = 0; j < n; j++)
+				s += Math.abs(a[j] - b[j]);
+			return s;
+		}
+
+		double magnitude(double[] v, int n) {
+
+			double s = Math.abs(v[0]);
+			for (int j = 0; j < n; j++)
+				s += Math.abs(v[j]);
+			return s;
+		}
+
+		double term(double q, double w, int j) {
+			return j == 0 ? 2.0 * Math.abs(q - w) : Math.abs(q - w);
+		}
+
+		public String toString() {
+			return "legacy";
+		}
+	}
+
+	private static final class L1 extends DistanceMetric {
+
+		private static final long serialVersionUID = 1L;
+
+		double score(double[] q, double qdata, double[] w, int image, int n,
+				double bound) {
+
+			double s = 0.0;
+			int j = 0;
+			// verificarea limitei dupa fiecare patru componente
+			for (; j + 3 < n && s < bound; j += 4)
+				s += Math.abs(q[j] - w[j]) + Math.abs(q[j + 1] - w[j + 1])
+						+ Math.abs(q[j + 2] - w[j + 2])
+						+ Math.abs(q[j + 3] - w[j + 3]);
+			if (s >= bound)
+				return s;
+			for (; j < n; j++)
+				s += Math.abs(q[j] - w[j]);
+			return s;
+		}
+
+		void prefixAll(double[] q, double[] columns, int m, int n,
+				double[] out, double[] scratch) {
+
+			Arrays.fill(out, 0, m, 0.0);
+			for (int j = 0, o = 0; j < n; j++, o += m) {
+				double qj = q[j];
+				for (int i = 0; i < m; i++)
+					out[i] += Math.abs(qj - columns[o + i]);
+			}
+		}
+
+		double metric(double[] a, double[] b, int n) {
+			return score(a, 0.0, b, 0, n, Double.POSITIVE_INFINITY);
+		}
+
+		double magnitude(double[] v, int n) {
+
+			double s = 0.0;
+			for (int j = 0; j < n; j++)
+				s += Math.abs(v[j]);
+			return s;
+		}
+
+		double term(double q, double w, int j) {
+			return Math.abs(q - w);
+		}
+
+		public String toString() {
+			return "L1";
+		}
+	}
+
+	private static final class L2 extends DistanceMetric {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] norm2;
+
+		L2(double[] norm2) {
+			this.norm2 = norm2;
+		}
+
+		DistanceMetric bind(double[][] wk) {
+
+			double[] norm2 = new double[wk.length];
+			for (int i = 0; i < wk.length; i++)
+				norm2[i] = dot(wk[i], wk[i], wk[i].length);
+			return new L2(norm2);
+		}
+
+		DistanceMetric unbound() {
+			return L2_SQUARED;
+		}
+
+		double query(double[] q, int n) {
+			return dot(q, q, n);
+		}
+
+		double score(double[] q, double qdata, double[] w, int image, int n,
+				double bound) {
+			return Math.max(0.0, qdata + norm2[image] - 2.0 * dot(q, w, n));
+		}
+
+		// normele sunt calculate pe toate componentele, asa ca pe primele n
+		// se aduna direct patratele diferentelor
+		double prefix(double[] q, double[] w, int image, int n, double bound) {
+
+			double s = 0.0;
+			int j = 0;
+			for (; j + 3 < n && s < bound; j += 4) {
+				double d0 = q[j] - w[j], d1 = q[j + 1] - w[j + 1];
+				double d2 = q[j + 2] - w[j + 2], d3 = q[j + 3] - w[j + 3];
+				s += d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+			}
+			if (s >= bound)
+				return s;
+			for (; j < n; j++) {
+				double d = q[j] - w[j];
+				s += d * d;
+			}
+			return s;
+		}
+
+		void prefixAll(double[] q, double[] columns, int m, int n,
+				double[] out, double[] scratch) {
+
+			Arrays.fill(out, 0, m, 0.0);
+			for (int j = 0, o = 0; j < n; j++, o += m) {
+				double qj = q[j];
+				for (int i = 0; i < m; i++) {
+					double d = qj - columns[o + i];
+					out[i] += d * d;
+				}
+			}
+		}
+
+		// distanta euclidiana, calculata direct
+		double metric(double[] a, double[] b, int n) {
+			return Math.sqrt(prefix(a, b, 0, n, Double.POSITIVE_INFINITY));
+		}
+
+		double magnitude(double[] v, int n) {
+			return Math.sqrt(dot(v, v, n));
+		}
+
+		double term(double q, double w, int j) {
+			return (q - w) * (q - w);
+		}
+
+		public String toString() {
+			return "L2^2";
+		}
+	}
+
+	private static final class Cosine extends DistanceMetric {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] norm;
+
+		Cosine(double[] norm) {
+			this.norm = norm;
+		}
+
+		DistanceMetric bind(double[][] wk) {
+
+			double[] norm = new double[wk.length];
+			for (int i = 0; i < wk.length; i++)
+				norm[i] = Math.sqrt(dot(wk[i], wk[i], wk[i].length));
+			return new Cosine(norm);
+		}
+
+		DistanceMetric unbound() {
+			return COSINE;
+		}
+
+		double query(double[] q, int n) {
+			return Math.sqrt(dot(q, q, n));
+		}
+
+		double score(double[] q, double qdata, double[] w, int image, int n,
+				double bound) {
+
+			double d = qdata * norm[image];
+			return d > 0.0 ? 1.0 - dot(q, w, n) / d : 1.0;
+		}
+
+		// normele primelor n componente, calculate in aceeasi trecere
+		double prefix(double[] q, double[] w, int image, int n, double bound) {
+
+			double qq = 0.0, ww = 0.0, qw = 0.0;
+			for (int j = 0; j < n; j++) {
+				qq += q[j] * q[j];
+				ww += w[j] * w[j];
+				qw += q[j] * w[j];
+			}
+			double d = Math.sqrt(qq * ww);
+			return d > 0.0 ? 1.0 - qw / d : 1.0;
+		}
+
+		void prefixAll(double[] q, double[] columns, int m, int n,
+				double[] out, double[] scratch) {
+
+			// out: q.w, scratch: |w|^2, pe primele n componente
+			Arrays.fill(out, 0, m, 0.0);
+			Arrays.fill(scratch, 0, m, 0.0);
+			double qq = 0.0;
+			for (int j = 0, o = 0; j < n; j++, o += m) {
+				double qj = q[j];
+				qq += qj * qj;
+				for (int i = 0; i < m; i++) {
+					double w = columns[o + i];
+					out[i] += qj * w;
+					scratch[i] += w * w;
+				}
+			}
+			for (int i = 0; i < m; i++) {
+				double d = Math.sqrt(qq * scratch[i]);
+				out[i] = d > 0.0 ? 1.0 - out[i] / d : 1.0;
+			}
+		}
+
+		// distanta dintre vectorii normalizati (coarda), sqrt(2 (1 - cos))
+		double metric(double[] a, double[] b, int n) {
+			return Math.sqrt(2.0 * Math.max(0.0,
+					prefix(a, b, 0, n, Double.POSITIVE_INFINITY)));
+		}
+
+		double magnitude(double[] v, int n) {
+			return 2.0;
+		}
+
+		// produsul scalar, impartit apoi la norme
+		double term(double q, double w, int j) {
+			return q * w;
+		}
+
+		double adc(double sum, double qdata, double norm) {
+
+			double d = qdata * norm;
+			return d > 0.0 ? 1.0 - sum / d : 1.0;
+		}
+
+		boolean normed() {
+			return true;
+		}
+
+		public String toString() {
+			return "cosine";
+		}
+	}
+
+	private static final class Mahalanobis extends DistanceMetric {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] inverse;
+
+		Mahalanobis(double[] inverse) {
+			this.inverse = inverse;
+		}
+
+		DistanceMetric bind(double[][] wk) {
+
+			int n = wk[0].length;
+			double[] inverse = new double[n];
+			for (int j = 0; j < n; j++) {
+				double var = 0.0;
+				for (int i = 0; i < wk.length; i++)
+					var += wk[i][j] * wk[i][j];
+				var /= wk.length;
+				// o componenta fara varianta nu deosebeste imaginile
+				inverse[j] = var > 0.0 ? 1.0 / var : 0.0;
+			}
+			return new Mahalanobis(inverse);
+		}
+
+		double score(double[] q, double qdata, double[] w, int image, int n,
+				double bound) {
+
+			double s = 0.0;
+			int j = 0;
+			for (; j + 3 < n && s < bound; j += 4) {
+				double d0 = q[j] - w[j], d1 = q[j + 1] - w[j + 1];
+				double d2 = q[j + 2] - w[j + 2], d3 = q[j + 3] - w[j + 3];
+				s += d0 * d0 * inverse[j] + d1 * d1 * inverse[j + 1] + d2 * d2
+						* inverse[j + 2] + d3 * d3 * inverse[j + 3];
+			}
+			if (s >= bound)
+				return s;
+			for (; j < n; j++) {
+				double d = q[j] - w[j];
+				s += d * d * inverse[j];
+			}
+			return s;
+		}
+
+		void prefixAll(double[] q, double[] columns, int m, int n,
+				double[] out, double[] scratch) {
+
+			Arrays.fill(out, 0, m, 0.0);
+			for (int j = 0, o = 0; j < n; j++, o += m) {
+				double qj = q[j], inv = inverse[j];
+				for (int i = 0; i < m; i++) {
+					double d = qj - columns[o + i];
+					out[i] += d * d * inv;
+				}
+			}
+		}
+
+		double metric(double[] a, double[] b, int n) {
+			return Math.sqrt(score(a, 0.0, b, 0, n, Double.POSITIVE_INFINITY));
+		}
+
+		double magnitude(double[] v, int n) {
+
+			double s = 0.0;
+			for (int j = 0; j < n; j++)
+				s += v[j] * v[j] * inverse[j];
+			return Math.sqrt(s);
+		}
+
+		double term(double q, double w, int j) {
+			return (q - w) * (q - w) * inverse[j];
+		}
+
+		public String toString() {
+			return "Mahalanobis";
+		}
+	}
+
+	/**
+	 * Produsul scalar al primelor n componente, cu patru sume partiale.
+	 */
+	static double dot(double[] a, double[] b, int n) {
+
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int j = 0;
+		for (; j + 3 < n; j += 4) {
+			s0 += a[j] * b[j];
+			s1 += a[j + 1] * b[j + 1];
+			s2 += a[j + 2] * b[j + 2];
+			s3 += a[j + 3] * b[j + 3];
+		}
+		for (; j < n; j++)
+			s0 += a[j] * b[j];
+		return (s0 + s1) + (s2 + s3);
+	}
+}
@@ -0,0 +1,194 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+
+/**
+ * Spatiu al fetei in dubla precizie. Vectorii proprii sunt stocati intr-un
+ * singur tablou intretesut pe componente: pentru fiecare pixel p, cele k
+ * valori ale vectorilor proprii sunt una langa alta (eigVector[p * k + j]).
+ *
+ * Proiectia e_j . (x - medie) este calculata ca e_j . x - e_j . medie, unde
+ * e_j . medie este calculat o singura data, la construire. O interogare
+ * parcurge astfel pixelii imaginii o singura data, fara copie centrata si
+ * fara sa citeasca fata medie: pentru fiecare felie de pixeli se actualizeaza
+ * toate cele k sume, iar valorile vectorilor proprii din felie sunt citite
+ * in ordine. Sumele e_j . x sunt mari (pixelii ARGB sunt in jur de 2^24),
+ * dar in dubla precizie diferenta isi pastreaza cel putin 8 cifre
+ * semnificative.
+ */
+class DoubleEigenSpace implements EigenSpace {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double[] avgFace;
+	private final double[] eigVector;
+	private final double[] projectedMean;
+	private final int length;
+	private final int components;
+
+	/**
+	 * Intretese primele components randuri ale matricii vectorilor proprii.
+	 * Fata medie este preluata fara copiere; eigV nu mai este folosit dupa
+	 * apel.
+	 *
+	 * @param avgF
+	 *            fata medie (N^2).
+	 * @param eigV
+	 *            vectorii proprii, cel putin components * N^2 valori, rand
+	 *            dupa rand.
+	 * @param components
+	 *            numarul de vectori proprii pastrati.
+	 */
+	DoubleEigenSpace(double[] avgF, double[] eigV, int components) {
+
+		this.avgFace = avgF;
+		this.length = avgF.length;
+		this.components = components;
+		this.eigVector = new double[components * length];
+		this.projectedMean = new double[components];
+		for (int j = 0; j < components; j++) {
+			int off = j * length;
+			double pm = 0.0;
+			for (int p = 0; p < length; p++) {
+				double e = eigV[off + p];
+				eigVector[p * components + j] = e;
+				pm += e * avgF[p];
+			}
+			projectedMean[j] = pm;
+		}
+	}
+
+	/**
+	 * Toti vectorii proprii din eigV (k * N^2 valori, rand dupa rand).
+	 */
+	DoubleEigenSpace(double[] avgF, double[] eigV) {
+
+		this(avgF, eigV, eigV.length / avgF.length);
+	}
+
+	/**
+	 * Copiaza matricea vectorilor proprii (cate unul pe rand).
+	 */
+	DoubleEigenSpace(double[] avgF, double[][] eigV) {
+
+		this(avgF.clone(), flatten(eigV, avgF.length));
+	}
+
+	static double[] flatten(double[][] m, int length) {
+
+		double[] flat = new double[m.length * length];
+		for (int j = 0; j < m.length; j++)
+			System.arraycopy(m[j], 0, flat, j * length, length);
+		return flat;
+	}
+
+	public int components() {
+		return components;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public double get(int j, int p) {
+		return eigVector[p * components + j];
+	}
+
+	public double mean(int p) {
+		return avgFace[p];
+	}
+
+	public void project(double[] face, double[] out, int count) {
+
+		Arrays.fill(out, 0, count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += TILE)
+			accumulate(eigVector, components, face, p0,
+					Math.min(p0 + TILE, length), out, 0, count);
+		for (int j = 0; j < count; j++)
+			out[j] -= projectedMean[j];
+	}
+
+	/**
+	 * Pixelii sunt parcursi o singura data, in felii de {@link #TILE}; felia
+	 * vectorilor proprii este folosita pentru toate imaginile lotului cat timp
+	 * este in cache.
+	 */
+	public void project(double[][] faces, int nfaces, double[] out,
+			int count) {
+		project(faces, 0, nfaces, out, count);
+	}
+
+	public void project(double[][] faces, int f0, int nfaces, double[] out,
+			int count) {
+
+		Arrays.fill(out, 0, nfaces * count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += TILE) {
+			int p1 = Math.min(p0 + TILE, length);
+			for (int f = 0; f < nfaces; f++)
+				accumulate(eigVector, components, faces[f0 + f], p0, p1, out,
+						f * count, count);
+		}
+		for (int f = 0, o = 0; f < nfaces; f++, o += count)
+			for (int j = 0; j < count; j++)
+				out[o + j] -= projectedMean[j];
+	}
+
+	public double projectedMean(int j) {
+		return projectedMean[j];
+	}
+
+	public void accumulate(double[] face, int p0, int p1, double[] out,
+			int o, int count, MatchBuffers buffers) {
+
+		accumulate(eigVector, components, face, p0, p1, out, o, count);
+	}
+
+	public void accumulate(double[][] faces, int f0, int nfaces, int p0,
+			int p1, double[] out, int o, int stride, int count,
+			MatchBuffers buffers) {
+
+		for (int f = 0; f < nfaces; f++)
+			accumulate(eigVector, components, faces[f0 + f], p0, p1, out, o
+					+ f * stride, count);
+	}
+
+	/**
+	 * Aduna la out[o + j] produsele dintre vectorul propriu j si face pe
+	 * pixelii [p0, p1), pentru j < count. In felie valorile vectorilor proprii
+	 * sunt consecutive; componentele sunt calculate cate patru, cu sumele in
+	 * registre.
+	 *
+	 * @param eigVector
+	 *            vectorii proprii intretesuti, eigVector[p * k + j].
+	 */
+	static void accumulate(double[] eigVector, int k, double[] face, int p0,
+			int p1, double[] out, int o, int count) {
+
+		int j = 0;
+		for (; j + 3 < count; j += 4) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int pix = p0, e = p0 * k + j; pix < p1; pix++, e += k) {
+				double x = face[pix];
+				s0 += eigVector[e] * x;
+				s1 += eigVector[e + 1] * x;
+				s2 += eigVector[e + 2] * x;
+				s3 += eigVector[e + 3] * x;
+			}
+			out[o + j] += s0;
+			out[o + j + 1] += s1;
+			out[o + j + 2] += s2;
+			out[o + j + 3] += s3;
+		}
+		for (; j < count; j++) {
+			double s = 0;
+			for (int pix = p0, e = p0 * k + j; pix < p1; pix++, e += k)
+				s += eigVector[e] * face[pix];
+			out[o + j] += s;
+		}
+	}
+
+	/**
+	 * Numarul de pixeli dintr-o felie a proiectiei.
+	 */
+	static final int TILE = 128;
+}
@@ -1,5 +1,7 @@
 package com.licence.eigenface;
 
+import java.util.Arrays;
+
 import android.util.Log;
 import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
@@ -76,32 +78,17 @@ public class EigenFaceComputation {
 		// ImageFileViewer simple = new ImageFileViewer();
 		// simple.setImage(face_v[0],width,height);
 
-		double[] avgF = new double[length];
-
 		/*
 		 * Calculeaza fata medie a tuturor fetelor. 1xN^2
 		 */
-		for (pix = 0; pix < length; pix++) {
-			temp = 0;
-			for (image = 0; image < nrfaces; image++) {
-				temp += face_v[image][pix];
-			}
-			avgF[pix] = temp / nrfaces;
-		}
-		
+		double[] avgF = average(face_v, length);
+
 		// simple.setImage(avgF, width,height);
 
 		/*
 		 * Calculeaza diferenta.
 		 */
-
-		for (image = 0; image < nrfaces; image++) {
-
-			for (pix = 0; pix < length; pix++) {
-				face_v[image][pix] = face_v[image][pix] - avgF[pix];
-				
-			}
-		}
+		center(face_v, avgF);
 		
 		/* Copiaza vectorul fata (MxN^2). Il vom folosi mai tarziu */
 
@@ -112,16 +99,12 @@ public class EigenFaceComputation {
 		// simple.setImage(face_v[0],width,height);
 
 		/*
-		 * Calculculam matricea de covarianta. MxM
-		 */
-
-		Jama.Matrix faceM = new Matrix(face_v, nrfaces, length);
-		Jama.Matrix faceM_transpose = faceM.transpose();
-
-		/*
-		 * Matricea de covarianta e MxM (nrfaces x nrfaces)
+		 * Calculculam matricea de covarianta. MxM (nrfaces x nrfaces), doar
+		 * triunghiul superior, pe blocuri si in paralel (vezi Gram). Nu mai
+		 * copiem imaginile intr-o matrice Jama si nu le transpunem.
 		 */
-		Matrix covarM = faceM.times(faceM_transpose);
+		Matrix covarM = new Matrix(Gram.compute(face_v, length), nrfaces,
+				nrfaces);
 
 		double[][] z = covarM.getArray();
 		System.out.println("Covariance matrix is " + z.length + " x "
@@ -177,8 +160,7 @@ public class EigenFaceComputation {
 		 * Inmultim faceM (MxN^2) cu noul vector propriu (MxM), si obtinem
 		 * eigenfaces (MxN^2)
 		 */
-		Matrix eigVectorM = new Matrix(eigVector, nrfaces, nrfaces);
-		eigVector = eigVectorM.times(faceM).getArray();
+		eigVector = eigenFaces(face_v, eigVector);
 
 		/* Normalizam matricea vectorilor proprii. */
 
@@ -195,21 +177,8 @@ public class EigenFaceComputation {
 		 * Aici este locul in care folosim vectorul fetelor copiat
 		 */
 
-		double[][] wk = new double[nrfaces][facesNumber]; // M randuri, 11
-		// coloane
-
-		/*
-		 * Calculam wk.
-		 */
-
-		for (image = 0; image < nrfaces; image++) {
-			for (j = 0; j < facesNumber; j++) {
-				temp = 0.0;
-				for (pix = 0; pix < length; pix++)
-					temp += eigVector[j][pix] * faces[image][pix];
-				wk[image][j] = Math.abs(temp);
-			}
-		}
+		double[][] wk = weights(faces, eigVector, facesNumber); // M randuri,
+		// 11 coloane
 
 		FaceBundle b = new FaceBundle(avgF, wk, eigVector, id);
 
@@ -269,6 +238,704 @@ public class EigenFaceComputation {
 		return b;
 	}
 
+	/**
+	 * Varianta trunchiata a lui {@link #submit}: in loc sa descompuna complet
+	 * matricea de covarianta MxM si sa sorteze toate valorile proprii,
+	 * calculeaza doar primele k perechi proprii cu {@link TopEigenSolver}.
+	 * Spatiul fetei rezultat contine k vectori proprii si k componente pentru
+	 * fiecare imagine.
+	 * 
+	 * @param face_v
+	 *            matrice 2-D, cate o imagine pe rand. Este modificata (se scade
+	 *            fata medie).
+	 * @param width
+	 *            Latimea imaginii.
+	 * @param height
+	 *            Inaltimea imaginii.
+	 * @param id
+	 *            Numele fiecarei imagini.
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= face_v.length.
+	 * 
+	 * @return Un "FaceBundle" folosit pentru recunoastere.
+	 */
+	public static FaceBundle submitTopK(double[][] face_v, int width,
+			int height, String[] id, int k) {
+
+		int length = width * height;
+		int nrfaces = face_v.length;
+
+		if (k < 1 || k > nrfaces)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + nrfaces);
+
+		double[] avgF = average(face_v, length);
+		center(face_v, avgF);
+
+		double[][] covar = gram(face_v, length);
+
+		TopEigenSolver solver = new TopEigenSolver(covar, k);
+		Log.i("Pachet FaceBundle", "top " + k + " din " + nrfaces
+				+ " valori proprii, " + solver.getIterations() + " iteratii"
+				+ (solver.isConverged() ? "" : ", fara convergenta"));
+
+		return buildBundle(face_v, avgF, solver.getVectors(), id, k);
+	}
+
+	/**
+	 * La fel ca {@link #submitTopK}, dar spatiul fetei pastreaza si baza
+	 * ortonormata, valorile proprii si coordonatele fiecarei imagini, asa ca
+	 * poate fi actualizat cu {@link FaceBundle#enroll} fara reantrenare.
+	 * Memoria suplimentara este k * N^2 + M * k valori.
+	 * 
+	 * @param face_v
+	 *            Imaginile, cate una pe rand (MxN^2). Sunt centrate pe loc.
+	 * @param width
+	 *            Latimea imaginii.
+	 * @param height
+	 *            Inaltimea imaginii.
+	 * @param id
+	 *            Numele fiecarei imagini.
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= face_v.length.
+	 * 
+	 * @return Un "FaceBundle" actualizabil.
+	 */
+	public static FaceBundle submitUpdatable(double[][] face_v, int width,
+			int height, String[] id, int k) {
+
+		if (k < 1 || k > face_v.length)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + face_v.length);
+		return submitUpdatable(face_v, width, height, id,
+				ComponentPolicy.fixed(k));
+	}
+
+	/**
+	 * Ca mai sus, dar numarul de componente este ales de policy dupa valorile
+	 * proprii si este inregistrat in spatiul fetei (vezi
+	 * {@link FaceBundle#getSelection()}).
+	 */
+	public static FaceBundle submitUpdatable(double[][] face_v, int width,
+			int height, String[] id, ComponentPolicy policy) {
+
+		int length = width * height;
+		int nrfaces = face_v.length;
+
+		double[] avgF = average(face_v, length);
+		center(face_v, avgF);
+
+		double[][] covar = gram(face_v, length);
+		double trace = 0.0;
+		for (int i = 0; i < nrfaces; i++)
+			trace += covar[i][i];
+
+		TopEigenSolver solver = new TopEigenSolver(covar, policy.cap(length,
+				nrfaces));
+		ComponentSelection selection = policy.select(solver.getValues(),
+				trace, length, nrfaces);
+		int k = selection.getComponents();
+		double[][] vectors = new double[k][];
+		System.arraycopy(solver.getVectors(), 0, vectors, 0, k);
+		double[] values = new double[k];
+		System.arraycopy(solver.getValues(), 0, values, 0, k);
+		Log.i("Pachet FaceBundle", selection.toString());
+
+		double[][] eigVector = eigenFaces(face_v, vectors);
+		// cu toate componentele, baza creste la fiecare imagine adaugata
+		IncrementalPca model = IncrementalPca.fromTraining(avgF, eigVector,
+				values, vectors, k == nrfaces ? Integer.MAX_VALUE : k, trace);
+
+		return finishBundle(face_v, avgF, eigVector, id, k, model, selection);
+	}
+
+	/**
+	 * Fata medie a tuturor fetelor. 1xN^2
+	 */
+	static double[] average(final double[][] face_v, int length) {
+
+		final int nrfaces = face_v.length;
+		final double[] avgF = new double[length];
+
+		Parallel.forChunks(length, GRAIN, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				for (int image = 0; image < nrfaces; image++) {
+					double[] face = face_v[image];
+					for (int pix = from; pix < to; pix++)
+						avgF[pix] += face[pix];
+				}
+				for (int pix = from; pix < to; pix++)
+					avgF[pix] /= nrfaces;
+			}
+		});
+		return avgF;
+	}
+
+	/**
+	 * Scade fata medie din fiecare imagine (pe loc).
+	 */
+	static void center(final double[][] face_v, final double[] avgF) {
+
+		Parallel.forChunks(avgF.length, GRAIN, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				for (int image = 0; image < face_v.length; image++) {
+					double[] face = face_v[image];
+					for (int pix = from; pix < to; pix++)
+						face[pix] -= avgF[pix];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Matricea de covarianta MxM (A * A^T) a imaginilor centrate (vezi
+	 * {@link Gram}).
+	 */
+	static double[][] gram(double[][] faces, int length) {
+		return Gram.compute(faces, length);
+	}
+
+	/**
+	 * Al doilea motor de antrenare: eigenfaces sunt obtinute dintr-un SVD
+	 * aleator al matricii fetelor centrate (vezi {@link RandomizedSvd}). Nu se
+	 * construieste matricea de covarianta MxM si nici transpusa lui face_v, asa
+	 * ca memoria suplimentara este doar O((M + N^2) * (k + oversampling)).
+	 * 
+	 * @param face_v
+	 *            matrice 2-D, cate o imagine pe rand. Este modificata (se scade
+	 *            fata medie).
+	 * @param width
+	 *            Latimea imaginii.
+	 * @param height
+	 *            Inaltimea imaginii.
+	 * @param id
+	 *            Numele fiecarei imagini.
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= face_v.length.
+	 * @param oversampling
+	 *            Coloane aleatoare suplimentare folosite de range finder.
+	 * @param powerIterations
+	 *            Numarul de iteratii de putere.
+	 * 
+	 * @return Un "FaceBundle" folosit pentru recunoastere.
+	 */
+	public static FaceBundle submitRandomized(double[][] face_v, int width,
+			int height, String[] id, int k, int oversampling,
+			int powerIterations) {
+
+		if (k < 1 || k > face_v.length)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + face_v.length);
+		return submitRandomized(face_v, width, height, id,
+				ComponentPolicy.fixed(k), oversampling, powerIterations);
+	}
+
+	/**
+	 * Ca mai sus, dar numarul de componente este ales de policy dupa valorile
+	 * proprii aproximative ale SVD-ului si este inregistrat in spatiul fetei
+	 * (vezi {@link FaceBundle#getSelection()}). Varianta totala este suma
+	 * patratelor imaginilor centrate, calculata fara matricea de covarianta.
+	 */
+	public static FaceBundle submitRandomized(double[][] face_v, int width,
+			int height, String[] id, ComponentPolicy policy,
+			int oversampling, int powerIterations) {
+
+		int length = width * height;
+		int nrfaces = face_v.length;
+
+		double[] avgF = average(face_v, length);
+		center(face_v, avgF);
+		double trace = 0.0;
+		for (int i = 0; i < nrfaces; i++)
+			trace += TopEigenSolver.dot(face_v[i], face_v[i]);
+
+		int cap = policy.cap(length, nrfaces);
+		RandomizedSvd svd = new RandomizedSvd(face_v, cap, oversampling,
+				powerIterations, 42L);
+		ComponentSelection selection = policy.select(svd.getValues(), trace,
+				length, nrfaces);
+		int k = selection.getComponents();
+		double[][] eigVector = new double[k][];
+		System.arraycopy(svd.getEigenFaces(), 0, eigVector, 0, k);
+		Log.i("Pachet FaceBundle", "SVD aleator: " + selection + ", "
+				+ oversampling + " supraesantionare, " + powerIterations
+				+ " iteratii de putere");
+
+		return finishBundle(face_v, avgF, eigVector, id, k, null, selection);
+	}
+
+	/**
+	 * Antrenare in simpla precizie pe un singur tablou plat. Imaginile sunt
+	 * asezate rand dupa rand in faces (imaginea i incepe la i * width *
+	 * height). Fata medie si eigenfaces sunt pastrate ca float in
+	 * {@link FloatEigenSpace}; acumularile (media, matricea de covarianta)
+	 * se fac in double.
+	 * 
+	 * @param faces
+	 *            imaginile, nrfaces * width * height valori. Este modificat (se
+	 *            scade fata medie).
+	 * @param nrfaces
+	 *            Numarul de imagini din faces.
+	 * @param width
+	 *            Latimea imaginii.
+	 * @param height
+	 *            Inaltimea imaginii.
+	 * @param id
+	 *            Numele fiecarei imagini.
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= nrfaces.
+	 * 
+	 * @return Un "FaceBundle" folosit pentru recunoastere.
+	 */
+	public static FaceBundle submitFloat(final float[] faces,
+			final int nrfaces, int width, int height, String[] id,
+			final int k) {
+
+		if (k < 1 || k > nrfaces)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + nrfaces);
+		return submitFloat(faces, nrfaces, width, height, id,
+				ComponentPolicy.fixed(k));
+	}
+
+	/**
+	 * Ca mai sus, dar numarul de componente este ales de policy dupa valorile
+	 * proprii si este inregistrat in spatiul fetei (vezi
+	 * {@link FaceBundle#getSelection()}).
+	 */
+	public static FaceBundle submitFloat(final float[] faces,
+			final int nrfaces, int width, int height, String[] id,
+			ComponentPolicy policy) {
+
+		final int length = width * height;
+		int image, i, j, pix;
+		double temp;
+
+		if (faces.length < nrfaces * length)
+			throw new IllegalArgumentException("Tabloul are "
+					+ faces.length + " valori, trebuie cel putin "
+					+ nrfaces * length);
+
+		/* Fata medie si diferenta, impartite pe blocuri de pixeli. */
+		final float[] avgF = new float[length];
+		Parallel.forChunks(length, GRAIN, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				int image, pix;
+				for (pix = from; pix < to; pix++) {
+					double temp = 0;
+					for (image = 0; image < nrfaces; image++)
+						temp += faces[image * length + pix];
+					avgF[pix] = (float) (temp / nrfaces);
+				}
+				for (image = 0; image < nrfaces; image++) {
+					int off = image * length;
+					for (pix = from; pix < to; pix++)
+						faces[off + pix] -= avgF[pix];
+				}
+			}
+		});
+
+		/* Matricea de covarianta MxM. */
+		double[][] covar = Gram.compute(faces, nrfaces, length);
+		double trace = 0.0;
+		for (i = 0; i < nrfaces; i++)
+			trace += covar[i][i];
+
+		TopEigenSolver solver = new TopEigenSolver(covar, policy.cap(length,
+				nrfaces));
+		ComponentSelection selection = policy.select(solver.getValues(),
+				trace, length, nrfaces);
+		final int k = selection.getComponents();
+		double[][] vectors = solver.getVectors();
+		covar = null;
+
+		/* eigenfaces (kxN^2), normalizate. */
+		final float[] eigVector = new float[k * length];
+		double[] row = new double[length];
+		for (j = 0; j < k; j++) {
+			Arrays.fill(row, 0.0);
+			for (image = 0; image < nrfaces; image++) {
+				double f = vectors[j][image];
+				int off = image * length;
+				for (pix = 0; pix < length; pix++)
+					row[pix] += f * faces[off + pix];
+			}
+			temp = max(row);
+			int off = j * length;
+			for (pix = 0; pix < length; pix++)
+				eigVector[off + pix] = (float) Math.abs(row[pix] / temp);
+		}
+		row = null;
+
+		/* wk - "spatiul fetei", impartit dupa imagini */
+		final double[][] wk = new double[nrfaces][k];
+		Parallel.forChunks(nrfaces, 1, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				for (int image = from; image < to; image++)
+					for (int j = 0; j < k; j++) {
+						double temp = 0.0;
+						int a = j * length, b = image * length;
+						for (int pix = 0; pix < length; pix++)
+							temp += (double) eigVector[a + pix] * faces[b + pix];
+						wk[image][j] = Math.abs(temp);
+					}
+			}
+		});
+
+		Log.i("Pachet FaceBundle", "float: " + selection + ", " + nrfaces
+				+ " imagini");
+
+		return new FaceBundle(new FloatEigenSpace(avgF, eigVector), wk, id,
+				null, selection);
+	}
+
+	/**
+	 * Antrenare fara copii, pe un singur tablou plat detinut de apelant.
+	 * Imaginile sunt asezate rand dupa rand (imaginea i incepe la i * width *
+	 * height). Tabloul este folosit pe loc: se scade fata medie, matricea de
+	 * covarianta se calculeaza direct din el (fara Jama.Matrix si fara
+	 * transpusa), iar eigenfaces sunt scrise peste primele k imagini, bloc cu
+	 * bloc de pixeli. Continutul tabloului nu mai este util dupa apel.
+	 * 
+	 * Primele k randuri sunt copiate, intretesute pe componente, in spatiul
+	 * fetei (vezi {@link DoubleEigenSpace}), iar tabloul apelantului poate fi
+	 * eliberat.
+	 * 
+	 * @param faces
+	 *            imaginile, nrfaces * width * height valori.
+	 * @param nrfaces
+	 *            Numarul de imagini din faces.
+	 * @param width
+	 *            Latimea imaginii.
+	 * @param height
+	 *            Inaltimea imaginii.
+	 * @param id
+	 *            Numele fiecarei imagini.
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= nrfaces.
+	 * @param report
+	 *            Raportul de memorie completat pe parcurs (poate fi null).
+	 * 
+	 * @return Un "FaceBundle" folosit pentru recunoastere.
+	 */
+	public static FaceBundle submitInPlace(final double[] faces,
+			final int nrfaces, int width, int height, String[] id, int k,
+			TrainingReport report) {
+
+		if (k < 1 || k > nrfaces)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + nrfaces);
+		return submitInPlace(faces, nrfaces, width, height, id,
+				ComponentPolicy.fixed(k), report);
+	}
+
+	/**
+	 * Ca mai sus, dar numarul de componente este ales de policy dupa valorile
+	 * proprii si este inregistrat in spatiul fetei (vezi
+	 * {@link FaceBundle#getSelection()}).
+	 */
+	public static FaceBundle submitInPlace(final double[] faces,
+			final int nrfaces, int width, int height, String[] id,
+			ComponentPolicy policy, TrainingReport report) {
+
+		final int length = width * height;
+		int image, i, j, pix;
+		double temp;
+
+		if (faces.length != nrfaces * length)
+			throw new IllegalArgumentException("Tabloul are "
+					+ faces.length + " valori, trebuie " + nrfaces * length);
+
+		long live = TrainingReport.doubles(faces.length);
+		if (report != null)
+			report.step("imagini", live);
+
+		/* Fata medie si diferenta, pe loc, impartite pe blocuri de pixeli. */
+		final double[] avgF = new double[length];
+		Parallel.forChunks(length, GRAIN, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				int image, pix;
+				for (image = 0; image < nrfaces; image++) {
+					int off = image * length;
+					for (pix = from; pix < to; pix++)
+						avgF[pix] += faces[off + pix];
+				}
+				for (pix = from; pix < to; pix++)
+					avgF[pix] /= nrfaces;
+				for (image = 0; image < nrfaces; image++) {
+					int off = image * length;
+					for (pix = from; pix < to; pix++)
+						faces[off + pix] -= avgF[pix];
+				}
+			}
+		});
+		live += TrainingReport.doubles(length);
+		if (report != null)
+			report.step("fata medie", live);
+
+		/* Matricea de covarianta MxM, direct din tablou. */
+		double[][] covar = Gram.compute(faces, nrfaces, length);
+		long covarBytes = TrainingReport.doubles((long) nrfaces * nrfaces);
+		if (report != null)
+			report.step("covarianta", live + covarBytes);
+
+		double trace = 0.0;
+		for (i = 0; i < nrfaces; i++)
+			trace += covar[i][i];
+
+		int cap = policy.cap(length, nrfaces);
+		TopEigenSolver solver = new TopEigenSolver(covar, cap);
+		ComponentSelection selection = policy.select(solver.getValues(),
+				trace, length, nrfaces);
+		final int k = selection.getComponents();
+		final double[][] vectors = new double[k][];
+		System.arraycopy(solver.getVectors(), 0, vectors, 0, k);
+		int p = Math.min(nrfaces, cap + Math.max(2, cap / 2));
+		if (report != null)
+			report.step("valori proprii", live + covarBytes
+					+ TrainingReport.doubles(4L * p * nrfaces + 2L * p * p));
+		covar = null;
+		Log.i("Pachet FaceBundle", selection.toString());
+
+		/*
+		 * eigenfaces = vectors (kxM) * faces (MxN^2), calculate pe blocuri de
+		 * pixeli. Prima trecere afla maximul fiecarui eigenface (pentru
+		 * normalizare), a doua calculeaza wk si suprascrie primele k imagini.
+		 */
+		final int block = Math.min(BLOCK, length);
+		final int blocks = (length + block - 1) / block;
+		// acelasi numar de blocuri pentru tablourile partiale si pentru bucle
+		final int chunks = Parallel.chunks(blocks, 1);
+		final double[][] maxParts = new double[chunks][k];
+		final double[][][] wkParts = new double[chunks][nrfaces][k];
+		live += TrainingReport.doubles(chunks
+				* ((long) k * nrfaces + k * block + k) + (long) k * nrfaces);
+
+		Parallel.split(blocks, chunks, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				double[][] u = new double[k][block];
+				double[] maxE = maxParts[chunk];
+				Arrays.fill(maxE, Double.NEGATIVE_INFINITY);
+				for (int bl = from; bl < to; bl++) {
+					int p0 = bl * block;
+					int n = Math.min(block, length - p0);
+					project(faces, nrfaces, length, vectors, p0, n, u);
+					for (int j = 0; j < k; j++)
+						for (int b = 0; b < n; b++)
+							if (u[j][b] > maxE[j])
+								maxE[j] = u[j][b];
+				}
+			}
+		});
+		final double[] maxE = new double[k];
+		for (j = 0; j < k; j++) {
+			maxE[j] = Double.NEGATIVE_INFINITY;
+			for (i = 0; i < chunks; i++)
+				maxE[j] = Math.max(maxE[j], maxParts[i][j]);
+		}
+
+		Parallel.split(blocks, chunks, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				double[][] u = new double[k][block];
+				double[][] wk = wkParts[chunk];
+				for (int bl = from; bl < to; bl++) {
+					int p0 = bl * block;
+					int n = Math.min(block, length - p0);
+					int j, b;
+					project(faces, nrfaces, length, vectors, p0, n, u);
+					for (j = 0; j < k; j++)
+						for (b = 0; b < n; b++)
+							u[j][b] = Math.abs(u[j][b] / maxE[j]);
+					for (int image = 0; image < nrfaces; image++) {
+						int off = image * length + p0;
+						for (j = 0; j < k; j++) {
+							double temp = 0.0;
+							for (b = 0; b < n; b++)
+								temp += u[j][b] * faces[off + b];
+							wk[image][j] += temp;
+						}
+					}
+					for (j = 0; j < k; j++)
+						System.arraycopy(u[j], 0, faces, j * length + p0, n);
+				}
+			}
+		});
+		double[][] wk = new double[nrfaces][k];
+		for (image = 0; image < nrfaces; image++)
+			for (j = 0; j < k; j++) {
+				temp = 0.0;
+				for (i = 0; i < chunks; i++)
+					temp += wkParts[i][image][j];
+				wk[image][j] = Math.abs(temp);
+			}
+		if (report != null)
+			report.step("eigenfaces", live);
+
+		// primele k randuri, intretesute pe componente
+		EigenSpace space = new DoubleEigenSpace(avgF, faces, k);
+		if (report != null) {
+			report.step("eigenfaces intretesute", live
+					+ TrainingReport.doubles(k * length));
+			Log.i("Pachet FaceBundle", report.toString());
+		}
+
+		return new FaceBundle(space, wk, id, null, selection);
+	}
+
+	/**
+	 * Numarul de pixeli procesati odata de {@link #submitInPlace}.
+	 */
+	static final int BLOCK = 512;
+
+	/**
+	 * Numarul minim de pixeli dintr-un bloc al buclelor paralele.
+	 */
+	static final int GRAIN = 4096;
+
+	/**
+	 * Stabileste numarul de fire folosite de antrenare. Implicit este numarul
+	 * de procesoare; 1 inseamna ca antrenarea ruleaza doar pe firul
+	 * apelantului.
+	 */
+	public static void setParallelism(int threads) {
+		Parallel.setLevel(threads);
+	}
+
+	/**
+	 * u[j][b] = sum_i vectors[j][i] * faces[i][p0 + b] pentru b < n.
+	 */
+	private static void project(double[] faces, int nrfaces, int length,
+			double[][] vectors, int p0, int n, double[][] u) {
+
+		for (int j = 0; j < u.length; j++) {
+			double[] row = u[j];
+			Arrays.fill(row, 0.0);
+			for (int image = 0; image < nrfaces; image++) {
+				double f = vectors[j][image];
+				int off = image * length + p0;
+				for (int b = 0; b < n; b++)
+					row[b] += f * faces[off + b];
+			}
+		}
+	}
+
+	/**
+	 * Pasii comuni de la sfarsitul antrenarii: din vectorii proprii ai matricii
+	 * de covarianta (cate unul pe rand, sortati descrescator) se obtin
+	 * eigenfaces, se normalizeaza si se calculeaza wk.
+	 * 
+	 * @param faces
+	 *            imaginile centrate (MxN^2).
+	 * @param avgF
+	 *            fata medie.
+	 * @param vectors
+	 *            vectorii proprii ai matricii MxM, cate unul pe rand.
+	 * @param id
+	 *            numele imaginilor.
+	 * @param components
+	 *            numarul de componente din wk.
+	 */
+	static FaceBundle buildBundle(double[][] faces, double[] avgF,
+			double[][] vectors, String[] id, int components) {
+
+		return finishBundle(faces, avgF, eigenFaces(faces, vectors), id,
+				components);
+	}
+
+	/**
+	 * eigenfaces (kxN^2) = vectorii proprii (kxM) * faces (MxN^2)
+	 */
+	static double[][] eigenFaces(final double[][] faces,
+			final double[][] vectors) {
+
+		final int nrfaces = faces.length;
+		int length = faces[0].length;
+		final double[][] eigVector = new double[vectors.length][length];
+
+		Parallel.forChunks(length, GRAIN, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				for (int j = 0; j < vectors.length; j++) {
+					double[] e = eigVector[j];
+					for (int image = 0; image < nrfaces; image++) {
+						double f = vectors[j][image];
+						double[] face = faces[image];
+						for (int pix = from; pix < to; pix++)
+							e[pix] += f * face[pix];
+					}
+				}
+			}
+		});
+		return eigVector;
+	}
+
+	/**
+	 * Normalizeaza eigenfaces (pe loc) si calculeaza wk pentru imaginile
+	 * centrate.
+	 */
+	static FaceBundle finishBundle(final double[][] faces, double[] avgF,
+			final double[][] eigVector, String[] id, final int components) {
+
+		return finishBundle(faces, avgF, eigVector, id, components, null);
+	}
+
+	/**
+	 * Ca mai sus; model este baza din spatele eigenfaces (sau null), vezi
+	 * {@link FaceBundle#enroll}.
+	 */
+	static FaceBundle finishBundle(final double[][] faces, double[] avgF,
+			final double[][] eigVector, String[] id, final int components,
+			IncrementalPca model) {
+
+		return finishBundle(faces, avgF, eigVector, id, components, model,
+				null);
+	}
+
+	/**
+	 * Ca mai sus; selection este alegerea numarului de componente (sau null),
+	 * vezi {@link FaceBundle#getSelection()}.
+	 */
+	static FaceBundle finishBundle(final double[][] faces, double[] avgF,
+			final double[][] eigVector, String[] id, final int components,
+			IncrementalPca model, ComponentSelection selection) {
+
+		int length = avgF.length;
+		int j, pix;
+		double temp;
+
+		/* Normalizam matricea vectorilor proprii. */
+		for (j = 0; j < eigVector.length; j++) {
+			temp = max(eigVector[j]);
+			for (pix = 0; pix < length; pix++)
+				eigVector[j][pix] = Math.abs(eigVector[j][pix] / temp);
+		}
+
+		return new FaceBundle(new DoubleEigenSpace(avgF, eigVector), weights(
+				faces, eigVector, components), id, model, selection);
+	}
+
+	/**
+	 * wk - "spatiul fetei": proiectiile imaginilor centrate pe primele
+	 * components eigenfaces, impartite dupa imagini.
+	 */
+	static double[][] weights(final double[][] faces,
+			final double[][] eigVector, final int components) {
+
+		final int length = eigVector[0].length;
+		final double[][] wk = new double[faces.length][components];
+		Parallel.forChunks(faces.length, 1, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				for (int image = from; image < to; image++)
+					for (int j = 0; j < components; j++) {
+						double temp = 0.0;
+						for (int pix = 0; pix < length; pix++)
+							temp += eigVector[j][pix] * faces[image][pix];
+						wk[image][j] = Math.abs(temp);
+					}
+			}
+		});
+		return wk;
+	}
+
 	/**
 	 * Gasim diagonala matricii.
 	 * 
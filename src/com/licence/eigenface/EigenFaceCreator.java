@@ -1,5 +1,7 @@
 package com.licence.eigenface;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -22,7 +24,15 @@ public class EigenFaceCreator {
 
 	private File root_dir;
 	private int FACES_NUMBER = 2;
-	private FaceBundle[] b = null;
+	// inlocuite intregi la fiecare schimbare (vezi publish), ca potrivirile
+	// sa nu aiba nevoie de blocari; potrivirile folosesc doar stack sau,
+	// pentru o galerie comprimata, compressed
+	private volatile FaceBundle[] b = null;
+	private volatile BundleStack stack = null;
+	private volatile CompressedBundle compressed = null;
+	private volatile Cascade cascade = null;
+	private TrainingReport lastReport = null;
+	private final MatchBuffers buffers = new MatchBuffers();
 	/**
 	 * Pragul nostru de potrivire a imagini. Tot ce se afla sub acest
 	 * numar e considerat ca nefiind gasit in nici un spatiu al fetei.
@@ -32,7 +42,10 @@ public class EigenFaceCreator {
 	/**
 	 * Distanta minima observata pentru imaginea data in spatiul fetei.
 	 * 
+	 * @deprecated Este comuna tuturor apelantilor; folositi
+	 *             {@link #match(Bitmap)}.
 	 */
+	@Deprecated
 	public double DISTANCE = Double.MAX_VALUE;
 
 	/**
@@ -41,6 +54,147 @@ public class EigenFaceCreator {
 	 */
 	public int USE_CACHE = -1;
 
+	/**
+	 * Directorul cache-ului (vezi {@link BundleCache}). null inseamna
+	 * subdirectorul ".cache" al directorului cu imagini.
+	 */
+	public String CACHE_DIR = null;
+
+	/** Numarul maxim de spatii ale fetei pastrate in cache. */
+	public int CACHE_ENTRIES = 32;
+
+	/**
+	 * Numarul de vectori proprii calculati la antrenare. Orice peste 0 inseamna
+	 * ca se calculeaza doar primele EIGEN_COUNT perechi proprii (vezi
+	 * {@link EigenFaceComputation#submitInPlace}). Orice altceva inseamna
+	 * descompunerea completa.
+	 */
+	public int EIGEN_COUNT = -1;
+
+	/**
+	 * Fractiunea din varianta imaginilor pe care trebuie sa o pastreze
+	 * componentele (vezi {@link ComponentPolicy}). Orice intre 0 si 1 inseamna
+	 * ca se pastreaza doar componentele necesare, cel mult EIGEN_COUNT. Orice
+	 * altceva inseamna nu.
+	 */
+	public double RETAINED_VARIANCE = -1;
+
+	/**
+	 * Timpul maxim al unei interogari pe un spatiu al fetei, in milisecunde
+	 * (vezi {@link ComponentPolicy}). Orice peste 0 limiteaza numarul de
+	 * componente. Orice altceva inseamna nu.
+	 */
+	public double QUERY_BUDGET_MS = -1;
+
+	/** Descompunere completa (Jama) sau top-k, dupa EIGEN_COUNT. */
+	public static final int ENGINE_EIGEN = 0;
+	/** SVD aleator direct pe imaginile centrate. */
+	public static final int ENGINE_RANDOMIZED = 1;
+
+	/**
+	 * Motorul de antrenare folosit: {@link #ENGINE_EIGEN} sau
+	 * {@link #ENGINE_RANDOMIZED}.
+	 */
+	public int ENGINE = ENGINE_EIGEN;
+
+	/**
+	 * Coloanele aleatoare suplimentare pentru {@link #ENGINE_RANDOMIZED}.
+	 */
+	public int OVERSAMPLING = 10;
+
+	/**
+	 * Iteratiile de putere pentru {@link #ENGINE_RANDOMIZED}.
+	 */
+	public int POWER_ITERATIONS = 2;
+
+	/**
+	 * Antrenare si potrivire in simpla precizie (vezi
+	 * {@link EigenFaceComputation#submitFloat}). Orice peste 0 inseamna da.
+	 * Orice altceva inseamna nu.
+	 */
+	public int USE_FLOAT = -1;
+
+	/**
+	 * Antrenare din fisiere, fara a tine toate imaginile in memorie (vezi
+	 * {@link StreamingTrainer}). Orice peste 0 inseamna da, iar valoarea este
+	 * numarul maxim de imagini tinute simultan in memorie. Orice altceva
+	 * inseamna nu.
+	 */
+	public int STREAMING_BLOCK = -1;
+
+	/**
+	 * Spatiile fetei pastreaza baza necesara pentru {@link #enroll}. Orice
+	 * peste 0 inseamna da. Orice altceva inseamna nu.
+	 */
+	public int UPDATABLE = -1;
+
+	/**
+	 * Numarul de imagini pastrate pentru fiecare persoana in modul galerie
+	 * (vezi {@link #readGallery}), pe langa centroid. Orice peste 0 inseamna
+	 * ca se pastreaza cel mult EXEMPLARS imagini. Orice altceva inseamna doar
+	 * centroidul.
+	 */
+	public int EXEMPLARS = -1;
+
+	/** Algoritmul original, vezi {@link DistanceMetric#LEGACY}. */
+	public static final int METRIC_LEGACY = 0;
+	/** Vezi {@link DistanceMetric#L1}. */
+	public static final int METRIC_L1 = 1;
+	/** Vezi {@link DistanceMetric#L2_SQUARED}. */
+	public static final int METRIC_L2_SQUARED = 2;
+	/** Vezi {@link DistanceMetric#COSINE}. */
+	public static final int METRIC_COSINE = 3;
+	/** Vezi {@link DistanceMetric#MAHALANOBIS}. */
+	public static final int METRIC_MAHALANOBIS = 4;
+
+	/**
+	 * Distanta folosita de spatiile fetei construite sau citite de acum
+	 * inainte: una dintre constantele METRIC_*. Pentru alta metrica decat
+	 * {@link #METRIC_LEGACY}, THRESHOLD trebuie ales pentru metrica aleasa.
+	 */
+	public int METRIC = METRIC_LEGACY;
+
+	/**
+	 * Spatiile fetei construite sau citite de acum inainte cauta imaginea cea
+	 * mai apropiata printr-un index exact (vezi {@link FaceBundle#withIndex}),
+	 * nu comparand-o cu fiecare imagine. Merita pentru spatii cu zeci de mii
+	 * de imagini. Orice peste 0 inseamna da. Orice altceva inseamna nu.
+	 */
+	public int INDEX = -1;
+
+	/**
+	 * Spatiile fetei construite sau citite de acum inainte sunt cautate
+	 * printr-un graf HNSW (vezi {@link FaceBundle#withHnsw}), pentru galerii
+	 * cu sute de mii de imagini sau mai multe. Rezultatul poate fi, rar, alta
+	 * imagine decat cea mai apropiata. Orice peste 0 inseamna da, iar valoarea
+	 * este numarul de vecini ai fiecarei imagini in graf (M). Orice altceva
+	 * inseamna nu.
+	 */
+	public int HNSW_M = -1;
+
+	/** Numarul de candidati cautati la inserarea unei imagini in graf. */
+	public int HNSW_EF_CONSTRUCTION = 200;
+
+	/**
+	 * Numarul de candidati cautati la o potrivire prin graf (vezi si
+	 * {@link #setEfSearch}).
+	 */
+	public int HNSW_EF_SEARCH = 64;
+
+	/**
+	 * Galeria (vezi {@link #readGallery}) este pastrata comprimata (vezi
+	 * {@link FaceBundle#compress}): cu un ordin de marime mai putina memorie,
+	 * cu rezultate aproximative. Orice peste 0 inseamna da, iar valoarea este
+	 * numarul de octeti pentru fiecare imagine. Orice altceva inseamna nu.
+	 */
+	public int PQ_SUBVECTORS = -1;
+
+	/** Numarul listelor in care sunt impartite imaginile galeriei comprimate. */
+	public int PQ_LISTS = 256;
+
+	/** Numarul listelor cautate la o potrivire in galeria comprimata. */
+	public int PQ_PROBES = 8;
+
 	public EigenFaceCreator() {
 
 	}
@@ -51,6 +205,53 @@ public class EigenFaceCreator {
 		
 	}
 
+	/**
+	 * Numarul de fire folosite la antrenare (vezi
+	 * {@link EigenFaceComputation#setParallelism}).
+	 */
+	public void setPARALLELISM(int threads) {
+		EigenFaceComputation.setParallelism(threads);
+		Log.i("Numarul de fire", Integer.toString(threads));
+	}
+
+	/**
+	 * Cautarea in cascada folosita de {@link #match(Bitmap)} si
+	 * {@link #checkAgainst} (vezi {@link Cascade}); null inseamna cautarea
+	 * completa.
+	 */
+	public void setCascade(Cascade cascade) {
+		this.cascade = cascade;
+		Log.i("Cascada", String.valueOf(cascade));
+	}
+
+	public Cascade getCascade() {
+		return cascade;
+	}
+
+	/**
+	 * Schimba numarul de candidati cautati prin graful HNSW, pentru spatiile
+	 * fetei de acum inainte si pentru cele existente (grafurile nu sunt
+	 * reconstruite).
+	 */
+	public void setEfSearch(int efSearch) {
+
+		HNSW_EF_SEARCH = efSearch;
+		FaceBundle[] bundles = b;
+		if (bundles != null) {
+			FaceBundle[] next = bundles.clone();
+			for (int i = 0; i < next.length; i++)
+				if (next[i].getHnsw() != null)
+					next[i] = next[i].withEfSearch(efSearch);
+			publish(next);
+		}
+		Log.i("efSearch", Integer.toString(efSearch));
+	}
+
+	public void setEIGEN_COUNT(int eIGEN_COUNT) {
+		EIGEN_COUNT = eIGEN_COUNT;
+		Log.i("Numarul de vectori proprii", Integer.toString(eIGEN_COUNT));
+	}
+
 
 
 
@@ -60,33 +261,214 @@ public class EigenFaceCreator {
 	 * 
 	 * @return Identificatorul de imagine in spatiul fetei. Daca imaginea nu a
 	 *         fost gasita (conform pragului), se returneaza nul
+	 * @deprecated Rezultatul este publicat in DISTANCE; folositi
+	 *             {@link #match(Bitmap)}.
 	 */
+	@Deprecated
 	public String checkAgainst(Bitmap bitmap) throws FileNotFoundException,
 			IOException {
 
 		String id = null;
-		if (b != null) {
-			double small = Double.MAX_VALUE;
-			double[] img = readImage(bitmap);
-
-			if (img != null) {
-
-				for (int i = 0; i < b.length; i++) {
-					b[i].submitFace(img);
-					if (small > b[i].distance()) {
-						small = b[i].distance();
-						id = b[i].getID();
-					}
-				}
-				DISTANCE = small;
-				// if (small < THRESHOLD)
-				// id = b[idx].getID();
+		MatchResult best;
+		synchronized (buffers) {
+			best = match(readImage(bitmap, buffers), buffers);
+		}
+		if (best != null) {
+			id = best.getIdentity();
+			DISTANCE = best.getDistance();
+			// if (small < THRESHOLD)
+			// id = b[idx].getID();
 			Log.i("Distanta", Double.toString(DISTANCE));
-			}
 		}
 		return id;
 	}
 
+	/**
+	 * Potrivire cu imaginea data, in toate spatiile fetei. Imaginea este
+	 * proiectata o singura data pe vectorii proprii ai tuturor spatiilor (vezi
+	 * {@link BundleStack}). Nu modifica nimic, asa ca poate fi apelata din mai
+	 * multe fire deodata.
+	 * 
+	 * @return Cea mai apropiata imagine (indexul este cel din spatiul fetei
+	 *         care o contine) sau null daca nu exista spatii ale fetei.
+	 */
+	public MatchResult match(Bitmap bitmap) {
+
+		MatchBuffers local = MatchBuffers.local();
+		return match(readImage(bitmap, local), local);
+	}
+
+	/**
+	 * Cele mai apropiate k imagini din toate spatiile fetei. Fiecare spatiu
+	 * al fetei da cei mai buni k candidati ai sai (vezi
+	 * {@link FaceBundle#match(double[], int)}), iar candidatii tuturor trec
+	 * printr-un singur heap marginit dupa distanta raportata: rezultatele
+	 * sunt in ordinea crescatoare a {@link MatchResult#getDistance()}, deci
+	 * pot fi comparate cu {@link #THRESHOLD} pe rand. Pentru k = 1 rezultatul
+	 * este cel al lui {@link #match(Bitmap)}, in afara de
+	 * {@link DistanceMetric#LEGACY}, care alege imaginea din fiecare spatiu
+	 * dupa scor, nu dupa distanta normalizata.
+	 * 
+	 * @return Cel mult k rezultate, cel mai apropiat primul.
+	 */
+	public MatchResult[] match(Bitmap bitmap, int k) {
+
+		MatchBuffers local = MatchBuffers.local();
+		CompressedBundle gallery = compressed;
+		if (gallery != null)
+			return gallery.match(readImage(bitmap, local), k, local);
+		BundleStack bundles = stack;
+		if (bundles == null)
+			return new MatchResult[0];
+		return bundles.match(readImage(bitmap, local), k, local);
+	}
+
+	/**
+	 * Potrivire cu mai multe imagini deodata (ie: toate fetele dintr-un
+	 * cadru), toate de aceleasi dimensiuni. Tot lotul este proiectat odata pe
+	 * toate spatiile fetei, vezi {@link FaceBundle#match(double[][])}.
+	 * 
+	 * @return Cate un rezultat pentru fiecare imagine (null daca nu exista
+	 *         spatii ale fetei), in aceeasi ordine.
+	 */
+	public MatchResult[] match(Bitmap[] bitmaps) {
+
+		MatchBuffers local = MatchBuffers.local();
+		CompressedBundle gallery = compressed;
+		if (gallery != null) {
+			MatchResult[] results = new MatchResult[bitmaps.length];
+			for (int f = 0; f < bitmaps.length; f++)
+				results[f] = gallery.match(readImage(bitmaps[f], local), local);
+			return results;
+		}
+		BundleStack bundles = stack;
+		if (bundles == null || bitmaps.length == 0)
+			return new MatchResult[bitmaps.length];
+
+		int n = bitmaps[0].getWidth() * bitmaps[0].getHeight();
+		double[][] faces = local.faces(bitmaps.length, n);
+		for (int f = 0; f < bitmaps.length; f++)
+			System.arraycopy(readImage(bitmaps[f], local), 0, faces[f], 0, n);
+
+		return bundles.match(faces, bitmaps.length, local);
+	}
+
+	private MatchResult match(double[] img, MatchBuffers buffers) {
+
+		CompressedBundle gallery = compressed;
+		if (gallery != null)
+			return gallery.match(img, buffers);
+		BundleStack bundles = stack;
+		return bundles == null ? null : bundles.match(img, cascade, buffers);
+	}
+
+	/**
+	 * Inlocuieste spatiile fetei si stiva lor de proiectie.
+	 */
+	private void publish(FaceBundle[] next) {
+
+		compressed = null;
+		b = next;
+		stack = next == null ? null : new BundleStack(next);
+	}
+
+	/**
+	 * Inlocuieste spatiile fetei cu galeria comprimata data.
+	 */
+	private void publish(CompressedBundle gallery) {
+
+		b = null;
+		stack = null;
+		compressed = gallery;
+	}
+
+	/**
+	 * Adauga imaginea data in ultimul spatiu al fetei, fara reantrenare (vezi
+	 * {@link FaceBundle#enroll}). Un spatiu construit fara UPDATABLE (ie: o
+	 * galerie) pastreaza vectorii proprii si primeste doar ponderile imaginii
+	 * (vezi {@link FaceBundle#append}); graful HNSW, daca exista, este extins,
+	 * nu reconstruit. Imaginea trebuie sa aiba dimensiunile celor de
+	 * instruire.
+	 * 
+	 * @param bitmap
+	 *            Imaginea noua.
+	 * @param name
+	 *            Identificatorul imaginii (ie: numele fisierului salvat sau,
+	 *            intr-o galerie, numele persoanei).
+	 * @throws IllegalStateException
+	 *             Nu exista spatii ale fetei.
+	 */
+	public void enroll(Bitmap bitmap, String name) {
+
+		double[][] face = new double[][] { readImage(bitmap) };
+		String[] names = new String[] { name };
+		CompressedBundle gallery = compressed;
+		if (gallery != null) {
+			publish(gallery.append(face, names));
+			Log.i("Imagine adaugata", name);
+			return;
+		}
+		if (b == null)
+			throw new IllegalStateException("Nu exista spatii ale fetei");
+		FaceBundle[] next = b.clone();
+		int last = next.length - 1;
+		next[last] = next[last].isUpdatable() ? next[last].enroll(face, names)
+				: next[last].append(face, names);
+		publish(next);
+		Log.i("Imagine adaugata", name);
+	}
+
+	/**
+	 * Scoate imaginile date din spatiile fetei, fara reantrenare (vezi
+	 * {@link FaceBundle#remove}). Un spatiu al fetei din care se scot toate
+	 * imaginile este eliminat.
+	 * 
+	 * @param names
+	 *            Identificatorii imaginilor (numele fisierelor).
+	 * @throws IllegalStateException
+	 *             Nu exista spatii ale fetei, ele nu au fost construite cu
+	 *             UPDATABLE sau galeria este comprimata.
+	 */
+	public void remove(String[] names) {
+
+		if (compressed != null)
+			throw new IllegalStateException(
+					"Din galeria comprimata nu se pot scoate imagini");
+		if (b == null)
+			throw new IllegalStateException("Nu exista spatii ale fetei");
+
+		FaceBundle[] bundles = b;
+		Vector<FaceBundle> kept = new Vector<FaceBundle>();
+		for (int i = 0; i < bundles.length; i++) {
+			Vector<String> own = new Vector<String>();
+			String[] all = bundles[i].getNames();
+			for (int j = 0; j < names.length; j++)
+				for (int k = 0; k < all.length; k++)
+					if (all[k].equals(names[j]) && !own.contains(names[j]))
+						own.addElement(names[j]);
+			if (own.isEmpty())
+				kept.addElement(bundles[i]);
+			else if (distinct(all) > own.size()) {
+				String[] set = new String[own.size()];
+				own.copyInto(set);
+				kept.addElement(bundles[i].remove(set));
+			}
+		}
+		FaceBundle[] next = new FaceBundle[kept.size()];
+		kept.copyInto(next);
+		publish(next);
+		Log.i("Imagini eliminate", Integer.toString(names.length));
+	}
+
+	private static int distinct(String[] names) {
+
+		Vector<String> seen = new Vector<String>();
+		for (int i = 0; i < names.length; i++)
+			if (!seen.contains(names[i]))
+				seen.addElement(names[i]);
+		return seen.size();
+	}
+
 	/**
 	 * Construim spatiul fetei din directorul dat. Trebuie sa existe acolo
 	 * cel putin 2 imagini si fiecare imagine trebuie sa aiba aceleasi
@@ -111,33 +493,146 @@ public class EigenFaceCreator {
 			IOException, IllegalArgumentException, ClassNotFoundException {
 
 		root_dir = new File(n);
+		publish(readDirectory(root_dir.getAbsolutePath() + "/", ""));
+	}
+
+	/**
+	 * Adauga spatiile fetei construite din directorul dat la cele existente,
+	 * ca in {@link #readFaceBundles}. Se foloseste cate un director pentru
+	 * fiecare persoana, apelat o singura data la pornire: o potrivire
+	 * proiecteaza apoi imaginea o singura data pentru toate persoanele.
+	 * 
+	 * Identificatorii imaginilor sunt de forma "director/fisier" (ie:
+	 * "Ion/picture1.jpg"), ca persoana sa poata fi aflata din rezultatul unei
+	 * potriviri.
+	 * 
+	 * @param n
+	 *            Directorul in care se gasesc imaginile de instruire.
+	 * @see #readFaceBundles
+	 */
+	public void addFaceBundles(String n) throws FileNotFoundException,
+			IOException, IllegalArgumentException, ClassNotFoundException {
+
+		File dir = new File(n).getAbsoluteFile();
+		FaceBundle[] more = readDirectory(dir.getParent() + "/",
+				dir.getName() + "/");
+		FaceBundle[] old = b;
+		if (old == null) {
+			publish(more);
+			return;
+		}
+		FaceBundle[] next = new FaceBundle[old.length + more.length];
+		System.arraycopy(old, 0, next, 0, old.length);
+		System.arraycopy(more, 0, next, old.length, more.length);
+		publish(next);
+	}
+
+	/**
+	 * Modul galerie: un singur spatiu al fetei, construit din imaginile
+	 * tuturor persoanelor, in care fiecare persoana este reprezentata de
+	 * centroidul ponderilor imaginilor ei si de cel mult EXEMPLARS imagini
+	 * (vezi {@link FaceBundle#byIdentity}). O potrivire inseamna o singura
+	 * proiectie si o comparatie cu cateva ponderi scurte pentru fiecare
+	 * persoana, in loc de cate o proiectie pentru fiecare persoana.
+	 * Identificatorul din rezultatul unei potriviri este numele persoanei.
+	 * 
+	 * Inlocuieste spatiile fetei existente. Numarul de componente este dat de
+	 * EIGEN_COUNT, RETAINED_VARIANCE si QUERY_BUDGET_MS, ca la
+	 * {@link #readFaceBundles}.
+	 * 
+	 * @param n
+	 *            Directorul cu cate un subdirector de imagini pentru fiecare
+	 *            persoana; numele subdirectorului este numele persoanei. Toate
+	 *            imaginile trebuie sa aiba aceleasi dimensiuni.
+	 * @throws IllegalArgumentException
+	 *             Exista mai putin de 2 imagini sau imaginile au formatul ori
+	 *             dimensiunile gresite.
+	 */
+	public void readGallery(String n) throws FileNotFoundException,
+			IOException, IllegalArgumentException {
+
+		root_dir = new File(n);
+		File[] dirs = root_dir.listFiles();
+		Vector<String> names = new Vector<String>();
+		Vector<String> labels = new Vector<String>();
+
+		for (int i = 0; i < dirs.length; i++) {
+			if (!dirs[i].isDirectory() || dirs[i].getName().startsWith("."))
+				continue;
+			File[] files = dirs[i].listFiles();
+			Vector<String> own = new Vector<String>();
+			for (int j = 0; j < files.length; j++)
+				if (files[j].isFile() && !files[j].getName().startsWith("."))
+					own.addElement(files[j].getName());
+			Collections.sort(own);
+			for (int j = 0; j < own.size(); j++) {
+				names.addElement(dirs[i].getName() + "/" + own.get(j));
+				labels.addElement(dirs[i].getName());
+			}
+		}
+		if (names.size() < 2)
+			throw new IllegalArgumentException(
+					"The gallery needs at least 2 images");
+
+		String[] id = new String[names.size()];
+		names.copyInto(id);
+		String[] label = new String[labels.size()];
+		labels.copyInto(label);
+
+		String key = cacheKey(root_dir.getAbsolutePath() + "/", id);
+		FaceBundle all = train(root_dir.getAbsolutePath() + "/", id, root_dir,
+				key);
+		FaceBundle gallery = all.byIdentity(label, Math.max(EXEMPLARS, 0));
+		if (PQ_SUBVECTORS > 0)
+			publish(withMetric(gallery).compress(
+					Math.min(PQ_SUBVECTORS, gallery.components()), PQ_LISTS,
+					PQ_PROBES));
+		else
+			publish(new FaceBundle[] { configure(gallery, root_dir, key,
+					"gallery" + Math.max(EXEMPLARS, 0)) });
+		Log.i("Galerie", names.size() + " imagini, " + all.components()
+				+ " componente");
+	}
 
-		File[] files = root_dir.listFiles();
+	/**
+	 * Construieste spatiile fetei din directorul base + prefix, in seturi de
+	 * FACES_NUMBER imagini. Numele imaginilor sunt prefix + numele
+	 * fisierului, relative la base.
+	 */
+	private FaceBundle[] readDirectory(String base, String prefix)
+			throws FileNotFoundException, IOException,
+			IllegalArgumentException, ClassNotFoundException {
+
+		File[] files = new File(base + prefix).listFiles();
 		Vector filenames = new Vector();
 
 		String[] set = new String[FACES_NUMBER];
 
 		int i = 0;
 
-		// Sorteaza lista cu numele fisierelor.
+		// Sorteaza lista cu numele fisierelor, fara directoare (ie: cache-ul)
+		// si fisiere ascunse.
 		for (i = 0; i < files.length; i++) {
-			filenames.addElement(files[i].getName());
+			if (files[i].isFile() && !files[i].getName().startsWith("."))
+				filenames.addElement(files[i].getName());
 		}
 		Collections.sort((List) filenames);
 
-		b = new FaceBundle[(files.length / FACES_NUMBER) + 1];
+		FaceBundle[] b = new FaceBundle[(filenames.size() / FACES_NUMBER) + 1];
 
 		// Citim fiecare set de imagini.
 		for (i = 0; i < b.length; i++) {
 			for (int j = 0; j < FACES_NUMBER; j++) {
 				if (filenames.size() > j + FACES_NUMBER * i) {
-					set[j] = (String) filenames.get(j + FACES_NUMBER * i);
+					set[j] = prefix
+							+ (String) filenames.get(j + FACES_NUMBER * i);
 					 System.out.println(" - "+set[j]);
 				}
 			}
-			b[i] = submitSet(root_dir.getAbsolutePath() + "/", set);
+			b[i] = submitSet(base, set);
 			System.out.println("Am citit tot");
 		}
+		return b;
 	}
 
 	/**
@@ -154,94 +649,202 @@ public class EigenFaceCreator {
 	 *             salvarea in fisierul cache .
 	 * @throws IllegalArgumentException
 	 *             Argumentele date sunt invalide.
-	 * @throws ClassNotFoundException
-	 *             Obiectele cache sunt expirate sau nu sunt versiunea
-	 *             obiectului, spatiul fetelor.
 	 * 
 	 * 
 	 */
 	private FaceBundle submitSet(String dir, String[] files)
 			throws FileNotFoundException, IOException,
-			IllegalArgumentException, ClassNotFoundException {
+			IllegalArgumentException {
 
 		if (files.length != FACES_NUMBER)
 			throw new IllegalArgumentException("Can only accept a set of "
 					+ FACES_NUMBER + " files.");
 
-		FaceBundle bundle = null;
-		int i = 0;
-		String name = "cache";
-		// Presupunem ca toate numele sunt sortate.
+		File images = new File(dir + files[0]).getParentFile();
+		String key = cacheKey(dir, files);
+		return configure(train(dir, files, images, key), images, key, "set");
+	}
 
-		for (i = 0; i < files.length; i++) {
-			name = name + files[i].substring(0, files[i].indexOf('.')); // Construim
-																		// numele
-																		// cache-ului
-			Log.i("Nume cache", name);
-		}
-		// Verificam daca FaceBundle a fost slavat.
+	/**
+	 * Spatiul fetei din imaginile date: din cache, daca USE_CACHE este
+	 * activat si imaginile si setarile nu s-au schimbat de la salvare, altfel
+	 * construit cu {@link #computeBundle} (si salvat in cache).
+	 * 
+	 * @param images
+	 *            Directorul imaginilor, in care se afla cache-ul daca
+	 *            CACHE_DIR nu este dat.
+	 * @param key
+	 *            Cheia imaginilor in cache (vezi {@link #cacheKey}), sau null
+	 *            daca USE_CACHE nu este activat.
+	 */
+	private FaceBundle train(String dir, String[] id, File images, String key)
+			throws FileNotFoundException, IOException,
+			IllegalArgumentException {
 
-		File f = new File(dir + System.currentTimeMillis() + ".cache");
-		if (f.exists() && (USE_CACHE > 0)) /* s-a salvat */
-			bundle = readBundle(f);
-		else {
+		if (key == null)
+			return computeBundle(dir, id);
 
-			bundle = computeBundle(dir, files);
-			if (USE_CACHE > 0)
-				saveBundle(f, bundle);
+		BundleCache cache = cache(images);
+		FaceBundle bundle = cache.read(key);
+		if (bundle != null) {
+			Log.i("Citit din cache", key);
+			return bundle;
 		}
-
+		bundle = computeBundle(dir, id);
+		cache.write(key, bundle);
+		Log.i("Salvat in cache", key);
 		return bundle;
 	}
 
 	/**
-	 * Salveaza obiectul spatiul-fetei in fisierul f.
-	 * 
-	 * @param f
-	 *            Fisierul in care salveaza.
-	 * @param bundle
-	 *            Obiectul spatiul-fetei.
-	 * @throws FileNotFoundException
-	 *             f e invalid.
-	 * @throws IOException
-	 *             Probleme de citire a datelor.
-	 * 
+	 * Cheia cache-ului pentru imaginile date, sau null daca USE_CACHE nu este
+	 * activat.
 	 */
-	private void saveBundle(File f, FaceBundle bundle)
-			throws FileNotFoundException, IOException {
+	private String cacheKey(String dir, String[] id) {
+		return USE_CACHE > 0 ? BundleCache.key(dir, id, settings()) : null;
+	}
+
+	private BundleCache cache(File images) {
+		return new BundleCache(CACHE_DIR != null ? new File(CACHE_DIR)
+				: new File(images, ".cache"), CACHE_ENTRIES);
+	}
 
-		f.createNewFile();
-		FileOutputStream out = new FileOutputStream(f.getAbsolutePath());
-		ObjectOutputStream fos = new ObjectOutputStream(out);
-		fos.writeObject(bundle);
-		fos.close();
-		Log.i("saved bundle ... ", f.getAbsolutePath());
+	/**
+	 * Setarile care schimba spatiul fetei construit de
+	 * {@link #computeBundle}, pentru cheia cache-ului.
+	 */
+	private String settings() {
 
+		return EIGEN_COUNT + " " + RETAINED_VARIANCE + " " + QUERY_BUDGET_MS
+				+ " " + ENGINE + " " + OVERSAMPLING + " " + POWER_ITERATIONS
+				+ " " + USE_FLOAT + " " + STREAMING_BLOCK + " " + UPDATABLE;
 	}
 
 	/**
-	 * Citeste obiectul salvat din fisier.
+	 * Spatiul fetei dat, cu distanta aleasa in METRIC si indexul cerut in
+	 * INDEX. Graful HNSW este citit din cache, daca a fost salvat pentru
+	 * aceleasi imagini, metrica si parametri; altfel este construit si
+	 * salvat.
 	 * 
-	 * @param f
-	 *            Fisierul din care citeste.
-	 * @throws ClassNotFoundException
-	 *             Obiectele cache sunt expirate sau nu sunt versiunea
-	 *             obiectului, spatiul fetelor.
-	 * @throws FileNotFoundException
-	 *             f e invalid.
-	 * @throws IOException
-	 *             Probleme de citire a datelor.
+	 * @param key
+	 *            Cheia in cache a imaginilor din care a fost construit
+	 *            spatiul, sau null daca USE_CACHE nu este activat.
+	 * @param variant
+	 *            Cum a fost construit spatiul din intrarea key (ie: o galerie
+	 *            cu EXEMPLARS exemple); face parte din numele grafului.
 	 */
-	private FaceBundle readBundle(File f) throws FileNotFoundException,
-			IOException, ClassNotFoundException {
+	private FaceBundle configure(FaceBundle bundle, File images, String key,
+			String variant) throws IOException {
+
+		bundle = withMetric(bundle);
+		if (INDEX > 0)
+			bundle = bundle.withIndex(true);
+		if (HNSW_M <= 0)
+			return bundle;
+		if (key == null)
+			return bundle.withHnsw(new HnswIndex(HNSW_M, HNSW_EF_CONSTRUCTION,
+					HNSW_EF_SEARCH));
+
+		BundleCache cache = cache(images);
+		String name = variant + "-" + METRIC + "-" + HNSW_M + "-"
+				+ HNSW_EF_CONSTRUCTION;
+		HnswIndex graph = cache.readGraph(key, name);
+		if (graph != null)
+			try {
+				bundle = bundle.withGraph(graph.withEfSearch(HNSW_EF_SEARCH));
+				Log.i("Graf citit din cache", key + "-" + name);
+				return bundle;
+			} catch (IllegalArgumentException e) {
+				// salvat pentru alte imagini; este suprascris
+			}
+		bundle = bundle.withHnsw(new HnswIndex(HNSW_M, HNSW_EF_CONSTRUCTION,
+				HNSW_EF_SEARCH));
+		cache.writeGraph(key, name, bundle.getHnsw());
+		return bundle;
+	}
 
-		FileInputStream in = new FileInputStream(f);
-		ObjectInputStream fo = new ObjectInputStream(in);
-		FaceBundle bundle = (FaceBundle) fo.readObject();
-		fo.close();
-		System.out.println("read cached bundle..");
+	/**
+	 * Spatiul fetei dat, cu distanta aleasa in METRIC.
+	 */
+	private FaceBundle withMetric(FaceBundle bundle) {
+
+		switch (METRIC) {
+		case METRIC_L1:
+			return bundle.withMetric(DistanceMetric.L1);
+		case METRIC_L2_SQUARED:
+			return bundle.withMetric(DistanceMetric.L2_SQUARED);
+		case METRIC_COSINE:
+			return bundle.withMetric(DistanceMetric.COSINE);
+		case METRIC_MAHALANOBIS:
+			return bundle.withMetric(DistanceMetric.MAHALANOBIS);
+		default:
+			return bundle;
+		}
+	}
 
-		return bundle;
+	/**
+	 * Salveaza spatiile fetei curente, cu grafurile lor HNSW, sau galeria
+	 * comprimata in fisierul dat. Pentru galerii mari, citirea lor cu
+	 * {@link #loadFaceBundles} este mult mai rapida decat reconstruirea.
+	 * Fisierul este serializat Java, cu metrica, indexurile si modelul
+	 * fiecarui spatiu; doar cache-ul antrenarii ({@link #CACHE_DIR}) foloseste
+	 * formatul binar mapat in memorie al lui {@link BundleFile}.
+	 * 
+	 * Spatiile sunt scrise intr-un fisier temporar din acelasi director,
+	 * redenumit apoi, ca o scriere intrerupta sa nu strice fisierul salvat
+	 * anterior.
+	 * 
+	 * @throws IllegalStateException
+	 *             Nu exista spatii ale fetei.
+	 */
+	public void saveFaceBundles(String n) throws IOException {
+
+		Object bundles = compressed;
+		if (bundles == null)
+			bundles = b;
+		if (bundles == null)
+			throw new IllegalStateException("Nu exista spatii ale fetei");
+		File f = new File(n).getAbsoluteFile();
+		File tmp = File.createTempFile(f.getName() + ".save", ".tmp",
+				f.getParentFile());
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeObject(bundles);
+			} finally {
+				out.close();
+			}
+			f.delete();
+			if (!tmp.renameTo(f))
+				throw new IOException("Nu se poate scrie " + f);
+		} finally {
+			tmp.delete();
+		}
+		Log.i("Spatii salvate", n);
+	}
+
+	/**
+	 * Inlocuieste spatiile fetei cu cele salvate de {@link #saveFaceBundles}.
+	 * 
+	 * @throws ClassNotFoundException
+	 *             Fisierul a fost salvat de alta versiune a spatiului fetei.
+	 */
+	public void loadFaceBundles(String n) throws IOException,
+			ClassNotFoundException {
+
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+				new FileInputStream(n)));
+		try {
+			Object bundles = in.readObject();
+			if (bundles instanceof CompressedBundle)
+				publish((CompressedBundle) bundles);
+			else
+				publish((FaceBundle[]) bundles);
+		} finally {
+			in.close();
+		}
+		Log.i("Spatii citite", n);
 	}
 
 	/**
@@ -261,53 +864,139 @@ public class EigenFaceCreator {
 	private FaceBundle computeBundle(String dir, String[] id)
 			throws IllegalArgumentException, FileNotFoundException, IOException {
 
-		xxxFile[] files = new xxxFile[FACES_NUMBER];
-		xxxFile file = null;
-		String temp = null;
-		int width = 0;
-		int height = 0;
+		int nrfaces = id.length;
+		int components = EIGEN_COUNT > 0 ? Math.min(EIGEN_COUNT,
+				nrfaces) : nrfaces;
+		ComponentPolicy policy = new ComponentPolicy(components,
+				RETAINED_VARIANCE, QUERY_BUDGET_MS * 1e6);
+
+		if (STREAMING_BLOCK > 0) {
+			lastReport = new TrainingReport();
+			return new StreamingTrainer(dir, id).train(policy,
+					STREAMING_BLOCK, lastReport);
+		}
+
+		xxxFile file = openImage(dir, id[0]);
+		int width = file.getWidth();
+		int height = file.getHeight();
+		int length = width * height;
 		int i = 0;
 
-		for (i = 0; i < files.length; i++) {
-			temp = id[i].toLowerCase();
-			temp = temp.substring(temp.lastIndexOf('.') + 1, temp.length());
-			if (temp.equals("jpg") || temp.equals("jpeg"))
-				file = new JPGFile(dir + id[i]);
-			else if (temp.equals("ppm") || temp.equals("pnm"))
-				file = new PPMFile(dir + id[i]);
-			if (file == null)
-				throw new IllegalArgumentException(id[i]
-						+ " is not an image file!");
-
-			files[i] = file;
-
-			if (i == 0) {
-				width = files[i].getWidth();
-				height = files[i].getHeight();
+		System.out.println("Generating bundle of (" + nrfaces + " x "
+				+ length + "), h:" + height + " w:" + width);
+		Log.i("latime,inaltime, numar fete", Integer.toString(width) + " "
+				+ Integer.toString(height) + " "
+				+ Integer.toString(nrfaces));
+
+		if (ENGINE == ENGINE_RANDOMIZED || UPDATABLE > 0) {
+			// Construim o matrice big double[][] - MxN^2
+			double[][] face_v = new double[nrfaces][];
+			for (i = 0; i < nrfaces; i++) {
+				if (i > 0)
+					file = openImage(dir, id[i]);
+				checkSize(file, width, height);
+				face_v[i] = file.getDouble();
 			}
-			if ((width != files[i].getWidth())
-					|| (height != files[i].getHeight()))
-				throw new IllegalArgumentException(
-						"All image files must have the same width and height!");
+			if (UPDATABLE > 0)
+				return EigenFaceComputation.submitUpdatable(face_v, width,
+						height, id, policy);
+			return EigenFaceComputation.submitRandomized(face_v, width,
+					height, id, policy, OVERSAMPLING, POWER_ITERATIONS);
 		}
 
-		// Construim o matrice big double[][] - MxN^2
-		double[][] face_v = new double[FACES_NUMBER][width * height];
-		System.out.println("Generating bundle of ("+face_v.length+" x "+face_v[0].length+"), h:"+height+" w:"+width);
+		if (USE_FLOAT > 0) {
+			// Un singur tablou float plat - MxN^2
+			float[] faces = new float[nrfaces * length];
+			for (i = 0; i < nrfaces; i++) {
+				if (i > 0)
+					file = openImage(dir, id[i]);
+				checkSize(file, width, height);
+				double[] img = file.getDouble();
+				for (int pix = 0; pix < length; pix++)
+					faces[i * length + pix] = (float) img[pix];
+			}
+			return EigenFaceComputation.submitFloat(faces, nrfaces,
+					width, height, id, policy);
+		}
 
-		for (i = 0; i < files.length; i++) {
-			// System.arraycopy(files[i].getDouble(),0,face_v[i],0,face_v[i].length);
-			face_v[i] = files[i].getDouble();
+		/*
+		 * Un singur tablou double plat - MxN^2. Fiecare imagine e copiata
+		 * imediat dupa decodare, asa ca in memorie exista o singura imagine
+		 * decodata in plus fata de tablou.
+		 */
+		double[] faces = new double[nrfaces * length];
+		for (i = 0; i < nrfaces; i++) {
+			if (i > 0)
+				file = openImage(dir, id[i]);
+			checkSize(file, width, height);
+			System.arraycopy(file.getDouble(), 0, faces, i * length, length);
 		}
-		Log.i("latime,inaltime, numar fete",Integer.toString(width)+" "+Integer.toString(height)+" "+Integer.toString(FACES_NUMBER));
+		file = null;
 
 		// Calculeaza!
 
-		return EigenFaceComputation.submit(face_v, width, height, id,
-				FACES_NUMBER, true);
+		lastReport = new TrainingReport();
+		return EigenFaceComputation.submitInPlace(faces, nrfaces, width,
+				height, id, policy, lastReport);
 
 	}
 
+	/**
+	 * Raportul de memorie al ultimei antrenari facute pe calea fara copii
+	 * (null daca nu a existat inca una).
+	 */
+	public TrainingReport getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * Deschide imaginea dupa extensie.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             Fisierul nu este o imagine JPG sau PPM.
+	 */
+	static xxxFile openImage(String dir, String name)
+			throws FileNotFoundException, IOException {
+
+		String temp = name.toLowerCase();
+		temp = temp.substring(temp.lastIndexOf('.') + 1, temp.length());
+		if (temp.equals("jpg") || temp.equals("jpeg"))
+			return new JPGFile(dir + name);
+		else if (temp.equals("ppm") || temp.equals("pnm"))
+			return new PPMFile(dir + name);
+		throw new IllegalArgumentException(name + " is not an image file!");
+	}
+
+	static void checkSize(xxxFile file, int width, int height) {
+
+		if ((width != file.getWidth()) || (height != file.getHeight()))
+			throw new IllegalArgumentException(
+					"All image files must have the same width and height!");
+	}
+
+	/**
+	 * Citeste pixelii imaginii in tablourile date, fara alocari dupa primul
+	 * apel cu o imagine de aceeasi marime.
+	 * 
+	 * @return buffers.face(...), cu cel putin width * height valori; este
+	 *         suprascris la urmatoarea citire.
+	 */
+	public double[] readImage(Bitmap bitmap, MatchBuffers buffers) {
+
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int n = width * height;
+
+		int[] rgbdata = buffers.pixels(n);
+		bitmap.getPixels(rgbdata, 0, width, 0, 0, width, height);
+
+		double[] doubles = buffers.face(n);
+		for (int i = 0; i < n; i++)
+			doubles[i] = (double) (rgbdata[i]);
+
+		return doubles;
+	}
+
 	public double[] readImage(Bitmap bitmap) {
 
 		int width = bitmap.getWidth();
@@ -0,0 +1,107 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+
+/**
+ * Spatiul pe care se proiecteaza o imagine: fata medie si cei k vectori
+ * proprii (eigenfaces), fiecare de lungime N^2. Implementarile difera doar prin
+ * modul de stocare (precizie, asezare in memorie).
+ *
+ * @see DoubleEigenSpace
+ * @see FloatEigenSpace
+ */
+interface EigenSpace extends Serializable {
+
+	/**
+	 * Numarul de vectori proprii (k).
+	 */
+	public int components();
+
+	/**
+	 * Lungimea unei imagini (N^2).
+	 */
+	public int length();
+
+	/**
+	 * Valoarea pixelului p din vectorul propriu j.
+	 */
+	public double get(int j, int p);
+
+	/**
+	 * Valoarea pixelului p din fata medie.
+	 */
+	public double mean(int p);
+
+	/**
+	 * Proiecteaza imaginea pe primii count vectori proprii:
+	 * out[j] = eigVector[j] . (face - avgFace). Rezultatul nu este luat in
+	 * valoare absoluta.
+	 *
+	 * Implementarile calculeaza eigVector[j] . face - eigVector[j] . avgFace,
+	 * cu al doilea termen calculat la incarcare, intr-o singura trecere peste
+	 * pixelii imaginii care actualizeaza toate cele count sume. Rezultatul este
+	 * acelasi pana la rotunjiri.
+	 *
+	 * @param face
+	 *            imaginea, de lungime cel putin {@link #length()}.
+	 * @param out
+	 *            rezultatul, de lungime cel putin count.
+	 * @param count
+	 *            numarul de componente calculate.
+	 */
+	public void project(double[] face, double[] out, int count);
+
+	/**
+	 * Proiecteaza mai multe imagini deodata: out[f * count + j] =
+	 * eigVector[j] . (faces[f] - avgFace). Vectorii proprii sunt cititi o
+	 * singura data pentru tot lotul, in loc de o data pentru fiecare imagine.
+	 *
+	 * @param faces
+	 *            imaginile, fiecare de lungime cel putin {@link #length()}.
+	 * @param nfaces
+	 *            numarul de imagini folosite din faces.
+	 * @param out
+	 *            rezultatul, cel putin nfaces * count valori.
+	 * @param count
+	 *            numarul de componente calculate.
+	 */
+	public void project(double[][] faces, int nfaces, double[] out,
+			int count);
+
+	/**
+	 * {@link #project(double[][], int, double[], int)} pentru imaginile
+	 * faces[f0 ... f0 + nfaces), fara copie a tabloului: proiectia imaginii
+	 * f0 + f este in out[f * count + j]. Asa se proiecteaza un lot dintr-un
+	 * tablou mai mare fara alocari.
+	 */
+	public void project(double[][] faces, int f0, int nfaces, double[] out,
+			int count);
+
+	/**
+	 * Proiectia fetei medii pe vectorul propriu j, eigVector[j] . avgFace,
+	 * calculata la incarcare.
+	 */
+	public double projectedMean(int j);
+
+	/**
+	 * Aduna la out[o + j] produsele eigVector[j] . face pe pixelii [p0, p1),
+	 * pentru j < count, fara sa scada proiectia mediei. Asa se proiecteaza o
+	 * imagine pe mai multe spatii ale fetei deodata, felie cu felie (vezi
+	 * {@link BundleStack}): felia imaginii ramane in cache, iar fiecare spatiu
+	 * isi citeste propriii vectori proprii, fara copie.
+	 *
+	 * @param buffers
+	 *            tablourile de lucru ale potrivirii.
+	 */
+	public void accumulate(double[] face, int p0, int p1, double[] out,
+			int o, int count, MatchBuffers buffers);
+
+	/**
+	 * {@link #accumulate(double[], int, int, double[], int, int, MatchBuffers)}
+	 * pentru imaginile faces[f0 ... f0 + nfaces): sumele imaginii f0 + f sunt
+	 * adunate la out[o + f * stride + j].
+	 */
+	public void accumulate(double[][] faces, int f0, int nfaces, int p0,
+			int p1, double[] out, int o, int stride, int count,
+			MatchBuffers buffers);
+}
@@ -11,6 +11,8 @@ package com.licence.eigenface;
  * 
  */
 import java.io.*;
+import java.util.Arrays;
+import java.util.Vector;
 /**
  * The face-space bundle generated by {@link EigenFaceComputation}.
  * This bundle has all the relevant information to try to match an image
@@ -31,20 +33,33 @@ import java.io.*;
  */
 public class FaceBundle implements Serializable, Comparable {
 
-  private double[] avgFace = null;
-  private double[] cmpFace = null;
-  private double[][] eigVector = null;
-  private double[][] wk = null;
-  private String[] id   = null;
-  private transient double minD   = Double.MAX_VALUE;
+  /**
+   * Saved galleries ({@link EigenFaceCreator#saveFaceBundles}) and updatable cache
+   * entries ({@link BundleCache}) are read with this version; change it only when a
+   * change to the serialized fields makes old files unreadable.
+   */
+  private static final long serialVersionUID = 1L;
+
+  private final EigenSpace space;
+  private final double[][] wk;
+  private final String[] id;
+  private final IncrementalPca model;
+  private final ComponentSelection selection;
+  private final DistanceMetric metric;
+  private final boolean indexed;
+  private final HnswIndex hnsw;
   /**
    * The length of the vector-images stored in the face-space bundle. The
    * submitted image <b>MUST</b> of the same length or greater (if its greater
    * only <code>length</code> will be considered).
    */
-  public int length    = Integer.MIN_VALUE;
-  private transient boolean computed = false;
-  private transient int idx       = Integer.MAX_VALUE;
+  public final int length;
+  /** The weights by eigenface, for the first stage of a cascade; built on first use. */
+  private transient volatile double[] columns = null;
+  /** The exact index over <code>wk</code>, if {@link #isIndexed()}; rebuilt when loaded. */
+  private transient VpTree index = null;
+  /** The result of the last <code>submitFace</code>, for the legacy getters. */
+  private transient volatile MatchResult last = null;
 
   /**
    * The face-space object containing:
@@ -65,33 +80,785 @@ public class FaceBundle implements Serializable, Comparable {
    */
   public FaceBundle(double[] avgF, double wk[][], double[][] eigV, String[] files) {
 
-    avgFace = new double[avgF.length];
-    this.wk = new double[wk.length][wk[0].length];
-    eigVector = new double[eigV.length][eigV[0].length];
-    //this.id = new String[files.length];
-    length = avgFace.length;
+    this(new DoubleEigenSpace(avgF, eigV), wk, files);
+  }
+
+  /**
+   * A face-space object over an already built eigenspace. The eigenspace
+   * decides the storage (see {@link DoubleEigenSpace} and
+   * {@link FloatEigenSpace}); the weights and names are kept as given.
+   *
+   * @param space The eigenspace (average face and eigenfaces)
+   * @param wk  The eigenface componenets (projected onto the eigenspace)
+   * @param files  A String array representing each of the images
+   */
+  FaceBundle(EigenSpace space, double wk[][], String[] files) {
+
+    this(space, wk, files, null);
+  }
+
+  /**
+   * A face-space object that can be updated with {@link #enroll}.
+   *
+   * @param space The eigenspace (average face and eigenfaces)
+   * @param wk  The eigenface componenets (projected onto the eigenspace)
+   * @param files  A String array representing each of the images
+   * @param model  The orthonormal basis behind <code>space</code>, or null
+   */
+  FaceBundle(EigenSpace space, double wk[][], String[] files, IncrementalPca model) {
+
+    this(space, wk, files, model, null);
+  }
+
+  /**
+   * A face-space object that also records how its number of eigenfaces was
+   * chosen.
+   *
+   * @param space The eigenspace (average face and eigenfaces)
+   * @param wk  The eigenface componenets (projected onto the eigenspace)
+   * @param files  A String array representing each of the images
+   * @param model  The orthonormal basis behind <code>space</code>, or null
+   * @param selection  The component choice made at training, or null
+   */
+  FaceBundle(EigenSpace space, double wk[][], String[] files, IncrementalPca model,
+      ComponentSelection selection) {
+
+    this(space, wk, files, model, selection, DistanceMetric.LEGACY);
+  }
+
+  /**
+   * A face-space object matched with the given metric.
+   *
+   * @param space The eigenspace (average face and eigenfaces)
+   * @param wk  The eigenface componenets (projected onto the eigenspace)
+   * @param files  A String array representing each of the images
+   * @param model  The orthonormal basis behind <code>space</code>, or null
+   * @param selection  The component choice made at training, or null
+   * @param metric  The distance between a submitted image and each image
+   */
+  FaceBundle(EigenSpace space, double wk[][], String[] files, IncrementalPca model,
+      ComponentSelection selection, DistanceMetric metric) {
+
+    this(space, wk, files, model, selection, metric, false);
+  }
+
+  /**
+   * A face-space object matched with the given metric, optionally through an
+   * exact index over the images (see {@link #withIndex}).
+   *
+   * @param space The eigenspace (average face and eigenfaces)
+   * @param wk  The eigenface componenets (projected onto the eigenspace)
+   * @param files  A String array representing each of the images
+   * @param model  The orthonormal basis behind <code>space</code>, or null
+   * @param selection  The component choice made at training, or null
+   * @param metric  The distance between a submitted image and each image
+   * @param indexed  Whether to build the index
+   */
+  FaceBundle(EigenSpace space, double wk[][], String[] files, IncrementalPca model,
+      ComponentSelection selection, DistanceMetric metric, boolean indexed) {
+
+    // copies, so that the face-space never changes after construction
+    this(space, copy(wk), files.clone(), model, selection, metric, indexed, null);
+  }
 
-    System.arraycopy(avgF,0,this.avgFace,0,avgFace.length);
-    System.arraycopy(eigV,0,this.eigVector,0,eigVector.length);
-    System.arraycopy(wk,  0,this.wk, 0, wk.length);
-    //System.arraycopy(files,  0,this.id, 0, id.length);
+  /**
+   * A face-space object over arrays nobody else changes; they are kept, not
+   * copied.
+   *
+   * @param hnsw  A graph over the first rows of <code>wk</code> (the rest are
+   *  inserted here), or null
+   */
+  private FaceBundle(EigenSpace space, double wk[][], String[] files, IncrementalPca model,
+      ComponentSelection selection, DistanceMetric metric, boolean indexed, HnswIndex hnsw) {
 
+    this.selection = selection;
+    this.model = model;
+    this.space = space;
+    this.wk = wk;
+    length = space.length();
     this.id = files;
+    this.metric = metric.bind(this.wk);
+    this.indexed = indexed;
+    if (indexed)
+      index = new VpTree(this.wk, this.metric);
+    this.hnsw = hnsw == null ? null : hnsw.add(this.wk, this.metric, this.wk.length);
+  }
+
+  private static double[][] copy(double[][] wk) {
+
+    double[][] c = new double[wk.length][];
+    for (int i = 0; i < wk.length; i++)
+      c[i] = wk[i].clone();
+    return c;
+  }
+
+  /**
+   * The exact index is not serialized; a face-space read back builds it
+   * again. The graph of {@link #withHnsw} is serialized with the face-space.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+    in.defaultReadObject();
+    if (indexed)
+      index = new VpTree(wk, metric);
+  }
+
+  /**
+   * How the number of eigenfaces of this face-space was chosen at training:
+   * the policy, the kept eigenvalues and the fraction of the variance they
+   * retain (see {@link ComponentPolicy}). Face-spaces made by {@link #enroll}
+   * and {@link #remove} keep the choice of the one they were made from.
+   *
+   * @return  The choice, or null if the trainer did not record one
+   */
+  public ComponentSelection getSelection() {
+    return selection;
+  }
+
+  /**
+   * The number of eigenfaces each submitted image is projected onto.
+   */
+  public int components() {
+    return wk[0].length;
+  }
+
+  /**
+   * The distance used to match submitted images (see {@link #withMetric}).
+   */
+  public DistanceMetric getMetric() {
+    return metric;
+  }
+
+  /**
+   * The same face-space matched with another distance metric. Metrics that
+   * need data about the face-space's images (row norms, the variance of each
+   * eigenface) compute it here, once.
+   *
+   * @param metric  One of the {@link DistanceMetric} constants
+   * @return  A new face-space; this one is left unchanged
+   */
+  public FaceBundle withMetric(DistanceMetric metric) {
+    return new FaceBundle(space, wk, id, model, selection, metric, indexed, rebuilt());
+  }
+
+  /**
+   * Whether {@link #match(double[])} searches an index instead of scanning
+   * every image (see {@link #withIndex}).
+   */
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  /**
+   * The same face-space, matched through an exact metric index (a
+   * vantage-point tree, see {@link VpTree}) over the images' weights, or
+   * through the plain scan. The index prunes the images that cannot beat
+   * the best one found so far and returns the same image as the scan, ties
+   * included; it pays off for face-spaces with many thousands of images
+   * whose weights are not spread evenly over all the eigenfaces. It is built
+   * here and again whenever the face-space is read back, and is kept by
+   * {@link #withMetric}, {@link #enroll}, {@link #remove} and
+   * {@link #byIdentity}.
+   *
+   * @param indexed  Whether to match through the index
+   * @return  A new face-space; this one is left unchanged
+   */
+  public FaceBundle withIndex(boolean indexed) {
+    return new FaceBundle(space, wk, id, model, selection, metric, indexed, hnsw);
+  }
+
+  /**
+   * The approximate index this face-space is matched through, or null (see
+   * {@link #withHnsw}).
+   */
+  public HnswIndex getHnsw() {
+    return hnsw;
+  }
+
+  /**
+   * The same face-space, matched through an approximate nearest-neighbour
+   * graph (see {@link HnswIndex}) over the images' weights. A match then
+   * scores a few hundred images instead of all of them, so its cost grows
+   * roughly with the logarithm of the number of images; it may miss the
+   * nearest image, less often for a larger <code>efSearch</code>. The graph
+   * is built here with the parameters of <code>hnsw</code>, grows with
+   * {@link #append}, is rebuilt when the weights change ({@link #withMetric},
+   * {@link #enroll}, {@link #remove}, {@link #byIdentity}) and is saved with
+   * the face-space. It takes precedence over {@link #withIndex}.
+   *
+   * @param hnsw  The parameters of the graph (any graph it has is not used),
+   *  or null to scan every image again
+   * @return  A new face-space; this one is left unchanged
+   */
+  public FaceBundle withHnsw(HnswIndex hnsw) {
+    return new FaceBundle(space, wk, id, model, selection, metric, indexed,
+        hnsw == null ? null : hnsw.empty());
+  }
+
+  /**
+   * The same face-space, matched through a graph already built over all of
+   * its images with its metric (ie: read back from the training cache, see
+   * {@link BundleCache#readGraph}), instead of building a new one.
+   *
+   * @throws IllegalArgumentException if the graph does not hold every image
+   */
+  FaceBundle withGraph(HnswIndex graph) {
+
+    if (graph.size() != wk.length)
+      throw new IllegalArgumentException("The graph has " + graph.size()
+          + " images, not " + wk.length);
+    return new FaceBundle(space, wk, id, model, selection, metric, indexed, graph);
+  }
+
+  /**
+   * The same face-space and graph, searched with another number of
+   * candidates (see {@link HnswIndex#withEfSearch}). The graph is shared,
+   * not rebuilt.
+   *
+   * @throws IllegalStateException if this face-space has no graph
+   */
+  public FaceBundle withEfSearch(int efSearch) {
+
+    if (hnsw == null)
+      throw new IllegalStateException("This face-space has no HNSW graph");
+    return new FaceBundle(space, wk, id, model, selection, metric, indexed,
+        hnsw.withEfSearch(efSearch));
+  }
+
+  /**
+   * An empty graph with the parameters of this face-space's, for weights that
+   * changed, or null.
+   */
+  private HnswIndex rebuilt() {
+    return hnsw == null ? null : hnsw.empty();
+  }
+
+  /**
+   * The eigenspace the submitted images are projected onto.
+   */
+  EigenSpace space() {
+    return space;
+  }
+
+  /**
+   * The weights of the images, one row per image; not to be changed.
+   */
+  double[][] weights() {
+    return wk;
+  }
+
+  /**
+   * Whether {@link #enroll} can be used on this face-space. Only bundles
+   * trained with {@link EigenFaceComputation#submitUpdatable} (or enrolled
+   * from one) keep the orthonormal basis the update needs.
+   */
+  public boolean isUpdatable() {
+    return model != null;
+  }
+
+  /**
+   * Fold new images into the face-space without retraining. The average face,
+   * the eigenfaces and the <code>wk</code> table are updated with an
+   * incremental PCA step (see {@link IncrementalPca}) whose cost depends on
+   * the number of new images and eigenfaces, not on the size of the
+   * face-space.
+   *
+   * <p>A face-space trained with all its eigenfaces grows by one eigenface per
+   * new image and matches a full retrain up to rounding. One trained with
+   * fewer eigenfaces keeps that number; its <code>wk</code> rows are rebuilt
+   * from each image's coordinates in the updated basis and differ from a full
+   * retrain by the energy in the discarded components.
+   *
+   * @param faces  The new vector-images, each of at least <code>length</code>
+   * @param names  Their identifying strings, one per image
+   * @return  A new face-space containing the old and the new images. This one
+   *  is left unchanged.
+   * @throws IllegalStateException if this face-space is not updatable
+   */
+  public FaceBundle enroll(double[][] faces, String[] names) {
+
+    if (model == null)
+      throw new IllegalStateException("This face-space has no basis to update");
+    if (faces.length == 0 || faces.length != names.length)
+      throw new IllegalArgumentException("Need one name for each of at least one image");
+    for (int i = 0; i < faces.length; i++)
+      if (faces[i].length < length)
+        throw new IllegalArgumentException("Image " + names[i] + " is shorter than " + length);
+
+    IncrementalPca next = model.add(faces);
+    double[] e = next.matchingVectors();
+    double[][] nwk = next.weights(e);
+
+    String[] nid = new String[id.length + names.length];
+    System.arraycopy(id, 0, nid, 0, id.length);
+    System.arraycopy(names, 0, nid, id.length, names.length);
+
+    return new FaceBundle(new DoubleEigenSpace(next.mean, e), nwk, nid, next,
+        selection, metric, indexed, rebuilt());
+  }
+
+  /**
+   * Take images out of the face-space without retraining and without the
+   * images themselves: the average face, the eigenfaces and the
+   * <code>wk</code> table are recomputed from the coordinates the
+   * face-space keeps for each image (see {@link IncrementalPca#remove}).
+   *
+   * <p>A face-space trained with all its eigenfaces matches a retrain on the
+   * remaining images up to rounding. Otherwise every eigenvalue is within
+   * {@link #errorBound()} of the retrain's.
+   *
+   * @param names  The identifying strings of the images to remove
+   * @return  A new face-space without those images. This one is left unchanged.
+   * @throws IllegalStateException if this face-space is not updatable
+   * @throws IllegalArgumentException if a name is not in this face-space or
+   *  no image would be left
+   */
+  public FaceBundle remove(String[] names) {
+
+    if (model == null)
+      throw new IllegalStateException("This face-space has no basis to update");
+
+    boolean[] removed = new boolean[id.length];
+    int left = id.length;
+    for (int n = 0; n < names.length; n++) {
+      boolean found = false;
+      for (int i = 0; i < id.length; i++)
+        if (id[i].equals(names[n])) {
+          found = true;
+          if (!removed[i])
+            left--;
+          removed[i] = true;
+        }
+      if (!found)
+        throw new IllegalArgumentException(names[n] + " is not in this face-space");
+    }
+    if (left == 0)
+      throw new IllegalArgumentException("At least one image must be left");
+
+    IncrementalPca next = model.remove(removed);
+    double[] e = next.matchingVectors();
+
+    String[] nid = new String[left];
+    for (int i = 0, j = 0; i < id.length; i++)
+      if (!removed[i])
+        nid[j++] = id[i];
+
+    return new FaceBundle(new DoubleEigenSpace(next.mean, e), next.weights(e), nid, next,
+        selection, metric, indexed, rebuilt());
   }
 
+  /**
+   * Add images to the face-space without changing its eigenfaces: each image
+   * is projected onto the eigenspace and its weights are appended to
+   * <code>wk</code>, as for the images it was trained with. This is how a
+   * gallery (see {@link #byIdentity}) grows: the cost depends on the new
+   * images only, and the graph of {@link #withHnsw} is extended with them
+   * instead of being rebuilt. Unlike {@link #enroll}, the eigenfaces do not
+   * learn anything from the new images.
+   *
+   * @param faces  The new vector-images, each of at least <code>length</code>
+   * @param names  Their identifying strings, one per image
+   * @return  A new face-space containing the old and the new images; it cannot
+   *  be updated with {@link #enroll}. This one is left unchanged.
+   */
+  public FaceBundle append(double[][] faces, String[] names) {
+
+    if (faces.length == 0 || faces.length != names.length)
+      throw new IllegalArgumentException("Need one name for each of at least one image");
+    for (int i = 0; i < faces.length; i++)
+      if (faces[i].length < length)
+        throw new IllegalArgumentException("Image " + names[i] + " is shorter than " + length);
+
+    int MAGIC_NR = wk[0].length;
+    double[] projected = new double[faces.length * MAGIC_NR];
+    space.project(faces, faces.length, projected, MAGIC_NR);
+
+    // the old rows are shared: no face-space changes them
+    double[][] nwk = new double[wk.length + faces.length][];
+    System.arraycopy(wk, 0, nwk, 0, wk.length);
+    for (int f = 0; f < faces.length; f++) {
+      double[] w = new double[MAGIC_NR];
+      for (int j = 0; j < MAGIC_NR; j++)
+        w[j] = Math.abs(projected[f * MAGIC_NR + j]);
+      nwk[wk.length + f] = w;
+    }
+
+    String[] nid = new String[id.length + names.length];
+    System.arraycopy(id, 0, nid, 0, id.length);
+    System.arraycopy(names, 0, nid, id.length, names.length);
+
+    return new FaceBundle(space, nwk, nid, null, selection, metric, indexed, hnsw);
+  }
+
+  /**
+   * A gallery over this face-space: a few weight vectors per identity
+   * (person) instead of one per image. Each identity keeps the centroid of
+   * its images' weights and, optionally, the <code>exemplars</code> images
+   * nearest to that centroid. The eigenspace is shared, so matching against
+   * the gallery is still one projection, followed by a scan over a few short
+   * vectors per identity; the result's name is the identity.
+   *
+   * @param labels  The identity of each image, in the order of {@link #getNames()}
+   * @param exemplars  The number of images kept per identity besides the centroid
+   * @return  A face-space whose names are the identities (a name appears once
+   *  per vector kept for it); it cannot be updated
+   * @throws IllegalArgumentException if there is not one label per image
+   */
+  public FaceBundle byIdentity(String[] labels, int exemplars) {
+
+    if (labels.length != id.length)
+      throw new IllegalArgumentException(labels.length + " labels for "
+          + id.length + " images");
+
+    int MAGIC_NR = wk[0].length;
+    Vector<String> names = new Vector<String>();
+    Vector<double[]> rows = new Vector<double[]>();
+    boolean[] done = new boolean[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+      if (done[i])
+        continue;
+
+      // the images of this identity
+      int count = 0;
+      int[] own = new int[labels.length];
+      for (int j = i; j < labels.length; j++)
+        if (labels[j].equals(labels[i])) {
+          own[count++] = j;
+          done[j] = true;
+        }
+
+      double[] centroid = new double[MAGIC_NR];
+      for (int c = 0; c < count; c++)
+        for (int j = 0; j < MAGIC_NR; j++)
+          centroid[j] += wk[own[c]][j];
+      for (int j = 0; j < MAGIC_NR; j++)
+        centroid[j] /= count;
+      names.addElement(labels[i]);
+      rows.addElement(centroid);
+
+      // the exemplars, nearest to the centroid first
+      double[] d = new double[count];
+      for (int c = 0; c < count; c++)
+        for (int j = 0; j < MAGIC_NR; j++)
+          d[c] += Math.abs(wk[own[c]][j] - centroid[j]);
+      for (int e = 0; e < Math.min(exemplars, count); e++) {
+        int near = e;
+        for (int c = e + 1; c < count; c++)
+          if (d[c] < d[near])
+            near = c;
+        double td = d[e]; d[e] = d[near]; d[near] = td;
+        int ti = own[e]; own[e] = own[near]; own[near] = ti;
+        names.addElement(labels[i]);
+        rows.addElement(wk[own[e]]);
+      }
+    }
+
+    String[] nid = new String[names.size()];
+    names.copyInto(nid);
+    double[][] nwk = new double[rows.size()][];
+    rows.copyInto(nwk);
+    return new FaceBundle(space, nwk, nid, null, selection, metric, indexed, rebuilt());
+  }
+
+  /**
+   * This face-space with its weights compressed (see {@link CompressedBundle}):
+   * each image keeps one byte per sub-vector of its weights, and matching
+   * scores only the images of the <code>probes</code> lists nearest to the
+   * submitted image, with table lookups. The eigenspace, the names and the
+   * metric are kept; the result is approximate.
+   *
+   * @param subvectors  The bytes per image, at most {@link #components()}
+   * @param lists  The number of lists the images are split into
+   * @param probes  The number of lists searched by a match
+   * @return  A compressed copy; this face-space is left unchanged
+   */
+  public CompressedBundle compress(int subvectors, int lists, int probes) {
+    return new CompressedBundle(space, wk, id, metric, subvectors, lists, probes);
+  }
+
+  /**
+   * How far this face-space may be from a retrain on the same images:
+   * every eigenvalue of the covariance matrix kept here differs from the
+   * retrain's by at most this much. It is 0 for face-spaces trained with all
+   * their eigenfaces and grows only when {@link #enroll} or {@link #remove}
+   * drop components (see {@link IncrementalPca}).
+   *
+   * @return  >= 0, or <code>Double.NaN</code> if this face-space is not updatable
+   */
+  public double errorBound() {
+    return model == null ? Double.NaN : model.eigenvalueBound();
+  }
+
+  /**
+   * Match an image against the face-space. This does not change the
+   * face-space, so any number of threads may match against one face-space
+   * at the same time; each uses its own work arrays (see
+   * {@link MatchBuffers#local()}).
+   *
+   * @param face  The vector-array of the image. The image must be off <b>length</b>
+   * @return  The nearest image of this face-space and its distance
+   */
+  public MatchResult match(double[] face) {
+
+    return match(face, MatchBuffers.local());
+  }
+
+  /**
+   * Match an image against the face-space using the given work arrays.
+   * Nothing is allocated besides the result once the buffers have grown to
+   * this face-space's size.
+   *
+   * @param face  The vector-array of the image. The image must be off <b>length</b>
+   * @param buffers  Work arrays, not used by another thread at the same time
+   * @return  The nearest image of this face-space and its distance
+   */
+  public MatchResult match(double[] face, MatchBuffers buffers) {
+
+    return compute(face, buffers);
+  }
+
+  /**
+   * Match an image with a coarse-to-fine search (see {@link Cascade}): every
+   * image is scored on the first few eigenfaces only, and only the shortlist
+   * of each stage is scored on more. The result may differ from
+   * {@link #match(double[])} when the winner misses a shortlist; the cascade
+   * counts how often that happens.
+   *
+   * @param face  The vector-array of the image. The image must be off <b>length</b>
+   * @param cascade  The stages of the search
+   * @return  The nearest image found and its distance
+   */
+  public MatchResult match(double[] face, Cascade cascade) {
+
+    return match(face, cascade, MatchBuffers.local());
+  }
+
+  /**
+   * {@link #match(double[], Cascade)} using the given work arrays.
+   */
+  public MatchResult match(double[] face, Cascade cascade, MatchBuffers buffers) {
+
+    int MAGIC_NR = wk[0].length;
+    double[] projected = buffers.projection(MAGIC_NR);
+    space.project(face, projected, MAGIC_NR);
+    MatchResult result = cascade(projected, 0, cascade, buffers);
+    if (cascade.count())
+      cascade.verified(scan(projected, 0, buffers).getIndex() == result.getIndex());
+    return result;
+  }
+
+  /**
+   * {@link #match(double[], Cascade)} for the projection
+   * <code>projected[off .. off + k)</code> (signed, as returned by the
+   * eigenspace). The query is not counted: the caller counts it once, on
+   * its final answer (see {@link BundleStack}).
+   */
+  MatchResult cascade(double[] projected, int off, Cascade cascade, MatchBuffers buffers) {
+
+    int nrfaces = wk.length;
+    int MAGIC_NR = wk[0].length;
+    int j, c, image;
+
+    double[] input_wk = buffers.projection(MAGIC_NR);
+    for (j = 0; j < MAGIC_NR; j++)
+      input_wk[j] = Math.abs( projected[off + j] );
+
+    // null: every image is still a candidate
+    int[] candidates = null;
+    int count = nrfaces;
+    for (int stage = 0; stage < cascade.stages(); stage++) {
+      int n = Math.min(cascade.components(stage), MAGIC_NR);
+      int keep = cascade.shortlist(stage);
+      if (count <= keep || n == MAGIC_NR)
+        break;
+      double[] scores = buffers.scores(count);
+      if (candidates == null)
+        metric.prefixAll(input_wk, columns(), nrfaces, n, scores, buffers.scratch(nrfaces));
+      else
+        for (c = 0; c < count; c++)
+          scores[c] = metric.prefix(input_wk, wk[candidates[c]], candidates[c], n,
+              Double.POSITIVE_INFINITY);
+      // in image order, so that ties go to the first image as in score()
+      int[] next = buffers.shortlist(stage, keep);
+      count = Cascade.select(scores, count, keep, buffers.scratch(count), next);
+      if (candidates != null)
+        for (c = 0; c < count; c++)
+          next[c] = candidates[next[c]];
+      candidates = next;
+    }
+
+    double qdata = metric.query(input_wk, MAGIC_NR);
+    double best = Double.POSITIVE_INFINITY;
+    int idx = 0;
+    for (c = 0; c < count; c++) {
+      image = candidates == null ? c : candidates[c];
+      double partial = metric.score(input_wk, qdata, wk[image], image, MAGIC_NR, best);
+      if (partial < best) {
+        idx = image;
+        best = partial;
+      }
+    }
+    return new MatchResult(id[idx], metric.distance(input_wk, qdata,
+        wk[idx], idx, MAGIC_NR, best, buffers), idx);
+  }
+
+  /**
+   * The weights stored by eigenface: <code>columns[j * nrfaces + i] = wk[i][j]</code>.
+   */
+  private double[] columns() {
+
+    double[] c = columns;
+    if (c == null) {
+      int nrfaces = wk.length;
+      c = new double[nrfaces * wk[0].length];
+      for (int i = 0; i < nrfaces; i++)
+        for (int j = 0; j < wk[i].length; j++)
+          c[j * nrfaces + i] = wk[i][j];
+      columns = c;
+    }
+    return c;
+  }
+
+  /**
+   * The <code>k</code> images of this face-space nearest to the submitted
+   * image, ranked by the distance each result reports, so the results are
+   * always in ascending order of {@link MatchResult#getDistance()} and can be
+   * merged with those of other face-spaces (see {@link TopK}). For every
+   * metric but {@link DistanceMetric#LEGACY} that distance is the score
+   * {@link #match(double[])} picks its single best by, and the first result
+   * is the one {@link #match(double[])} returns. The legacy distance is
+   * normalised and does not grow with the legacy score, so there every
+   * image's distance is computed and the first result may differ from the
+   * single best.
+   *
+   * @param face  The vector-array of the image. The image must be off <b>length</b>
+   * @param k  The number of results wanted, at least 1
+   * @return  At most <code>k</code> results, nearest first
+   */
+  public MatchResult[] match(double[] face, int k) {
+
+    return match(face, k, MatchBuffers.local());
+  }
+
+  /**
+   * {@link #match(double[], int)} using the given work arrays.
+   */
+  public MatchResult[] match(double[] face, int k, MatchBuffers buffers) {
+
+    int MAGIC_NR = wk[0].length;
+    double[] projected = buffers.projection(MAGIC_NR);
+    space.project(face, projected, MAGIC_NR);
+    return top(projected, 0, k, buffers);
+  }
+
+  /**
+   * The <code>k</code> images nearest to the projection
+   * <code>projected[off .. off + k)</code> (signed, as returned by the
+   * eigenspace), see {@link #match(double[], int)}.
+   */
+  MatchResult[] top(double[] projected, int off, int k, MatchBuffers buffers) {
+
+    int nrfaces = wk.length;
+    int MAGIC_NR = wk[0].length;
+    int j, image;
+
+    double[] input_wk = buffers.projection(MAGIC_NR);
+    for (j = 0; j < MAGIC_NR; j++)
+      input_wk[j] = Math.abs( projected[off + j] );
+
+    double qdata = metric.query(input_wk, MAGIC_NR);
+    TopK heap = new TopK(Math.min(k, nrfaces));
+    boolean ranked = metric.ranksByScore();
+    for (image = 0; image < nrfaces; image++) {
+      double bound = heap.bound();
+      if (ranked) {
+        // early abandon against the worst score kept, as in score()
+        double partial = metric.score(input_wk, qdata, wk[image], image, MAGIC_NR, bound);
+        if (partial < bound)
+          heap.offer(partial, image);
+      } else {
+        double score = metric.score(input_wk, qdata, wk[image], image,
+            MAGIC_NR, Double.POSITIVE_INFINITY);
+        double d = metric.distance(input_wk, qdata, wk[image], image, MAGIC_NR,
+            score, buffers);
+        if (d < bound)
+          heap.offer(d, image);
+      }
+    }
+
+    int[] best = new int[heap.size()];
+    double[] scores = new double[best.length];
+    heap.drain(scores, best);
+    MatchResult[] results = new MatchResult[best.length];
+    for (int r = 0; r < best.length; r++)
+      results[r] = new MatchResult(id[best[r]], !ranked ? scores[r]
+          : metric.distance(input_wk, qdata, wk[best[r]], best[r], MAGIC_NR,
+              scores[r], buffers), best[r]);
+    return results;
+  }
+
+  /**
+   * Match several images at once (all the faces of a frame, a queue of
+   * requests). The images are projected together, reading each eigenface
+   * once per batch instead of once per image (see
+   * {@link EigenSpace#project(double[][], int, double[], int)}),
+   * and then scored one by one. The results equal those of
+   * {@link #match(double[])} up to rounding.
+   *
+   * @param faces  The vector-arrays of the images, each of at least <b>length</b>
+   * @return  One result per image, in the same order
+   */
+  public MatchResult[] match(double[][] faces) {
+
+    return match(faces, faces.length, MatchBuffers.local());
+  }
+
+  /**
+   * Match the first <code>count</code> images of <code>faces</code> at once,
+   * using the given work arrays.
+   *
+   * @param faces  The vector-arrays of the images, each of at least <b>length</b>
+   * @param count  The number of images to match
+   * @param buffers  Work arrays, not used by another thread at the same time
+   * @return  One result per image, in the same order
+   */
+  public MatchResult[] match(double[][] faces, int count, MatchBuffers buffers) {
+
+    int MAGIC_NR = wk[0].length;
+    MatchResult[] results = new MatchResult[count];
+    // loturi de cel mult BATCH faces, ca sumele lotului sa incapa in cache
+    for (int f0 = 0; f0 < count; f0 += BATCH) {
+      int nf = Math.min(BATCH, count - f0);
+      double[] projection = buffers.batch(nf * MAGIC_NR);
+      space.project(faces, f0, nf, projection, MAGIC_NR);
+      for (int f = 0; f < nf; f++)
+        results[f0 + f] = score(projection, f * MAGIC_NR, buffers);
+    }
+    return results;
+  }
+
+  /**
+   * The largest number of images projected together by {@link #match(double[][])}.
+   */
+  static final int BATCH = 32;
+
   /**
    * Submit an image of matching against the face-space.
    * The results are published in <code>distance()</b> and <code>getID()</code>.
    *
    * @param face  The vector-array of the image. The image must be off <b>length</b>
    *
+   * @deprecated The result is shared by all callers; use {@link #match(double[])}.
    */
+  @Deprecated
   public void submitFace(byte[] face) {
     // Convert it to double.
+    MatchBuffers buffers = MatchBuffers.local();
+    double[] img = buffers.face(length);
     for (int i = 0; i< length;i++)
-      cmpFace[i] = (double) (face[i] & 0xFF);
+      img[i] = (double) (face[i] & 0xFF);
 
-    compute();
+    last = compute(img, buffers);
   }
 
   /**
@@ -100,13 +867,17 @@ public class FaceBundle implements Serializable, Comparable {
    *
    * @param face  The vector-array of the image. The image must be off <b>length</b>
    *
+   * @deprecated The result is shared by all callers; use {@link #match(double[])}.
    */
+  @Deprecated
   public void submitFace(int[] face) {
 
+    MatchBuffers buffers = MatchBuffers.local();
+    double[] img = buffers.face(length);
     for (int i = 0; i< length;i++)
-      cmpFace[i] = face[i];
+      img[i] = face[i];
 
-    compute();
+    last = compute(img, buffers);
   }
 
   /**
@@ -115,23 +886,36 @@ public class FaceBundle implements Serializable, Comparable {
    *
    * @param face  The vector-array of the image. The image must be off <b>length</b>
    *
+   * @deprecated The result is shared by all callers; use {@link #match(double[])}.
    */
+  @Deprecated
   public void submitFace(double[] face) {
 
-      this.cmpFace = face;
-      compute();
+      last = compute(face, MatchBuffers.local());
+  }
 
+  /**
+   * Submit an image of matching against the face-space, using the given
+   * work arrays instead of the calling thread's.
+   *
+   * @param face  The vector-array of the image. The image must be off <b>length</b>
+   * @param buffers  Work arrays, not used by another thread at the same time
+   *
+   * @deprecated The result is shared by all callers; use
+   *  {@link #match(double[], MatchBuffers)}.
+   */
+  @Deprecated
+  public void submitFace(double[] face, MatchBuffers buffers) {
 
+      last = compute(face, buffers);
   }
+
   /**
    * Clear the submitted image from the face-space object.
    */
   public void clearFace() {
 
-    cmpFace = null;
-    computed = false;
-    idx = Integer.MAX_VALUE;
-    minD = Double.MAX_VALUE;
+    last = null;
   }
 
   /**
@@ -143,7 +927,8 @@ public class FaceBundle implements Serializable, Comparable {
    */
   public double distance() {
 
-    return minD;
+    MatchResult r = last;
+    return r == null ? Double.MAX_VALUE : r.getDistance();
   }
 
   /**
@@ -155,7 +940,10 @@ public class FaceBundle implements Serializable, Comparable {
    */
   public String getID() {
 
-    return this.id[idx];
+    MatchResult r = last;
+    if (r == null)
+      throw new ArrayIndexOutOfBoundsException("No image submitted");
+    return r.getIdentity();
   }
 
   /**
@@ -164,7 +952,7 @@ public class FaceBundle implements Serializable, Comparable {
    * @return  getNames().length == 16
    */
   public String[] getNames() {
-    return id;
+    return id.clone();
   }
 
   /**
@@ -175,10 +963,11 @@ public class FaceBundle implements Serializable, Comparable {
    */
   public int compareTo(Object o) {
 
-
-    if (((FaceBundle)o).minD > minD)
+    double minD = distance();
+    double other = ((FaceBundle)o).distance();
+    if (other > minD)
       return 1;
-    if (((FaceBundle)o).minD < minD)
+    if (other < minD)
       return -1;
 
     return 0;
@@ -189,8 +978,9 @@ public class FaceBundle implements Serializable, Comparable {
    */
   public String toString() {
 
-    if (computed)
-      return "["+id[idx] + "] with "+minD;
+    MatchResult r = last;
+    if (r != null)
+      return r.toString();
     return "No image supplied";
   }
 
@@ -198,71 +988,84 @@ public class FaceBundle implements Serializable, Comparable {
    * Do the computation..
    *
    */
-  private void compute() {
-
+  private MatchResult compute(double[] cmpFace, MatchBuffers buffers) {
 
-    double[] inputFace = new double[length];
-    int nrfaces = eigVector.length;
     int MAGIC_NR = wk[0].length;
-    int j, pix, image;
 
-    computed = false;
-    System.arraycopy(cmpFace,0,inputFace,0,length);
+    double[] input_wk = buffers.projection(MAGIC_NR);
+    /* Subtract the image from the average image and project it */
+    space.project(cmpFace, input_wk, MAGIC_NR);
 
-    for ( pix = 0; pix < inputFace.length; pix++) {
-        inputFace[pix] = inputFace[pix] - avgFace[pix];
-    }
+    return score(input_wk, 0, buffers);
+  }
 
-    //System.out.println(nrfaces+" "+inputFace.length);
-    double[] input_wk = new double[MAGIC_NR];
-    double temp = 0;
-    /* Subtract the image from the average image */
-    for (j = 0; j < MAGIC_NR; j++) {
-      temp = 0.0;
-      for ( pix=0; pix <length; pix++)
-        temp += eigVector[j][pix] * inputFace[pix];
+  /**
+   * Find the image nearest to the projection
+   * <code>projected[off .. off + k)</code> (signed, as returned by the
+   * eigenspace).
+   */
+  MatchResult score(double[] projected, int off, MatchBuffers buffers) {
 
-      input_wk[j] = Math.abs( temp );
-    }
+    return score(projected, off, false, buffers);
+  }
 
-    /*
-     * Find the minimun distance from the input_wk as compared to wk
-     */
+  /**
+   * {@link #score(double[], int, MatchBuffers)} scoring every image, without
+   * the index or the graph: the exhaustive search a {@link Cascade} is
+   * checked against.
+   */
+  MatchResult scan(double[] projected, int off, MatchBuffers buffers) {
 
+    return score(projected, off, true, buffers);
+  }
 
-    double[] distance = new double[MAGIC_NR];
-    double[] minDistance = new double[MAGIC_NR];
-    idx = 0;
-    for (image = 0; image < nrfaces; image++) {
-        temp = 0.0;
-        for (j = 0; j < MAGIC_NR; j++) {
-          distance[j] = Math.abs(input_wk[j] - wk[image][j]);
-          //System.out.print(distance[j]+"\t");
-        }
-        //System.out.println();
-        if (image == 0)
-          System.arraycopy(distance,0,minDistance,0,MAGIC_NR);
-        if (sum(minDistance) > sum(distance)) {
+  private MatchResult score(double[] projected, int off, boolean linear, MatchBuffers buffers) {
 
-          this.idx = image;
-          System.arraycopy(distance,0,minDistance,0,MAGIC_NR);
-        }
-    }
+    int nrfaces = wk.length;
+    int MAGIC_NR = wk[0].length;
+    int j, image;
 
+    double[] input_wk = buffers.projection(MAGIC_NR);
+    for (j = 0; j < MAGIC_NR; j++)
+      input_wk[j] = Math.abs( projected[off + j] );
 
     /*
-     * Normalize our minimum distance.
+     * Find the minimun distance from the input_wk as compared to wk.
+     * The sum metrics (see DistanceMetric) accumulate the score component
+     * by component, in the order of the eigenvalues, and drop the image as
+     * soon as the partial score reaches the best one: the terms are not
+     * negative, so it could no longer win. The sums are made in the same
+     * order as a full score, so the result is the same as scoring every
+     * image. An indexed face-space only scores the images its index
+     * cannot rule out, with the same result; one with a graph only scores
+     * the images the graph search reaches.
      */
 
-    if (max(minDistance) > 0.0)
-      divide(minDistance, max(minDistance));
-
-    minD = sum(minDistance);
-
-    computed = true;
-
+    double qdata = metric.query(input_wk, MAGIC_NR);
+    double best = Double.POSITIVE_INFINITY;
+    int idx = 0;
+    VpTree tree = linear ? null : index;
+    if (hnsw != null && !linear) {
+      double[] found = buffers.scores(1);
+      idx = hnsw.nearest(wk, metric, input_wk, qdata, buffers, found);
+      best = found[0];
+    } else if (tree != null) {
+      double[] found = buffers.scores(1);
+      idx = tree.nearest(input_wk, qdata, found);
+      best = found[0];
+    } else
+      for (image = 0; image < nrfaces; image++) {
+        double partial = metric.score(input_wk, qdata, wk[image], image, MAGIC_NR, best);
+        if (partial < best) {
+          idx = image;
+          best = partial;
+        }
+      }
 
+    return new MatchResult(id[idx], metric.distance(input_wk, qdata, wk[idx], idx,
+        MAGIC_NR, best, buffers), idx);
   }
+
 /**
    * Divide each element in <code>v</code> by <code>b</code>
    * No checking for division by zero.
@@ -295,6 +1098,39 @@ public class FaceBundle implements Serializable, Comparable {
     return b;
 
   }
+  /**
+   * {@link #sum(double[])} over the first <code>n</code> elements (the
+   * work arrays may be longer than the vector they hold).
+   */
+  static double sum(double[] a, int n) {
+
+    double b = a[0];
+    for (int i = 0; i < n; i++)
+      b += a[i];
+
+    return b;
+  }
+
+  /**
+   * {@link #max(double[])} over the first <code>n</code> elements.
+   */
+  static double max(double[] a, int n) {
+    double b = a[0];
+    for (int i = 0; i < n; i++)
+      if (a[i] > b) b = a[i];
+
+    return b;
+  }
+
+  /**
+   * {@link #divide(double[], double)} over the first <code>n</code> elements.
+   */
+  static void divide(double[] v, double b, int n) {
+
+    for (int i = 0; i < n; i++)
+      v[i] = v[i] / b;
+  }
+
    /**
    * The max of the vector a.
    *
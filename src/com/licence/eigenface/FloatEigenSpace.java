@@ -0,0 +1,153 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+
+/**
+ * Spatiu al fetei in simpla precizie. Fata medie si vectorii proprii sunt
+ * stocati ca float, ceea ce injumatateste memoria ocupata de matricea
+ * vectorilor proprii; vectorii sunt intretesuti pe componente, ca in
+ * {@link DoubleEigenSpace}. Produsele scalare si proiectia mediei se aduna
+ * totusi in double: pixelii (ARGB) au valori mari si suma pe N^2 pixeli ar
+ * pierde prea multa precizie in float.
+ */
+class FloatEigenSpace implements EigenSpace {
+
+	private static final long serialVersionUID = 1L;
+
+	private final float[] avgFace;
+	private final float[] eigVector;
+	private final double[] projectedMean;
+	private final int length;
+	private final int components;
+
+	/**
+	 * Preia fata medie fara copiere si intretese vectorii proprii.
+	 *
+	 * @param avgF
+	 *            fata medie (N^2).
+	 * @param eigV
+	 *            vectorii proprii, k * N^2, rand dupa rand.
+	 */
+	FloatEigenSpace(float[] avgF, float[] eigV) {
+
+		this.avgFace = avgF;
+		this.length = avgF.length;
+		this.components = eigV.length / length;
+		this.eigVector = new float[components * length];
+		this.projectedMean = new double[components];
+		for (int j = 0; j < components; j++) {
+			int off = j * length;
+			double pm = 0.0;
+			for (int p = 0; p < length; p++) {
+				float e = eigV[off + p];
+				eigVector[p * components + j] = e;
+				pm += (double) e * avgF[p];
+			}
+			projectedMean[j] = pm;
+		}
+	}
+
+	public int components() {
+		return components;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public double get(int j, int p) {
+		return eigVector[p * components + j];
+	}
+
+	public double mean(int p) {
+		return avgFace[p];
+	}
+
+	public void project(double[] face, double[] out, int count) {
+
+		Arrays.fill(out, 0, count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += TILE)
+			accumulate(face, p0, Math.min(p0 + TILE, length), out, 0, count);
+		for (int j = 0; j < count; j++)
+			out[j] -= projectedMean[j];
+	}
+
+	/**
+	 * Pixelii sunt parcursi o singura data, in felii de {@link #TILE}; felia
+	 * vectorilor proprii este folosita pentru toate imaginile lotului cat timp
+	 * este in cache.
+	 */
+	public void project(double[][] faces, int nfaces, double[] out,
+			int count) {
+		project(faces, 0, nfaces, out, count);
+	}
+
+	public void project(double[][] faces, int f0, int nfaces, double[] out,
+			int count) {
+
+		Arrays.fill(out, 0, nfaces * count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += TILE) {
+			int p1 = Math.min(p0 + TILE, length);
+			for (int f = 0; f < nfaces; f++)
+				accumulate(faces[f0 + f], p0, p1, out, f * count, count);
+		}
+		for (int f = 0, o = 0; f < nfaces; f++, o += count)
+			for (int j = 0; j < count; j++)
+				out[o + j] -= projectedMean[j];
+	}
+
+	public double projectedMean(int j) {
+		return projectedMean[j];
+	}
+
+	public void accumulate(double[] face, int p0, int p1, double[] out,
+			int o, int count, MatchBuffers buffers) {
+
+		accumulate(face, p0, p1, out, o, count);
+	}
+
+	public void accumulate(double[][] faces, int f0, int nfaces, int p0,
+			int p1, double[] out, int o, int stride, int count,
+			MatchBuffers buffers) {
+
+		for (int f = 0; f < nfaces; f++)
+			accumulate(faces[f0 + f], p0, p1, out, o + f * stride, count);
+	}
+
+	/**
+	 * Aduna la out[o + j] produsele eigVector[j] . face pe pixelii [p0, p1).
+	 * In felie valorile vectorilor proprii sunt consecutive; componentele sunt
+	 * calculate cate patru, cu sumele in registre.
+	 */
+	private void accumulate(double[] face, int p0, int p1, double[] out,
+			int o, int count) {
+
+		final int k = components;
+		int j = 0;
+		for (; j + 3 < count; j += 4) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int pix = p0, e = p0 * k + j; pix < p1; pix++, e += k) {
+				double x = face[pix];
+				s0 += eigVector[e] * x;
+				s1 += eigVector[e + 1] * x;
+				s2 += eigVector[e + 2] * x;
+				s3 += eigVector[e + 3] * x;
+			}
+			out[o + j] += s0;
+			out[o + j + 1] += s1;
+			out[o + j + 2] += s2;
+			out[o + j + 3] += s3;
+		}
+		for (; j < count; j++) {
+			double s = 0;
+			for (int pix = p0, e = p0 * k + j; pix < p1; pix++, e += k)
+				s += eigVector[e] * face[pix];
+			out[o + j] += s;
+		}
+	}
+
+	/**
+	 * Numarul de pixeli dintr-o felie a proiectiei.
+	 */
+	static final int TILE = 128;
+}
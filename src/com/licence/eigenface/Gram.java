@@ -0,0 +1,191 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+
+/**
+ * Matricea de covarianta MxM (A * A^T) a imaginilor centrate, pasul cel mai
+ * scump al antrenarii: O(M^2 * N^2).
+ *
+ * Matricea este simetrica, asa ca se calculeaza doar perechile de blocuri de
+ * randuri (bi, bj) cu bi <= bj, iar rezultatul este oglindit. Fiecare pereche
+ * de blocuri parcurge dimensiunea pixelilor in felii de {@link #PIXEL_TILE},
+ * astfel incat feliile celor doua blocuri de randuri incap in cache si sunt
+ * refolosite pentru toate produsele scalare ale perechii. Perechile de blocuri
+ * scriu in zone disjuncte ale rezultatului si sunt calculate in paralel (vezi
+ * {@link Parallel}). Nu se construieste nicio transpusa.
+ */
+final class Gram {
+
+	/** Numarul de randuri (imagini) dintr-un bloc. */
+	static final int ROW_TILE = 8;
+
+	/** Numarul de pixeli dintr-o felie. */
+	static final int PIXEL_TILE = 1024;
+
+	private Gram() {
+	}
+
+	/**
+	 * Imaginile sunt randurile tabloului faces.
+	 */
+	static double[][] compute(double[][] faces, int length) {
+
+		int[] off = new int[faces.length];
+		return compute(faces, off, faces.length, length);
+	}
+
+	/**
+	 * Imaginile sunt asezate rand dupa rand in tabloul plat faces.
+	 */
+	static double[][] compute(double[] faces, int nrfaces, int length) {
+
+		double[][] rows = new double[nrfaces][];
+		int[] off = new int[nrfaces];
+		for (int i = 0; i < nrfaces; i++) {
+			rows[i] = faces;
+			off[i] = i * length;
+		}
+		return compute(rows, off, nrfaces, length);
+	}
+
+	/**
+	 * Imaginea i este rows[i][off[i] .. off[i] + length).
+	 */
+	private static double[][] compute(final double[][] rows, final int[] off,
+			final int nrfaces, final int length) {
+
+		final double[][] g = new double[nrfaces][nrfaces];
+		final int[][] pairs = pairs(nrfaces);
+
+		Parallel.forChunks(pairs.length, 1, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				double[][] acc = new double[ROW_TILE][ROW_TILE];
+				for (int t = from; t < to; t++) {
+					int i0 = pairs[t][0] * ROW_TILE;
+					int j0 = pairs[t][1] * ROW_TILE;
+					int ni = Math.min(ROW_TILE, nrfaces - i0);
+					int nj = Math.min(ROW_TILE, nrfaces - j0);
+					for (int a = 0; a < ni; a++)
+						Arrays.fill(acc[a], 0.0);
+
+					for (int p0 = 0; p0 < length; p0 += PIXEL_TILE) {
+						int n = Math.min(PIXEL_TILE, length - p0);
+						int a = 0;
+						for (; a + 1 < ni; a += 2) {
+							double[] ra = rows[i0 + a], rb = rows[i0 + a + 1];
+							int oa = off[i0 + a] + p0, ob = off[i0 + a + 1] + p0;
+							int b = 0;
+							for (; b + 1 < nj; b += 2) {
+								double[] rc = rows[j0 + b], rd = rows[j0 + b + 1];
+								int oc = off[j0 + b] + p0, od = off[j0 + b + 1]
+										+ p0;
+								double s00 = 0, s01 = 0, s10 = 0, s11 = 0;
+								for (int p = 0; p < n; p++) {
+									double x0 = ra[oa + p], x1 = rb[ob + p];
+									double y0 = rc[oc + p], y1 = rd[od + p];
+									s00 += x0 * y0;
+									s01 += x0 * y1;
+									s10 += x1 * y0;
+									s11 += x1 * y1;
+								}
+								acc[a][b] += s00;
+								acc[a][b + 1] += s01;
+								acc[a + 1][b] += s10;
+								acc[a + 1][b + 1] += s11;
+							}
+							for (; b < nj; b++) {
+								acc[a][b] += dot(ra, oa, rows[j0 + b], off[j0 + b]
+										+ p0, n);
+								acc[a + 1][b] += dot(rb, ob, rows[j0 + b],
+										off[j0 + b] + p0, n);
+							}
+						}
+						for (; a < ni; a++)
+							for (int b = 0; b < nj; b++)
+								acc[a][b] += dot(rows[i0 + a], off[i0 + a] + p0,
+										rows[j0 + b], off[j0 + b] + p0, n);
+					}
+
+					// pe blocurile diagonale pastram doar triunghiul superior,
+					// ca rezultatul sa fie exact simetric
+					for (int a = 0; a < ni; a++)
+						for (int b = (i0 == j0 ? a : 0); b < nj; b++) {
+							g[i0 + a][j0 + b] = acc[a][b];
+							g[j0 + b][i0 + a] = acc[a][b];
+						}
+				}
+			}
+		});
+		return g;
+	}
+
+	/**
+	 * Varianta in simpla precizie: imaginile sunt asezate rand dupa rand in
+	 * tabloul plat faces. Produsele si sumele se fac in double.
+	 */
+	static double[][] compute(final float[] faces, final int nrfaces,
+			final int length) {
+
+		final double[][] g = new double[nrfaces][nrfaces];
+		final int[][] pairs = pairs(nrfaces);
+
+		Parallel.forChunks(pairs.length, 1, new Parallel.Body() {
+			void run(int chunk, int from, int to) {
+				double[][] acc = new double[ROW_TILE][ROW_TILE];
+				for (int t = from; t < to; t++) {
+					int i0 = pairs[t][0] * ROW_TILE;
+					int j0 = pairs[t][1] * ROW_TILE;
+					int ni = Math.min(ROW_TILE, nrfaces - i0);
+					int nj = Math.min(ROW_TILE, nrfaces - j0);
+					for (int a = 0; a < ni; a++)
+						Arrays.fill(acc[a], 0.0);
+
+					for (int p0 = 0; p0 < length; p0 += PIXEL_TILE) {
+						int n = Math.min(PIXEL_TILE, length - p0);
+						for (int a = 0; a < ni; a++) {
+							int oa = (i0 + a) * length + p0;
+							for (int b = 0; b < nj; b++) {
+								int ob = (j0 + b) * length + p0;
+								double s = 0;
+								for (int p = 0; p < n; p++)
+									s += (double) faces[oa + p] * faces[ob + p];
+								acc[a][b] += s;
+							}
+						}
+					}
+
+					// pe blocurile diagonale pastram doar triunghiul superior,
+					// ca rezultatul sa fie exact simetric
+					for (int a = 0; a < ni; a++)
+						for (int b = (i0 == j0 ? a : 0); b < nj; b++) {
+							g[i0 + a][j0 + b] = acc[a][b];
+							g[j0 + b][i0 + a] = acc[a][b];
+						}
+				}
+			}
+		});
+		return g;
+	}
+
+	/**
+	 * Perechile de blocuri (bi, bj), bi <= bj, din triunghiul superior.
+	 */
+	private static int[][] pairs(int nrfaces) {
+
+		int nb = (nrfaces + ROW_TILE - 1) / ROW_TILE;
+		int[][] pairs = new int[nb * (nb + 1) / 2][];
+		int t = 0;
+		for (int bi = 0; bi < nb; bi++)
+			for (int bj = bi; bj < nb; bj++)
+				pairs[t++] = new int[] { bi, bj };
+		return pairs;
+	}
+
+	private static double dot(double[] a, int oa, double[] b, int ob, int n) {
+
+		double s = 0.0;
+		for (int p = 0; p < n; p++)
+			s += a[oa + p] * b[ob + p];
+		return s;
+	}
+}
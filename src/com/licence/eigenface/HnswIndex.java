@@ -0,0 +1,503 @@
+package com.licence.eigenface;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Index aproximativ peste ponderile unui spatiu al fetei (randurile lui wk):
+ * un graf HNSW (hierarchical navigable small world, Malkov si Yashunin). Fiecare
+ * imagine este un nod legat de cele mai apropiate imagini gasite la inserare,
+ * pe mai multe niveluri: nivelul 0 contine toate imaginile, fiecare nivel
+ * urmator aproximativ 1/M din cele de dedesubt. O cautare coboara lacom prin
+ * nivelurile de sus, apoi exploreaza nivelul 0 pastrand cei mai buni efSearch
+ * candidati; costul creste aproape logaritmic cu numarul imaginilor.
+ *
+ * Rezultatul este cea mai apropiata imagine dintre candidatii gasiti, cu
+ * scorul metricii (vezi {@link DistanceMetric#score}); poate diferi de cel al
+ * cautarii complete daca imaginea castigatoare nu este gasita. Un efSearch
+ * mai mare gaseste mai des imaginea corecta, cu un cost mai mare.
+ *
+ * Un index nu se modifica dupa construire. Adaugarea de imagini (vezi
+ * {@link #add}) intoarce un index nou, care imparte cu cel vechi listele de
+ * vecini neschimbate, asa ca indexul vechi poate fi folosit in continuare de
+ * alte fire. Se serializeaza impreuna cu spatiul fetei, intr-o forma compacta,
+ * ca un spatiu citit dintr-un fisier sa nu construiasca din nou graful.
+ */
+public final class HnswIndex implements Serializable {
+
+	private static final long serialVersionUID = 2L;
+
+	// niveluri cel mult atatea
+	private static final int MAX_LEVEL = 30;
+
+	private final int m;
+	private final int efConstruction;
+	private final int efSearch;
+
+	// nodurile sunt randurile [0, count) ale lui wk
+	private transient int count;
+	private transient int entry = -1;
+	private transient int top = -1;
+	// links[i][l]: vecinii nodului i pe nivelul l; primul element este
+	// numarul lor
+	private transient int[][][] links = new int[0][][];
+
+	/**
+	 * Un index gol; graful se construieste cand este atasat unui spatiu al
+	 * fetei (vezi {@link FaceBundle#withHnsw}).
+	 *
+	 * @param m
+	 *            Numarul de vecini pastrati pentru fiecare nod (2 m pe nivelul
+	 *            0). Valori uzuale: 8 - 32; mai multi vecini inseamna un graf
+	 *            mai precis, dar mai mare si mai lent de construit.
+	 * @param efConstruction
+	 *            Numarul de candidati cautati la inserarea unei imagini.
+	 * @param efSearch
+	 *            Numarul de candidati cautati la o potrivire.
+	 * @throws IllegalArgumentException
+	 *             m < 2 sau efConstruction, efSearch < 1.
+	 */
+	public HnswIndex(int m, int efConstruction, int efSearch) {
+
+		if (m < 2 || efConstruction < 1 || efSearch < 1)
+			throw new IllegalArgumentException(
+					"HNSW are nevoie de m >= 2 si ef >= 1");
+		this.m = m;
+		this.efConstruction = efConstruction;
+		this.efSearch = efSearch;
+	}
+
+	/**
+	 * Acelasi graf, cu alt efSearch.
+	 */
+	private HnswIndex(HnswIndex graph, int efSearch) {
+
+		this(graph.m, graph.efConstruction, efSearch);
+		this.count = graph.count;
+		this.entry = graph.entry;
+		this.top = graph.top;
+		this.links = graph.links;
+	}
+
+	public int getM() {
+		return m;
+	}
+
+	public int getEfConstruction() {
+		return efConstruction;
+	}
+
+	public int getEfSearch() {
+		return efSearch;
+	}
+
+	/**
+	 * Acelasi index, cautat cu alt numar de candidati. Graful nu se schimba si
+	 * nu este copiat.
+	 */
+	public HnswIndex withEfSearch(int efSearch) {
+
+		if (efSearch < 1)
+			throw new IllegalArgumentException("efSearch trebuie sa fie >= 1");
+		return new HnswIndex(this, efSearch);
+	}
+
+	/**
+	 * Numarul de imagini din graf.
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Un index gol, cu aceiasi parametri.
+	 */
+	HnswIndex empty() {
+		return new HnswIndex(m, efConstruction, efSearch);
+	}
+
+	/**
+	 * Indexul cu randurile [size(), to) ale lui wk inserate, pe rand. Primele
+	 * size() randuri trebuie sa fie cele deja indexate.
+	 *
+	 * @param metric
+	 *            metrica legata de wk.
+	 * @return this daca nu este nimic de inserat, altfel un index nou.
+	 */
+	HnswIndex add(double[][] wk, DistanceMetric metric, int to) {
+
+		if (to == count)
+			return this;
+
+		HnswIndex next = new HnswIndex(this, efSearch);
+		next.links = new int[to][][];
+		System.arraycopy(links, 0, next.links, 0, count);
+		// nodurile ale caror liste au fost deja copiate pentru indexul nou
+		boolean[] owned = new boolean[to];
+		MatchBuffers buffers = new MatchBuffers();
+		buffers.marks(to);
+		for (int node = count; node < to; node++) {
+			owned[node] = true;
+			next.insert(wk, metric, node, owned, buffers);
+		}
+		return next;
+	}
+
+	/**
+	 * Imaginea cu cel mai mic scor dintre cele gasite; la scoruri egale, prima
+	 * imagine.
+	 *
+	 * @param q
+	 *            ponderile interogarii.
+	 * @param qdata
+	 *            {@link DistanceMetric#query} pentru q.
+	 * @param best
+	 *            iese cu scorul imaginii gasite in best[0].
+	 * @return pozitia imaginii in wk.
+	 */
+	int nearest(double[][] wk, DistanceMetric metric, double[] q,
+			double qdata, MatchBuffers buffers, double[] best) {
+
+		int n = wk[0].length;
+		int[] marks = buffers.marks(count);
+		int ep = entry;
+		double d = metric.metric(q, wk[ep], n);
+		for (int l = top; l > 0; l--) {
+			ep = greedy(wk, metric, q, ep, d, l);
+			d = metric.metric(q, wk[ep], n);
+		}
+		Heap found = search(wk, metric, q, new Heap(1, d, ep), efSearch, 0,
+				marks, buffers.mark());
+
+		double score = Double.POSITIVE_INFINITY;
+		int idx = 0;
+		for (int i = 0; i < found.size; i++) {
+			int image = found.id[i];
+			double s = metric.score(q, qdata, wk[image], image, n,
+					Double.POSITIVE_INFINITY);
+			if (s < score || (s == score && image < idx)) {
+				idx = image;
+				score = s;
+			}
+		}
+		best[0] = score;
+		return idx;
+	}
+
+	private void insert(double[][] wk, DistanceMetric metric, int node,
+			boolean[] owned, MatchBuffers buffers) {
+
+		int level = level(node);
+		int[][] own = new int[level + 1][];
+		for (int l = 0; l <= level; l++)
+			own[l] = new int[1 + capacity(l)];
+		links[node] = own;
+		count = node + 1;
+		if (entry < 0) {
+			entry = node;
+			top = level;
+			return;
+		}
+
+		int n = wk[0].length;
+		double[] v = wk[node];
+		int ep = entry;
+		double d = metric.metric(v, wk[ep], n);
+		for (int l = top; l > level; l--) {
+			ep = greedy(wk, metric, v, ep, d, l);
+			d = metric.metric(v, wk[ep], n);
+		}
+
+		int[] marks = buffers.marks(count);
+		Heap start = new Heap(1, d, ep);
+		for (int l = Math.min(top, level); l >= 0; l--) {
+			Heap found = search(wk, metric, v, start, efConstruction, l,
+					marks, buffers.mark()).sorted();
+			int[] chosen = select(wk, metric, found, m);
+			int[] list = own[l];
+			list[0] = chosen.length;
+			System.arraycopy(chosen, 0, list, 1, chosen.length);
+			for (int i = 0; i < chosen.length; i++)
+				connect(wk, metric, chosen[i], node, l, owned);
+			start = found;
+		}
+		if (level > top) {
+			top = level;
+			entry = node;
+		}
+	}
+
+	/**
+	 * Adauga node printre vecinii lui c; daca lista este plina, pastreaza
+	 * vecinii alesi dintre cei vechi si node.
+	 */
+	private void connect(double[][] wk, DistanceMetric metric, int c,
+			int node, int l, boolean[] owned) {
+
+		if (!owned[c]) {
+			int[][] copy = links[c].clone();
+			for (int i = 0; i < copy.length; i++)
+				copy[i] = copy[i].clone();
+			links[c] = copy;
+			owned[c] = true;
+		}
+		int[] list = links[c][l];
+		int size = list[0];
+		if (size < list.length - 1) {
+			list[++size] = node;
+			list[0] = size;
+			return;
+		}
+
+		int n = wk[0].length;
+		double[] base = wk[c];
+		Heap all = new Heap(size + 1);
+		for (int i = 1; i <= size; i++)
+			all.push(metric.metric(base, wk[list[i]], n), list[i]);
+		all.push(metric.metric(base, wk[node], n), node);
+		int[] chosen = select(wk, metric, all.sorted(), size);
+		list[0] = chosen.length;
+		System.arraycopy(chosen, 0, list, 1, chosen.length);
+	}
+
+	/**
+	 * Vecinii alesi dintre candidati (ordonati crescator dupa distanta pana la
+	 * nodul de baza): un candidat este pastrat doar daca e mai aproape de nod
+	 * decat de oricare vecin deja ales, ca legaturile sa mearga in directii
+	 * diferite.
+	 */
+	private static int[] select(double[][] wk, DistanceMetric metric,
+			Heap sorted, int max) {
+
+		int n = wk[0].length;
+		int[] kept = new int[Math.min(sorted.size, max)];
+		int k = 0;
+		for (int i = 0; i < sorted.size && k < kept.length; i++) {
+			int e = sorted.id[i];
+			double de = sorted.key[i];
+			boolean good = true;
+			for (int j = 0; j < k && good; j++)
+				good = metric.metric(wk[e], wk[kept[j]], n) >= de;
+			if (good)
+				kept[k++] = e;
+		}
+		if (k == kept.length)
+			return kept;
+		int[] less = new int[k];
+		System.arraycopy(kept, 0, less, 0, k);
+		return less;
+	}
+
+	/**
+	 * Coboara lacom pe nivelul l, de la ep spre nodul cel mai apropiat de q.
+	 */
+	private int greedy(double[][] wk, DistanceMetric metric, double[] q,
+			int ep, double d, int l) {
+
+		int n = wk[0].length;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			int[] list = links[ep][l];
+			for (int i = 1; i <= list[0]; i++) {
+				double de = metric.metric(q, wk[list[i]], n);
+				if (de < d) {
+					d = de;
+					ep = list[i];
+					changed = true;
+				}
+			}
+		}
+		return ep;
+	}
+
+	/**
+	 * Cele mai apropiate ef noduri de q de pe nivelul l, pornind de la nodurile
+	 * din start (cu distantele lor in key), intr-un heap cu cel mai departat
+	 * nod in varf.
+	 */
+	private Heap search(double[][] wk, DistanceMetric metric, double[] q,
+			Heap start, int ef, int l, int[] marks, int mark) {
+
+		int n = wk[0].length;
+		Heap found = new Heap(ef + 1);
+		Heap next = new Heap(ef + 1);
+		for (int i = 0; i < start.size; i++) {
+			int e = start.id[i];
+			marks[e] = mark;
+			found.push(start.key[i], e);
+			next.push(-start.key[i], e);
+			if (found.size > ef)
+				found.pop();
+		}
+
+		while (next.size > 0) {
+			double d = -next.key[0];
+			int c = next.pop();
+			if (found.size >= ef && d > found.key[0])
+				break;
+			int[] list = links[c][l];
+			for (int i = 1; i <= list[0]; i++) {
+				int e = list[i];
+				if (marks[e] == mark)
+					continue;
+				marks[e] = mark;
+				double de = metric.metric(q, wk[e], n);
+				if (found.size < ef || de < found.key[0]) {
+					next.push(-de, e);
+					found.push(de, e);
+					if (found.size > ef)
+						found.pop();
+				}
+			}
+		}
+		return found;
+	}
+
+	private int capacity(int l) {
+		return l == 0 ? 2 * m : m;
+	}
+
+	/**
+	 * Nivelul nodului, cu distributia geometrica de parametru 1/m. Este
+	 * calculat din pozitia nodului, asa ca acelasi wk da acelasi graf.
+	 */
+	private int level(int node) {
+
+		long z = (node + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		double u = ((z >>> 11) + 1) / (double) (1L << 53);
+		return Math.min(MAX_LEVEL, (int) (-Math.log(u) / Math.log(m)));
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+
+		out.defaultWriteObject();
+		out.writeInt(count);
+		out.writeInt(entry);
+		out.writeInt(top);
+		for (int i = 0; i < count; i++) {
+			int[][] own = links[i];
+			out.writeByte(own.length - 1);
+			for (int l = 0; l < own.length; l++) {
+				int[] list = own[l];
+				out.writeInt(list[0]);
+				for (int j = 1; j <= list[0]; j++)
+					out.writeInt(list[j]);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+
+		in.defaultReadObject();
+		count = in.readInt();
+		entry = in.readInt();
+		top = in.readInt();
+		links = new int[count][][];
+		for (int i = 0; i < count; i++) {
+			int[][] own = new int[in.readByte() + 1][];
+			for (int l = 0; l < own.length; l++) {
+				int size = in.readInt();
+				if (size < 0 || size > capacity(l))
+					throw new InvalidObjectException("Lista de vecini a nodului "
+							+ i + " are " + size + " noduri");
+				int[] list = new int[1 + capacity(l)];
+				list[0] = size;
+				for (int j = 1; j <= size; j++)
+					list[j] = in.readInt();
+				own[l] = list;
+			}
+			links[i] = own;
+		}
+	}
+
+	/**
+	 * Un heap binar cu cheia cea mai mare in varf (cel mai departat nod); ca
+	 * cel mai apropiat nod sa fie in varf se pun distantele negate.
+	 */
+	private static final class Heap {
+
+		double[] key;
+		int[] id;
+		int size;
+
+		Heap(int capacity) {
+			key = new double[Math.max(capacity, 1)];
+			id = new int[key.length];
+		}
+
+		// un singur nod, cu distanta d
+		Heap(int capacity, double d, int e) {
+			this(capacity);
+			push(d, e);
+		}
+
+		void push(double k, int e) {
+
+			if (size == key.length) {
+				double[] mk = new double[2 * size];
+				int[] mi = new int[2 * size];
+				System.arraycopy(key, 0, mk, 0, size);
+				System.arraycopy(id, 0, mi, 0, size);
+				key = mk;
+				id = mi;
+			}
+			int i = size++;
+			while (i > 0) {
+				int p = (i - 1) >>> 1;
+				if (key[p] >= k)
+					break;
+				key[i] = key[p];
+				id[i] = id[p];
+				i = p;
+			}
+			key[i] = k;
+			id[i] = e;
+		}
+
+		int pop() {
+
+			int top = id[0];
+			double k = key[--size];
+			int e = id[size];
+			int i = 0;
+			while (true) {
+				int c = 2 * i + 1;
+				if (c >= size)
+					break;
+				if (c + 1 < size && key[c + 1] > key[c])
+					c++;
+				if (key[c] <= k)
+					break;
+				key[i] = key[c];
+				id[i] = id[c];
+				i = c;
+			}
+			key[i] = k;
+			id[i] = e;
+			return top;
+		}
+
+		/**
+		 * Nodurile, de la cel mai apropiat la cel mai departat (nu mai este un
+		 * heap); acesta ramane gol.
+		 */
+		Heap sorted() {
+
+			Heap s = new Heap(size);
+			s.size = size;
+			for (int i = size - 1; i >= 0; i--) {
+				s.key[i] = key[0];
+				s.id[i] = pop();
+			}
+			return s;
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Modelul PCA din spatele unui {@link FaceBundle} care poate fi actualizat
+ * fara reantrenare.
+ *
+ * Vectorii folositi la potrivire (eigenfaces normalizate |u / max(u)|) nu mai
+ * pastreaza semnul, asa ca un spatiu actualizabil tine in plus baza
+ * ortonormata U (k x N^2), valorile proprii ale matricii de imprastiere,
+ * numarul de imagini si coordonatele fiecarei imagini in baza (c_i = U (a_i -
+ * medie)). Actualizarea urmeaza Ross, Lim, Lin, Yang, "Incremental Learning
+ * for Robust Visual Tracking" (2008): noile imagini (plus un rand care
+ * corecteaza deplasarea mediei) sunt proiectate pe U, reziduul este
+ * ortonormalizat, iar o problema proprie mica (k + r) x (k + r) roteste baza.
+ * Costul este O((k + r) * m * N^2) pentru m imagini noi, nu O(M^2 * N^2).
+ *
+ * Un model antrenat cu toate componentele (k = M, ca in
+ * {@link EigenFaceComputation#submit}) isi mareste baza cu fiecare imagine
+ * noua, asa ca rezultatul este acelasi cu al unei reantrenari (pana la
+ * rotunjiri). Un model cu k < M ramane la k componente; atunci valorile
+ * proprii si wk difera de cele ale reantrenarii prin energia componentelor
+ * aruncate.
+ *
+ * Dupa fiecare {@link #REORTHOGONALIZE} actualizari baza este
+ * reortonormalizata, ca eroarea de rotunjire sa nu se acumuleze.
+ *
+ * <p>Eliminarea imaginilor ({@link #remove}) lucreaza numai cu coordonatele:
+ * modelul ramane PCA-ul exact al aproximarilor p_i = medie + U^T c_i.
+ * Diferenta fata de imaginile reale, R (randurile a_i - p_i), are norma
+ * Frobenius cel mult {@link #drift}, suma radacinilor energiei aruncate la
+ * fiecare trunchiere (antrenare, adaugare, eliminare); eliminarea randurilor
+ * nu o poate mari. De aici (Weyl) fiecare valoare proprie a modelului difera
+ * de cea a unei reantrenari pe aceleasi imagini cu cel mult
+ * {@link #eigenvalueBound()} = 2 sqrt(lambda_1) drift + drift^2, iar media cu
+ * cel mult drift / sqrt(n). Un model cu toate componentele are drift 0.
+ */
+class IncrementalPca implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Numarul de actualizari dupa care baza este reortonormalizata. */
+	static final int REORTHOGONALIZE = 16;
+
+	final double[] mean;
+	final double[][] basis;
+	final double[] values;
+	final double[][] coeff;
+	final int updates;
+	/** Numarul maxim de componente pastrate. */
+	final int rank;
+	/** Margine pentru norma Frobenius a lui R, vezi mai sus. */
+	final double drift;
+
+	IncrementalPca(double[] mean, double[][] basis, double[] values,
+			double[][] coeff, int updates, int rank, double drift) {
+
+		this.rank = rank;
+		this.drift = drift;
+		this.mean = mean;
+		this.basis = basis;
+		this.values = values;
+		this.coeff = coeff;
+		this.updates = updates;
+	}
+
+	/**
+	 * Modelul unei antrenari obisnuite.
+	 *
+	 * @param mean
+	 *            fata medie.
+	 * @param eigenFaces
+	 *            eigenfaces nenormalizate v_j^T A (k x N^2); nu sunt
+	 *            modificate.
+	 * @param values
+	 *            valorile proprii ale matricii de covarianta.
+	 * @param vectors
+	 *            vectorii proprii ai matricii de covarianta (k x M).
+	 * @param rank
+	 *            numarul maxim de componente pastrate la actualizari.
+	 * @param trace
+	 *            urma matricii de covarianta (suma tuturor valorilor proprii).
+	 */
+	static IncrementalPca fromTraining(double[] mean, double[][] eigenFaces,
+			double[] values, double[][] vectors, int rank, double trace) {
+
+		int k = eigenFaces.length;
+		int m = vectors[0].length;
+		double[][] basis = new double[k][];
+		double[][] coeff = new double[m][k];
+
+		/*
+		 * ||v_j^T A|| = sqrt(lambda_j), deci u_j = v_j^T A / sqrt(lambda_j) si
+		 * c_i[j] = u_j . a_i = sqrt(lambda_j) * v_j[i].
+		 */
+		for (int j = 0; j < k; j++) {
+			double s = Math.sqrt(Math.max(values[j], 0.0));
+			basis[j] = eigenFaces[j].clone();
+			if (s > 0.0)
+				for (int p = 0; p < basis[j].length; p++)
+					basis[j][p] /= s;
+			for (int i = 0; i < m; i++)
+				coeff[i][j] = s * vectors[j][i];
+		}
+		// componentele cu valoare proprie nula nu au directie; le completam
+		TopEigenSolver.orthonormalize(basis);
+
+		double kept = 0.0;
+		for (int j = 0; j < k; j++)
+			kept += values[j];
+		return new IncrementalPca(mean, basis, values.clone(), coeff, 0, rank,
+				Math.sqrt(Math.max(trace - kept, 0.0)));
+	}
+
+	/**
+	 * Adauga imaginile date la model.
+	 *
+	 * @param faces
+	 *            imaginile noi (m x N^2), nemodificate.
+	 * @return modelul actualizat; acesta nu este modificat.
+	 */
+	IncrementalPca add(double[][] faces) {
+
+		int n = coeff.length;
+		int m = faces.length;
+		int k = basis.length;
+		int length = mean.length;
+		int nn = n + m;
+		int i, j, c, p;
+
+		/* D = [b_i - medie(B); s * (medie(B) - medie)], s = sqrt(n m / (n + m)) */
+		double[] meanB = new double[length];
+		for (i = 0; i < m; i++)
+			for (p = 0; p < length; p++)
+				meanB[p] += faces[i][p];
+		for (p = 0; p < length; p++)
+			meanB[p] /= m;
+
+		double s = Math.sqrt((double) n * m / nn);
+		double[][] d = new double[m + 1][length];
+		for (i = 0; i < m; i++)
+			for (p = 0; p < length; p++)
+				d[i][p] = faces[i][p] - meanB[p];
+		for (p = 0; p < length; p++)
+			d[m][p] = s * (meanB[p] - mean[p]);
+
+		/* P = D U^T, R = D - P U */
+		double[][] proj = new double[m + 1][k];
+		double[][] res = new double[m + 1][];
+		for (i = 0; i <= m; i++) {
+			res[i] = d[i].clone();
+			for (j = 0; j < k; j++) {
+				proj[i][j] = TopEigenSolver.dot(basis[j], d[i]);
+				for (p = 0; p < length; p++)
+					res[i][p] -= proj[i][j] * basis[j][p];
+			}
+		}
+
+		/* Q = orth(R), pastrand doar directiile care nu sunt zgomot */
+		double[][] q = residualBasis(res, basis);
+		int r = q.length;
+		int w = k + r;
+
+		/* Y = [P, R Q^T] - coordonatele lui D in baza [U; Q] */
+		double[][] y = new double[m + 1][w];
+		for (i = 0; i <= m; i++) {
+			System.arraycopy(proj[i], 0, y[i], 0, k);
+			for (c = 0; c < r; c++)
+				y[i][k + c] = TopEigenSolver.dot(q[c], res[i]);
+		}
+
+		/* K = diag(lambda, 0) + Y^T Y */
+		double[][] kk = new double[w][w];
+		for (j = 0; j < k; j++)
+			kk[j][j] = values[j];
+		for (i = 0; i <= m; i++)
+			for (j = 0; j < w; j++)
+				for (c = j; c < w; c++)
+					kk[j][c] += y[i][j] * y[i][c];
+		for (j = 0; j < w; j++)
+			for (c = 0; c < j; c++)
+				kk[j][c] = kk[c][j];
+
+		int nk = Math.min(rank, w);
+		double[][] x = new double[w][nk]; // coloanele: primii nk vectori proprii
+		double[] nvalues = new double[nk];
+		double tail = topEigen(kk, nk, nvalues, x);
+
+		/* U' = X^T [U; Q] */
+		double[][] nbasis = new double[nk][length];
+		for (j = 0; j < nk; j++) {
+			for (c = 0; c < k; c++) {
+				double f = x[c][j];
+				for (p = 0; p < length; p++)
+					nbasis[j][p] += f * basis[c][p];
+			}
+			for (c = 0; c < r; c++) {
+				double f = x[k + c][j];
+				for (p = 0; p < length; p++)
+					nbasis[j][p] += f * q[c][p];
+			}
+		}
+
+		/*
+		 * Coordonatele in noua baza. Pentru imaginile vechi: c' = X^T [c; 0] -
+		 * (m / (n' s)) X^T y_m. Pentru cele noi: c' = X^T y_i + (n / (n' s)) X^T
+		 * y_m.
+		 */
+		double[] shift = new double[nk];
+		for (j = 0; j < nk; j++)
+			for (c = 0; c < w; c++)
+				shift[j] += x[c][j] * y[m][c];
+
+		double[][] ncoeff = new double[nn][nk];
+		for (i = 0; i < n; i++)
+			for (j = 0; j < nk; j++) {
+				double t = 0.0;
+				for (c = 0; c < k; c++)
+					t += x[c][j] * coeff[i][c];
+				ncoeff[i][j] = t - (s > 0.0 ? m / (nn * s) : 0.0) * shift[j];
+			}
+		for (i = 0; i < m; i++)
+			for (j = 0; j < nk; j++) {
+				double t = 0.0;
+				for (c = 0; c < w; c++)
+					t += x[c][j] * y[i][c];
+				ncoeff[n + i][j] = t
+						+ (s > 0.0 ? (double) n / (nn * s) : 0.0) * shift[j];
+			}
+
+		double[] nmean = new double[length];
+		for (p = 0; p < length; p++)
+			nmean[p] = (n * mean[p] + m * meanB[p]) / nn;
+
+		int nupdates = updates + 1;
+		if (nupdates % REORTHOGONALIZE == 0)
+			reorthogonalize(nbasis, ncoeff);
+
+		return new IncrementalPca(nmean, nbasis, nvalues, ncoeff, nupdates,
+				rank, drift + Math.sqrt(tail));
+	}
+
+	/**
+	 * Elimina imaginile date din model, fara sa le citeasca: media, baza si
+	 * coordonatele se recalculeaza din coordonatele imaginilor ramase, in
+	 * O(n k^2 + k^2 N^2).
+	 *
+	 * @param removed
+	 *            removed[i] este adevarat pentru imaginile eliminate; trebuie
+	 *            sa ramana cel putin una.
+	 * @return modelul actualizat; acesta nu este modificat.
+	 */
+	IncrementalPca remove(boolean[] removed) {
+
+		int k = basis.length;
+		int length = mean.length;
+		int n = 0;
+		int i, j, c, p;
+
+		for (i = 0; i < coeff.length; i++)
+			if (!removed[i])
+				n++;
+
+		double[][] kept = new double[n][];
+		double[] center = new double[k];
+		for (i = 0, j = 0; i < coeff.length; i++)
+			if (!removed[i]) {
+				kept[j++] = coeff[i];
+				for (c = 0; c < k; c++)
+					center[c] += coeff[i][c];
+			}
+		for (c = 0; c < k; c++)
+			center[c] /= n;
+
+		/* K = suma (c_i - media)(c_i - media)^T peste imaginile ramase */
+		double[][] kk = new double[k][k];
+		double[] t = new double[k];
+		for (i = 0; i < n; i++) {
+			for (c = 0; c < k; c++)
+				t[c] = kept[i][c] - center[c];
+			for (j = 0; j < k; j++)
+				for (c = j; c < k; c++)
+					kk[j][c] += t[j] * t[c];
+		}
+		for (j = 0; j < k; j++)
+			for (c = 0; c < j; c++)
+				kk[j][c] = kk[c][j];
+
+		int nk = Math.min(k, n);
+		double[][] x = new double[k][nk];
+		double[] nvalues = new double[nk];
+		double tail = topEigen(kk, nk, nvalues, x);
+
+		/* U' = X^T U, medie' = medie + U^T media(c) */
+		double[][] nbasis = new double[nk][length];
+		for (j = 0; j < nk; j++)
+			for (c = 0; c < k; c++) {
+				double f = x[c][j];
+				for (p = 0; p < length; p++)
+					nbasis[j][p] += f * basis[c][p];
+			}
+		double[] nmean = mean.clone();
+		for (c = 0; c < k; c++)
+			for (p = 0; p < length; p++)
+				nmean[p] += center[c] * basis[c][p];
+
+		double[][] ncoeff = new double[n][nk];
+		for (i = 0; i < n; i++)
+			for (j = 0; j < nk; j++) {
+				double v = 0.0;
+				for (c = 0; c < k; c++)
+					v += x[c][j] * (kept[i][c] - center[c]);
+				ncoeff[i][j] = v;
+			}
+
+		int nupdates = updates + 1;
+		if (nupdates % REORTHOGONALIZE == 0)
+			reorthogonalize(nbasis, ncoeff);
+
+		return new IncrementalPca(nmean, nbasis, nvalues, ncoeff, nupdates,
+				rank, drift + Math.sqrt(tail));
+	}
+
+	/**
+	 * Cat poate diferi o valoare proprie a modelului de cea a unei
+	 * reantrenari pe aceleasi imagini: 2 sqrt(lambda_1) drift + drift^2.
+	 */
+	double eigenvalueBound() {
+		double l1 = values.length > 0 ? values[0] : 0.0;
+		return 2.0 * Math.sqrt(l1) * drift + drift * drift;
+	}
+
+	/**
+	 * Eigenfaces folosite la potrivire: |u_j / max(u_j)|, rand dupa rand.
+	 */
+	double[] matchingVectors() {
+
+		int k = basis.length;
+		int length = mean.length;
+		double[] e = new double[k * length];
+		for (int j = 0; j < k; j++) {
+			double max = EigenFaceComputation.max(basis[j]);
+			for (int p = 0; p < length; p++)
+				e[j * length + p] = Math.abs(basis[j][p] / max);
+		}
+		return e;
+	}
+
+	/**
+	 * Tabelul wk reconstruit din coordonate: wk[i][j] = |e_j . U^T c_i|.
+	 * Este exact cand imaginile sunt in spatiul generat de baza.
+	 *
+	 * @param e
+	 *            vectorii de potrivire, vezi {@link #matchingVectors()}.
+	 */
+	double[][] weights(double[] e) {
+
+		int k = basis.length;
+		int length = mean.length;
+		double[][] g = new double[k][k];
+		for (int j = 0; j < k; j++)
+			for (int l = 0; l < k; l++) {
+				double t = 0.0;
+				int off = j * length;
+				for (int p = 0; p < length; p++)
+					t += e[off + p] * basis[l][p];
+				g[j][l] = t;
+			}
+
+		double[][] wk = new double[coeff.length][k];
+		for (int i = 0; i < coeff.length; i++)
+			for (int j = 0; j < k; j++) {
+				double t = 0.0;
+				for (int l = 0; l < k; l++)
+					t += g[j][l] * coeff[i][l];
+				wk[i][j] = Math.abs(t);
+			}
+		return wk;
+	}
+
+	/**
+	 * Ortonormalizeaza reziduurile fata de baza. Un rand al carui reziduu e
+	 * neglijabil fata de norma randului lui D nu aduce o directie noua.
+	 */
+	private static double[][] residualBasis(double[][] res, double[][] basis) {
+
+		double[][] q = new double[res.length][];
+		int r = 0;
+		for (int i = 0; i < res.length; i++) {
+			double[] v = res[i].clone();
+			double n0 = Math.sqrt(TopEigenSolver.dot(v, v));
+			if (n0 == 0.0)
+				continue;
+			for (int pass = 0; pass < 2; pass++) {
+				for (int j = 0; j < basis.length; j++)
+					axpy(-TopEigenSolver.dot(basis[j], v), basis[j], v);
+				for (int j = 0; j < r; j++)
+					axpy(-TopEigenSolver.dot(q[j], v), q[j], v);
+			}
+			double n = Math.sqrt(TopEigenSolver.dot(v, v));
+			if (n <= 1e-10 * n0)
+				continue;
+			for (int p = 0; p < v.length; p++)
+				v[p] /= n;
+			q[r++] = v;
+		}
+		double[][] out = new double[r][];
+		System.arraycopy(q, 0, out, 0, r);
+		return out;
+	}
+
+	/**
+	 * Primii k vectori proprii ai matricii simetrice mici kk (coloane in x).
+	 *
+	 * @return suma valorilor proprii (pozitive) aruncate.
+	 */
+	private static double topEigen(double[][] kk, int k, double[] values,
+			double[][] x) {
+
+		int w = kk.length;
+		EigenvalueDecomposition e = new Matrix(kk, w, w).eig();
+		double[] d = EigenFaceComputation.diag(e.getD().getArray());
+		double[][] v = e.getV().getArray();
+		boolean[] used = new boolean[w];
+		for (int j = 0; j < k; j++) {
+			int best = -1;
+			for (int c = 0; c < w; c++)
+				if (!used[c] && (best < 0 || d[c] > d[best]))
+					best = c;
+			used[best] = true;
+			values[j] = Math.max(d[best], 0.0);
+			for (int c = 0; c < w; c++)
+				x[c][j] = v[c][best];
+		}
+		double tail = 0.0;
+		for (int c = 0; c < w; c++)
+			if (!used[c])
+				tail += Math.max(d[c], 0.0);
+		return tail;
+	}
+
+	/**
+	 * Gram-Schmidt pe baza; coordonatele sunt reproiectate pe baza corectata
+	 * (c' = U' U^T c), care difera de cea veche doar prin rotunjiri.
+	 */
+	private static void reorthogonalize(double[][] basis, double[][] coeff) {
+
+		int k = basis.length;
+		double[][] old = new double[k][];
+		for (int j = 0; j < k; j++)
+			old[j] = basis[j].clone();
+		TopEigenSolver.orthonormalize(basis);
+
+		double[][] t = new double[k][k];
+		for (int j = 0; j < k; j++)
+			for (int l = 0; l < k; l++)
+				t[j][l] = TopEigenSolver.dot(basis[j], old[l]);
+		double[] c = new double[k];
+		for (int i = 0; i < coeff.length; i++) {
+			for (int j = 0; j < k; j++) {
+				c[j] = 0.0;
+				for (int l = 0; l < k; l++)
+					c[j] += t[j][l] * coeff[i][l];
+			}
+			System.arraycopy(c, 0, coeff[i], 0, k);
+		}
+	}
+
+	private static void axpy(double a, double[] x, double[] y) {
+		for (int p = 0; p < y.length; p++)
+			y[p] += a * x[p];
+	}
+}
@@ -0,0 +1,256 @@
+package com.licence.eigenface;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Spatiu al fetei citit dintr-un fisier mapat in memorie (vezi
+ * {@link BundleFile}): fata medie si vectorii proprii, intretesuti ca in
+ * {@link DoubleEigenSpace}, sunt folositi direct din fisier, in float sau in
+ * double, fara sa fie copiati intr-un tablou al intregului spatiu.
+ * Incarcarea nu citeste vectorii proprii; paginile lor sunt aduse de sistem
+ * la prima proiectie.
+ *
+ * Serializat, devine un {@link DoubleEigenSpace} sau un
+ * {@link FloatEigenSpace} cu aceleasi valori.
+ */
+final class MappedEigenSpace implements EigenSpace {
+
+	private static final long serialVersionUID = 1L;
+
+	// exact unul dintre ele, dupa precizie
+	private final FloatBuffer floatMean, floatVector;
+	private final DoubleBuffer doubleMean, doubleVector;
+	private final double[] projectedMean;
+	private final int length;
+	private final int components;
+
+	/**
+	 * @param mean
+	 *            fata medie, little-endian.
+	 * @param eig
+	 *            vectorii proprii intretesuti, little-endian.
+	 * @param size
+	 *            4 pentru float, 8 pentru double.
+	 * @param projectedMean
+	 *            proiectiile fetei medii pe vectorii proprii.
+	 */
+	MappedEigenSpace(ByteBuffer mean, ByteBuffer eig, int size,
+			double[] projectedMean, int length, int components) {
+
+		if (size == 4) {
+			floatMean = mean.asFloatBuffer();
+			floatVector = eig.asFloatBuffer();
+			doubleMean = doubleVector = null;
+		} else {
+			doubleMean = mean.asDoubleBuffer();
+			doubleVector = eig.asDoubleBuffer();
+			floatMean = floatVector = null;
+		}
+		this.projectedMean = projectedMean;
+		this.length = length;
+		this.components = components;
+	}
+
+	/** Marimea unei valori: 4 pentru float, 8 pentru double. */
+	int size() {
+		return floatVector != null ? 4 : 8;
+	}
+
+	public int components() {
+		return components;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public double get(int j, int p) {
+		return floatVector != null ? floatVector.get(p * components + j)
+				: doubleVector.get(p * components + j);
+	}
+
+	public double mean(int p) {
+		return floatMean != null ? floatMean.get(p) : doubleMean.get(p);
+	}
+
+	public double projectedMean(int j) {
+		return projectedMean[j];
+	}
+
+	/**
+	 * Foloseste felia tablourilor firului curent, vezi
+	 * {@link #accumulate(double[], int, int, double[], int, int, MatchBuffers)}.
+	 */
+	public void project(double[] face, double[] out, int count) {
+
+		MatchBuffers buffers = MatchBuffers.local();
+		Arrays.fill(out, 0, count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += DoubleEigenSpace.TILE)
+			accumulate(face, p0, Math.min(p0 + DoubleEigenSpace.TILE, length),
+					out, 0, count, buffers);
+		for (int j = 0; j < count; j++)
+			out[j] -= projectedMean[j];
+	}
+
+	public void project(double[][] faces, int nfaces, double[] out,
+			int count) {
+		project(faces, 0, nfaces, out, count);
+	}
+
+	public void project(double[][] faces, int f0, int nfaces, double[] out,
+			int count) {
+
+		MatchBuffers buffers = MatchBuffers.local();
+		Arrays.fill(out, 0, nfaces * count, 0.0);
+		for (int p0 = 0; p0 < length; p0 += DoubleEigenSpace.TILE)
+			accumulate(faces, f0, nfaces, p0, Math.min(p0 + DoubleEigenSpace.TILE,
+					length), out, 0, count, count, buffers);
+		for (int f = 0, o = 0; f < nfaces; f++, o += count)
+			for (int j = 0; j < count; j++)
+				out[o + j] -= projectedMean[j];
+	}
+
+	public void accumulate(double[] face, int p0, int p1, double[] out,
+			int o, int count, MatchBuffers buffers) {
+
+		if (floatVector != null)
+			accumulate(floatSlice(p0, p1, buffers), components, face, p0, p1,
+					out, o, count);
+		else
+			accumulate(doubleSlice(p0, p1, buffers), components, face, p0, p1,
+					out, o, count);
+	}
+
+	/**
+	 * Felia pixelilor [p0, p1) este copiata din buffer o singura data, in
+	 * tabloul de lucru al lui buffers, si folosita pentru toate imaginile; sumele
+	 * se fac pe tablou, ca in {@link DoubleEigenSpace}, nu pe buffer.
+	 */
+	public void accumulate(double[][] faces, int f0, int nfaces, int p0,
+			int p1, double[] out, int o, int stride, int count,
+			MatchBuffers buffers) {
+
+		if (floatVector != null) {
+			float[] t = floatSlice(p0, p1, buffers);
+			for (int f = 0; f < nfaces; f++)
+				accumulate(t, components, faces[f0 + f], p0, p1, out, o + f
+						* stride, count);
+		} else {
+			double[] t = doubleSlice(p0, p1, buffers);
+			for (int f = 0; f < nfaces; f++)
+				accumulate(t, components, faces[f0 + f], p0, p1, out, o + f
+						* stride, count);
+		}
+	}
+
+	/**
+	 * Valorile vectorilor proprii in pixelii [p0, p1), la inceputul feliei
+	 * din buffers, citite dintr-o data. Citirea se face printr-o vedere
+	 * proprie a bufferului ({@link FloatBuffer#duplicate}), cu pozitia ei,
+	 * asa ca bufferul poate fi folosit de mai multe fire deodata.
+	 */
+	private float[] floatSlice(int p0, int p1, MatchBuffers buffers) {
+
+		int n = (p1 - p0) * components;
+		float[] t = buffers.floatTile(n);
+		FloatBuffer view = floatVector.duplicate();
+		view.position(p0 * components);
+		view.get(t, 0, n);
+		return t;
+	}
+
+	private double[] doubleSlice(int p0, int p1, MatchBuffers buffers) {
+
+		int n = (p1 - p0) * components;
+		double[] t = buffers.tile(n);
+		DoubleBuffer view = doubleVector.duplicate();
+		view.position(p0 * components);
+		view.get(t, 0, n);
+		return t;
+	}
+
+	/**
+	 * Ca {@link DoubleEigenSpace#accumulate}, cu felia pixelilor [p0, p1)
+	 * copiata la inceputul lui t.
+	 */
+	private static void accumulate(float[] t, int k, double[] face, int p0,
+			int p1, double[] out, int o, int count) {
+
+		int j = 0;
+		for (; j + 3 < count; j += 4) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int pix = p0, e = j; pix < p1; pix++, e += k) {
+				double x = face[pix];
+				s0 += t[e] * x;
+				s1 += t[e + 1] * x;
+				s2 += t[e + 2] * x;
+				s3 += t[e + 3] * x;
+			}
+			out[o + j] += s0;
+			out[o + j + 1] += s1;
+			out[o + j + 2] += s2;
+			out[o + j + 3] += s3;
+		}
+		for (; j < count; j++) {
+			double s = 0;
+			for (int pix = p0, e = j; pix < p1; pix++, e += k)
+				s += t[e] * face[pix];
+			out[o + j] += s;
+		}
+	}
+
+	private static void accumulate(double[] t, int k, double[] face, int p0,
+			int p1, double[] out, int o, int count) {
+
+		int j = 0;
+		for (; j + 3 < count; j += 4) {
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int pix = p0, e = j; pix < p1; pix++, e += k) {
+				double x = face[pix];
+				s0 += t[e] * x;
+				s1 += t[e + 1] * x;
+				s2 += t[e + 2] * x;
+				s3 += t[e + 3] * x;
+			}
+			out[o + j] += s0;
+			out[o + j + 1] += s1;
+			out[o + j + 2] += s2;
+			out[o + j + 3] += s3;
+		}
+		for (; j < count; j++) {
+			double s = 0;
+			for (int pix = p0, e = j; pix < p1; pix++, e += k)
+				s += t[e] * face[pix];
+			out[o + j] += s;
+		}
+	}
+
+	/**
+	 * Bufferele nu pot fi serializate: se serializeaza o copie in tablouri.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+
+		if (floatVector != null) {
+			float[] avg = new float[length];
+			float[] eig = new float[components * length];
+			for (int p = 0; p < length; p++) {
+				avg[p] = floatMean.get(p);
+				for (int j = 0; j < components; j++)
+					eig[j * length + p] = floatVector.get(p * components + j);
+			}
+			return new FloatEigenSpace(avg, eig);
+		}
+		double[] avg = new double[length];
+		double[] eig = new double[components * length];
+		for (int p = 0; p < length; p++) {
+			avg[p] = doubleMean.get(p);
+			for (int j = 0; j < components; j++)
+				eig[j * length + p] = doubleVector.get(p * components + j);
+		}
+		return new DoubleEigenSpace(avg, eig, components);
+	}
+}
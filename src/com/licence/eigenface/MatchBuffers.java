@@ -0,0 +1,180 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+
+/**
+ * Tablourile de lucru ale unei potriviri: pixelii imaginii (int si double),
+ * proiectia ei si distantele pe componente ale imaginii gasite. Se aloca o singura data si cresc
+ * doar daca o imagine sau un spatiu al fetei are nevoie de mai mult loc, asa
+ * ca potrivirile repetate (ie: fiecare cadru al camerei) nu aloca nimic.
+ *
+ * Un obiect nu trebuie folosit de mai multe fire in acelasi timp. Apelurile
+ * fara MatchBuffers folosesc obiectul firului curent, vezi {@link #local()}.
+ */
+public final class MatchBuffers {
+
+	private static final ThreadLocal<MatchBuffers> LOCAL = new ThreadLocal<MatchBuffers>() {
+		protected MatchBuffers initialValue() {
+			return new MatchBuffers();
+		}
+	};
+
+	private int[] pixels = new int[0];
+	private double[] face = new double[0];
+	private double[] projection = new double[0];
+	private double[] minDistance = new double[0];
+	private double[] batch = new double[0];
+	private double[] scores = new double[0];
+	private double[] scratch = new double[0];
+	private int[][] shortlists = { new int[0], new int[0] };
+	private double[] tile = new double[0];
+	private float[] floatTile = new float[0];
+	private double[][] faces = new double[0][];
+	private int[] marks = new int[0];
+	private int mark = 0;
+
+	public MatchBuffers() {
+	}
+
+	/**
+	 * Tablourile firului curent.
+	 */
+	public static MatchBuffers local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Pixelii ARGB ai imaginii, cel putin n valori.
+	 */
+	int[] pixels(int n) {
+		if (pixels.length < n)
+			pixels = new int[n];
+		return pixels;
+	}
+
+	/**
+	 * Imaginea ca vector double, cel putin n valori.
+	 */
+	public double[] face(int n) {
+		if (face.length < n)
+			face = new double[n];
+		return face;
+	}
+
+	/**
+	 * Proiectia imaginii, cel putin n valori.
+	 */
+	double[] projection(int n) {
+		if (projection.length < n)
+			projection = new double[n];
+		return projection;
+	}
+
+	/**
+	 * Distanta pe componente fata de cea mai apropiata imagine, cel putin n
+	 * valori.
+	 */
+	double[] minDistance(int n) {
+		if (minDistance.length < n)
+			minDistance = new double[n];
+		return minDistance;
+	}
+
+	/**
+	 * Proiectiile unui lot de imagini, cel putin n valori.
+	 */
+	double[] batch(int n) {
+		if (batch.length < n)
+			batch = new double[n];
+		return batch;
+	}
+
+	/**
+	 * Scorurile unei etape a cautarii in cascada, cel putin n valori.
+	 */
+	double[] scores(int n) {
+		if (scores.length < n)
+			scores = new double[n];
+		return scores;
+	}
+
+	/**
+	 * Tablou de lucru al cautarii in cascada, cel putin n valori.
+	 */
+	double[] scratch(int n) {
+		if (scratch.length < n)
+			scratch = new double[n];
+		return scratch;
+	}
+
+	/**
+	 * Imaginile pastrate de etapa stage a cautarii in cascada, cel putin n
+	 * valori. Etapele pare si impare au tablouri diferite, asa ca o etapa
+	 * poate citi lista etapei dinainte in timp ce o scrie pe a ei.
+	 */
+	int[] shortlist(int stage, int n) {
+		int i = stage & 1;
+		if (shortlists[i].length < n)
+			shortlists[i] = new int[n];
+		return shortlists[i];
+	}
+
+	/**
+	 * O felie a vectorilor proprii unui spatiu mapat (vezi
+	 * {@link MappedEigenSpace}), cel putin n valori.
+	 */
+	double[] tile(int n) {
+		if (tile.length < n)
+			tile = new double[n];
+		return tile;
+	}
+
+	/**
+	 * {@link #tile(int)} pentru spatiile mapate in simpla precizie.
+	 */
+	float[] floatTile(int n) {
+		if (floatTile.length < n)
+			floatTile = new float[n];
+		return floatTile;
+	}
+
+	/**
+	 * Marcajele nodurilor vizitate de o cautare in graf (vezi
+	 * {@link HnswIndex}), cel putin n valori: un nod este vizitat daca are
+	 * marcajul dat de {@link #mark()}, asa ca tabloul nu trebuie golit intre
+	 * cautari.
+	 */
+	int[] marks(int n) {
+		if (marks.length < n) {
+			marks = new int[n];
+			mark = 0;
+		}
+		return marks;
+	}
+
+	/**
+	 * Un marcaj nou, nefolosit inca in {@link #marks(int)}.
+	 */
+	int mark() {
+		if (++mark == 0) {
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+		return mark;
+	}
+
+	/**
+	 * Un lot de cel putin count imagini, fiecare de cel putin n valori.
+	 */
+	public double[][] faces(int count, int n) {
+		if (faces.length < count) {
+			double[][] more = new double[count][];
+			System.arraycopy(faces, 0, more, 0, faces.length);
+			faces = more;
+		}
+		for (int f = 0; f < count; f++)
+			if (faces[f] == null || faces[f].length < n)
+				faces[f] = new double[n];
+		return faces;
+	}
+}
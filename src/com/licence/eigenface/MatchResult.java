@@ -0,0 +1,54 @@
+package com.licence.eigenface;
+
+/**
+ * Rezultatul unei potriviri: imaginea cea mai apropiata din spatiul fetei,
+ * pozitia ei si distanta normalizata fata de ea (vezi
+ * {@link FaceBundle#match(double[])}). Obiectul nu se modifica, asa ca poate
+ * fi dat altor fire.
+ */
+public final class MatchResult implements Comparable<MatchResult> {
+
+	private final String identity;
+	private final double distance;
+	private final int index;
+
+	public MatchResult(String identity, double distance, int index) {
+
+		this.identity = identity;
+		this.distance = distance;
+		this.index = index;
+	}
+
+	/**
+	 * Numele imaginii gasite (ie: numele fisierului).
+	 */
+	public String getIdentity() {
+		return identity;
+	}
+
+	/**
+	 * Distanta fata de imaginea gasita, >= 0. Cu cat este mai mica, cu atat
+	 * potrivirea este mai buna.
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Pozitia imaginii gasite in {@link FaceBundle#getNames()}.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Rezultatele se ordoneaza dupa distanta, crescator.
+	 */
+	public int compareTo(MatchResult o) {
+		return Double.compare(distance, o.distance);
+	}
+
+	public String toString() {
+		return "[" + identity + "] with " + distance;
+	}
+}
@@ -0,0 +1,187 @@
+package com.licence.eigenface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Imparte buclele mari ale antrenarii (fata medie, diferenta, proiectiile) in
+ * blocuri si le executa pe mai multe fire.
+ *
+ * Fiecare apel imparte intervalul [0, n) in blocuri contigue de cel putin
+ * grain elemente, le trimite unui bazin fix de fire si asteapta terminarea
+ * tuturor. Blocurile scriu in zone disjuncte sau in rezultate partiale proprii
+ * (indexate dupa numarul blocului), reunite apoi de apelant, asa ca nu e
+ * nevoie de sincronizare in corpul buclei.
+ *
+ * Android (API 17) nu are ForkJoinPool, asa ca se foloseste un
+ * ExecutorService obisnuit. Din acest motiv un Body nu trebuie sa apeleze la
+ * randul lui {@link #forChunks}: firele bazinului ar astepta dupa ele insele.
+ */
+final class Parallel {
+
+	/**
+	 * Corpul unei bucle paralele: proceseaza elementele [from, to) ale
+	 * blocului chunk.
+	 */
+	static abstract class Body {
+		abstract void run(int chunk, int from, int to);
+	}
+
+	/**
+	 * Un bazin de fire si apelurile care il folosesc. Un bazin inlocuit de
+	 * {@link #setLevel} este oprit abia dupa ce se termina ultimul apel care
+	 * l-a luat.
+	 */
+	private static final class Pool {
+		final ExecutorService executor;
+		int users = 0;
+		boolean retired = false;
+
+		Pool(ExecutorService executor) {
+			this.executor = executor;
+		}
+	}
+
+	private static int level = Runtime.getRuntime().availableProcessors();
+	private static Pool pool = null;
+
+	private Parallel() {
+	}
+
+	/**
+	 * Stabileste numarul de fire folosite. 1 inseamna ca totul ruleaza pe
+	 * firul apelantului.
+	 */
+	static synchronized void setLevel(int n) {
+
+		if (n < 1)
+			throw new IllegalArgumentException("Nivelul de paralelism trebuie"
+					+ " sa fie cel putin 1");
+		if (n != level && pool != null) {
+			pool.retired = true;
+			if (pool.users == 0)
+				pool.executor.shutdown();
+			pool = null;
+		}
+		level = n;
+	}
+
+	static synchronized int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Bazinul curent, luat pentru un apel; trebuie dat inapoi cu
+	 * {@link #release}.
+	 */
+	private static synchronized Pool acquire() {
+
+		if (pool == null)
+			pool = new Pool(Executors.newFixedThreadPool(level,
+					new ThreadFactory() {
+						private int count = 0;
+
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "eigenface-" + (count++));
+							t.setDaemon(true);
+							return t;
+						}
+					}));
+		pool.users++;
+		return pool;
+	}
+
+	private static synchronized void release(Pool p) {
+
+		if (--p.users == 0 && p.retired)
+			p.executor.shutdown();
+	}
+
+	/**
+	 * Numarul de blocuri in care {@link #forChunks} imparte n elemente, dupa
+	 * nivelul curent de paralelism. Un apelant care aloca rezultate partiale
+	 * dupa el trebuie sa-l dea mai departe lui {@link #split}, nu sa apeleze
+	 * {@link #forChunks}: nivelul se poate schimba intre cele doua apeluri.
+	 */
+	static int chunks(int n, int grain) {
+
+		if (n <= 0)
+			return 0;
+		int byGrain = (n + grain - 1) / Math.max(1, grain);
+		return Math.max(1, Math.min(byGrain, getLevel() * 4));
+	}
+
+	/**
+	 * Executa body pe fiecare bloc din [0, n) si asteapta terminarea.
+	 *
+	 * @param n
+	 *            numarul de elemente.
+	 * @param grain
+	 *            numarul minim de elemente intr-un bloc.
+	 * @param body
+	 *            corpul buclei.
+	 */
+	static void forChunks(int n, int grain, Body body) {
+		split(n, chunks(n, grain), body);
+	}
+
+	/**
+	 * Executa body pe exact count blocuri din [0, n), numerotate de la 0 la
+	 * count - 1, si asteapta terminarea. Blocurile pot fi goale daca count
+	 * este mai mare decat n.
+	 *
+	 * @param count
+	 *            numarul de blocuri, de obicei dat de {@link #chunks}.
+	 */
+	static void split(int n, final int count, final Body body) {
+
+		if (count <= 0 || n <= 0)
+			return;
+		if (count == 1 || getLevel() == 1) {
+			for (int c = 0; c < count; c++)
+				body.run(c, from(n, count, c), from(n, count, c + 1));
+			return;
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(count);
+		for (int c = 0; c < count; c++) {
+			final int chunk = c;
+			final int from = from(n, count, c);
+			final int to = from(n, count, c + 1);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					body.run(chunk, from, to);
+					return null;
+				}
+			});
+		}
+
+		Pool p = acquire();
+		try {
+			for (Future<Object> f : p.executor.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Calcul paralel intrerupt", e);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw new RuntimeException(t);
+		} finally {
+			release(p);
+		}
+	}
+
+	private static int from(int n, int count, int c) {
+		return (int) ((long) n * c / count);
+	}
+}
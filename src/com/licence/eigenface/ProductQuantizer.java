@@ -0,0 +1,217 @@
+package com.licence.eigenface;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Cuantizare pe produs (product quantization): componentele unui vector de
+ * ponderi sunt impartite in subvectori consecutivi, iar fiecare subvector
+ * este inlocuit cu cel mai apropiat dintre {@link #CODES} centroizi ai
+ * subspatiului lui, adica cu un octet. Centroizii se invata cu k-means pe
+ * ponderile unui spatiu al fetei.
+ *
+ * Distanta pana la un vector codificat se calculeaza din tabele: pentru o
+ * interogare, contributia fiecarui centroid al fiecarui subspatiu (vezi
+ * {@link DistanceMetric#term}) se calculeaza o singura data, iar scorul unei
+ * imagini este suma a cate o valoare din tabel pentru fiecare octet
+ * (distanta asimetrica: interogarea nu este cuantizata).
+ */
+final class ProductQuantizer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Numarul de centroizi ai fiecarui subspatiu: un octet. */
+	static final int CODES = 256;
+
+	// subspatiul s contine componentele [bounds[s], bounds[s + 1])
+	private final int[] bounds;
+	// codebook[s][c * d + t]: componenta t a centroidului c, d = marimea
+	// subspatiului s
+	private final double[][] codebook;
+
+	/**
+	 * Invata centroizii din primele count randuri ale lui rows.
+	 *
+	 * @param subvectors
+	 *            numarul de subvectori (octeti pentru fiecare imagine), cel
+	 *            mult numarul componentelor.
+	 */
+	ProductQuantizer(double[][] rows, int count, int subvectors,
+			Random random) {
+
+		int n = rows[0].length;
+		if (subvectors < 1 || subvectors > n)
+			throw new IllegalArgumentException("Intre 1 si " + n
+					+ " subvectori, nu " + subvectors);
+		bounds = new int[subvectors + 1];
+		for (int s = 0; s <= subvectors; s++)
+			bounds[s] = s * n / subvectors;
+
+		codebook = new double[subvectors][];
+		for (int s = 0; s < subvectors; s++) {
+			double[][] c = kmeans(rows, count, bounds[s], bounds[s + 1],
+					Math.min(CODES, count), null, random);
+			int d = bounds[s + 1] - bounds[s];
+			codebook[s] = new double[CODES * d];
+			for (int i = 0; i < c.length; i++)
+				System.arraycopy(c[i], 0, codebook[s], i * d, d);
+			// mai putine imagini decat coduri: codurile ramase nu sunt folosite
+			for (int i = c.length; i < CODES; i++)
+				System.arraycopy(c[0], 0, codebook[s], i * d, d);
+		}
+	}
+
+	int subvectors() {
+		return bounds.length - 1;
+	}
+
+	/**
+	 * Codifica v - offset in out[o .. o + subvectors()).
+	 */
+	void encode(double[] v, double[] offset, byte[] out, int o) {
+
+		for (int s = 0; s < codebook.length; s++) {
+			int from = bounds[s], d = bounds[s + 1] - from;
+			double[] cb = codebook[s];
+			double best = Double.POSITIVE_INFINITY;
+			int code = 0;
+			for (int c = 0, e = 0; c < CODES; c++, e += d) {
+				double dist = 0.0;
+				for (int t = 0; t < d; t++) {
+					double x = v[from + t] - offset[from + t] - cb[e + t];
+					dist += x * x;
+				}
+				if (dist < best) {
+					best = dist;
+					code = c;
+				}
+			}
+			out[o + s] = (byte) code;
+		}
+	}
+
+	/**
+	 * Vectorul reconstruit din codurile codes[o ..], plus offset.
+	 */
+	void decode(byte[] codes, int o, double[] offset, double[] out) {
+
+		for (int s = 0; s < codebook.length; s++) {
+			int from = bounds[s], d = bounds[s + 1] - from;
+			int e = (codes[o + s] & 0xff) * d;
+			for (int t = 0; t < d; t++)
+				out[from + t] = offset[from + t] + codebook[s][e + t];
+		}
+	}
+
+	/**
+	 * Tabelul distantelor pentru interogarea q: table[s * CODES + c] este
+	 * suma contributiilor componentelor subspatiului s, cu centroidul c plus
+	 * offset in locul ponderilor imaginii.
+	 *
+	 * @param table
+	 *            cel putin subvectors() * CODES valori.
+	 */
+	void table(double[] q, double[] offset, DistanceMetric metric,
+			double[] table) {
+
+		for (int s = 0, o = 0; s < codebook.length; s++, o += CODES) {
+			int from = bounds[s], d = bounds[s + 1] - from;
+			double[] cb = codebook[s];
+			for (int c = 0, e = 0; c < CODES; c++, e += d) {
+				double sum = 0.0;
+				for (int t = 0; t < d; t++)
+					sum += metric.term(q[from + t], offset[from + t] + cb[e + t],
+							from + t);
+				table[o + c] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Centroizii k-means ai componentelor [from, to) din primele count
+	 * randuri: pornind de la randuri alese la intamplare, fiecare rand este
+	 * atribuit celui mai apropiat centroid, iar centroizii sunt mutati in
+	 * media randurilor lor, de cel mult 20 de ori.
+	 *
+	 * @param metric
+	 *            distanta de atribuire (vezi {@link DistanceMetric#metric}),
+	 *            pe toate componentele; null inseamna distanta euclidiana.
+	 */
+	static double[][] kmeans(double[][] rows, int count, int from, int to,
+			int k, DistanceMetric metric, Random random) {
+
+		int d = to - from;
+		double[][] c = new double[k][d];
+		int[] pick = new int[count];
+		for (int i = 0; i < count; i++)
+			pick[i] = i;
+		for (int i = 0; i < k; i++) {
+			int r = i + random.nextInt(count - i);
+			int t = pick[i];
+			pick[i] = pick[r];
+			pick[r] = t;
+			System.arraycopy(rows[pick[i]], from, c[i], 0, d);
+		}
+
+		int[] assigned = new int[count];
+		int[] size = new int[k];
+		for (int iteration = 0; iteration < 20; iteration++) {
+			boolean changed = iteration == 0;
+			for (int i = 0; i < count; i++) {
+				int a = nearest(rows[i], from, c, metric);
+				if (a != assigned[i]) {
+					assigned[i] = a;
+					changed = true;
+				}
+			}
+			if (!changed)
+				break;
+
+			double[][] sum = new double[k][d];
+			Arrays.fill(size, 0);
+			for (int i = 0; i < count; i++) {
+				double[] s = sum[assigned[i]];
+				for (int t = 0; t < d; t++)
+					s[t] += rows[i][from + t];
+				size[assigned[i]]++;
+			}
+			for (int j = 0; j < k; j++)
+				if (size[j] > 0)
+					for (int t = 0; t < d; t++)
+						c[j][t] = sum[j][t] / size[j];
+				else
+					// un centroid fara randuri ia locul unui rand oarecare
+					System.arraycopy(rows[random.nextInt(count)], from, c[j],
+							0, d);
+		}
+		return c;
+	}
+
+	/**
+	 * Centroidul cel mai apropiat de componentele [from, ...) ale lui v.
+	 */
+	static int nearest(double[] v, int from, double[][] c,
+			DistanceMetric metric) {
+
+		int best = 0;
+		double min = Double.POSITIVE_INFINITY;
+		for (int j = 0; j < c.length; j++) {
+			double dist;
+			if (metric != null)
+				dist = metric.metric(v, c[j], c[j].length);
+			else {
+				dist = 0.0;
+				for (int t = 0; t < c[j].length; t++) {
+					double x = v[from + t] - c[j][t];
+					dist += x * x;
+				}
+			}
+			if (dist < min) {
+				min = dist;
+				best = j;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,168 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * SVD aleator (randomized range finder) aplicat direct pe matricea fetelor
+ * centrate A (MxN^2), fara a construi matricea de covarianta MxM si fara a
+ * transpune A.
+ *
+ * Pasii sunt cei din Halko, Martinsson, Tropp, "Finding structure with
+ * randomness" (<a href="http://arxiv.org/abs/0909.4061">
+ * http://arxiv.org/abs/0909.4061</a>):
+ * <ol>
+ * <li>Y = A * Omega, unde Omega este o matrice gaussiana N^2 x l, l = k + p
+ * (p este factorul de supraesantionare). Omega este generata din mers si nu se
+ * pastreaza.
+ * <li>q iteratii de putere: Y = A * (A^T * Y), cu ortonormalizare intre pasi.
+ * <li>Q = orth(Y), B = Q^T * A (l x N^2).
+ * <li>Descompunerea matricii mici B * B^T (l x l) cu Jama.
+ * </ol>
+ * Eigenfaces sunt atunci randurile lui U_b^T * B, adica exact u_j^T * A pentru
+ * vectorii proprii aproximativi u_j ai lui A * A^T.
+ *
+ * Memoria folosita este O((M + N^2) * l) in loc de O(M^2 + M * N^2) pentru
+ * copiile Jama.
+ */
+class RandomizedSvd {
+
+	private double[] values;
+	private double[][] eigenFaces;
+
+	/**
+	 * @param faces
+	 *            imaginile centrate, cate una pe rand (nu sunt modificate).
+	 * @param k
+	 *            numarul de componente cerute.
+	 * @param oversampling
+	 *            numarul de coloane aleatoare suplimentare (tipic 5-10).
+	 * @param powerIterations
+	 *            numarul de iteratii de putere (0-3). Mai multe iteratii
+	 *            inseamna o precizie mai buna cand spectrul scade incet.
+	 * @param seed
+	 *            samanta generatorului aleator.
+	 */
+	RandomizedSvd(double[][] faces, int k, int oversampling,
+			int powerIterations, long seed) {
+
+		int m = faces.length;
+		int n = faces[0].length;
+		int l = Math.min(m, k + Math.max(0, oversampling));
+		int i, c, p;
+
+		if (k < 1 || k > m)
+			throw new IllegalArgumentException("k trebuie sa fie intre 1 si "
+					+ m);
+
+		/*
+		 * Y = A * Omega, pastrat transpus (l x M) ca sa putem ortonormaliza
+		 * randurile.
+		 */
+		double[][] yt = new double[l][m];
+		double[] omega = new double[l];
+		Random rnd = new Random(seed);
+
+		for (p = 0; p < n; p++) {
+			for (c = 0; c < l; c++)
+				omega[c] = rnd.nextGaussian();
+			for (i = 0; i < m; i++) {
+				double a = faces[i][p];
+				if (a == 0.0)
+					continue;
+				for (c = 0; c < l; c++)
+					yt[c][i] += a * omega[c];
+			}
+		}
+		TopEigenSolver.orthonormalize(yt);
+
+		/*
+		 * Iteratii de putere. Z = A^T * Q este tinut tot transpus (l x N^2).
+		 */
+		double[][] zt = new double[l][n];
+		for (int q = 0; q < powerIterations; q++) {
+			transposeTimes(faces, yt, zt);
+			TopEigenSolver.orthonormalize(zt);
+			for (c = 0; c < l; c++)
+				for (i = 0; i < m; i++)
+					yt[c][i] = TopEigenSolver.dot(faces[i], zt[c]);
+			TopEigenSolver.orthonormalize(yt);
+		}
+
+		/*
+		 * B = Q^T * A (l x N^2); refolosim memoria lui Z.
+		 */
+		double[][] b = zt;
+		transposeTimes(faces, yt, b);
+
+		double[][] bbt = new double[l][l];
+		for (i = 0; i < l; i++)
+			for (c = i; c < l; c++) {
+				double s = TopEigenSolver.dot(b[i], b[c]);
+				bbt[i][c] = s;
+				bbt[c][i] = s;
+			}
+
+		EigenvalueDecomposition e = new Matrix(bbt, l, l).eig();
+		double[] d = EigenFaceComputation.diag(e.getD().getArray());
+		double[][] w = e.getV().getArray();
+
+		/*
+		 * Pastram doar primele k valori; l este mic, asa ca o selectie simpla
+		 * e suficienta.
+		 */
+		boolean[] used = new boolean[l];
+		values = new double[k];
+		eigenFaces = new double[k][n];
+		for (int j = 0; j < k; j++) {
+			int best = -1;
+			for (c = 0; c < l; c++)
+				if (!used[c] && (best < 0 || d[c] > d[best]))
+					best = c;
+			used[best] = true;
+			values[j] = d[best];
+			for (c = 0; c < l; c++) {
+				double f = w[c][best];
+				for (p = 0; p < n; p++)
+					eigenFaces[j][p] += f * b[c][p];
+			}
+		}
+	}
+
+	/**
+	 * Valorile proprii aproximative ale lui A * A^T, descrescator.
+	 */
+	double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Eigenfaces nenormalizate (k x N^2).
+	 */
+	double[][] getEigenFaces() {
+		return eigenFaces;
+	}
+
+	/**
+	 * out[c] = sum_i qt[c][i] * a[i], adica (A^T * Q)^T fara a transpune A.
+	 */
+	private static void transposeTimes(double[][] a, double[][] qt,
+			double[][] out) {
+
+		for (int c = 0; c < qt.length; c++) {
+			double[] row = out[c];
+			Arrays.fill(row, 0.0);
+			for (int i = 0; i < a.length; i++) {
+				double f = qt[c][i];
+				if (f == 0.0)
+					continue;
+				double[] face = a[i];
+				for (int p = 0; p < row.length; p++)
+					row[p] += f * face[p];
+			}
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package com.licence.eigenface;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * Antrenare care nu tine niciodata toate imaginile in memorie. Imaginile sunt
+ * citite din fisiere de cate ori e nevoie:
+ * <ol>
+ * <li>Trecerea de covarianta: un bloc de cel mult blockImages imagini este
+ * tinut in memorie, iar imaginile care urmeaza sunt citite una cate una si
+ * inmultite scalar cu tot blocul. Prima parcurgere aduna si suma imaginilor
+ * (pentru fata medie). Cand blocul cuprinde toate imaginile, este o singura
+ * trecere.
+ * <li>Trecerea de eigenfaces: fiecare imagine citita adauga v[j][i] * (x_i -
+ * medie) la fiecare eigenface.
+ * <li>Trecerea de proiectie: wk se calculeaza imagine cu imagine, dupa
+ * normalizarea eigenfaces.
+ * </ol>
+ * Memoria folosita este MxM (covarianta) + blockImages * N^2 + k * N^2
+ * (eigenfaces, rezultatul) + cateva imagini, in loc de M * N^2.
+ *
+ * Produsele scalare se fac pe imagini din care s-a scazut prima imagine.
+ * Matricea de covarianta nu depinde de aceasta translatie, dar valorile mici
+ * evita pierderea de precizie la corectia cu media (pixelii ARGB sunt in jur
+ * de 2^24).
+ */
+public class StreamingTrainer {
+
+	private final String dir;
+	private final String[] files;
+	private int width = 0;
+	private int height = 0;
+	private int reads = 0;
+
+	/**
+	 * @param dir
+	 *            Directorul cu imagini (terminat cu separator).
+	 * @param files
+	 *            Numele fisierelor din director.
+	 */
+	public StreamingTrainer(String dir, String[] files) {
+
+		if (files.length < 2)
+			throw new IllegalArgumentException(
+					"Sunt necesare cel putin 2 imagini");
+		this.dir = dir;
+		this.files = files;
+	}
+
+	/**
+	 * Construieste spatiul fetei.
+	 *
+	 * @param k
+	 *            Numarul de componente pastrate, 1 <= k <= numarul de imagini.
+	 * @param blockImages
+	 *            Numarul maxim de imagini tinute simultan in memorie in
+	 *            trecerea de covarianta (cel putin 1).
+	 * @param report
+	 *            Raportul de memorie completat pe parcurs (poate fi null).
+	 * @return Un "FaceBundle" folosit pentru recunoastere.
+	 * @throws FileNotFoundException
+	 *             O imagine nu exista.
+	 * @throws IOException
+	 *             Probleme la citirea unei imagini.
+	 * @throws IllegalArgumentException
+	 *             Imaginile au formatul gresit sau dimensiuni diferite.
+	 */
+	public FaceBundle train(int k, int blockImages, TrainingReport report)
+			throws FileNotFoundException, IOException {
+
+		if (k < 1 || k > files.length)
+			throw new IllegalArgumentException("Numarul de componente (" + k
+					+ ") trebuie sa fie intre 1 si " + files.length);
+		return train(ComponentPolicy.fixed(k), blockImages, report);
+	}
+
+	/**
+	 * Ca mai sus, dar numarul de componente este ales de policy dupa valorile
+	 * proprii si este inregistrat in spatiul fetei (vezi
+	 * {@link FaceBundle#getSelection()}).
+	 */
+	public FaceBundle train(ComponentPolicy policy, int blockImages,
+			TrainingReport report) throws FileNotFoundException, IOException {
+
+		final int m = files.length;
+		int i, j, pix;
+
+		if (blockImages < 1)
+			throw new IllegalArgumentException(
+					"Blocul trebuie sa aiba cel putin o imagine");
+
+		reads = 0;
+		final double[] shift = read(0);
+		final int length = shift.length;
+		int block = Math.min(blockImages, m);
+
+		/*
+		 * Covarianta imaginilor translatate y_i = x_i - x_0, pe blocuri de
+		 * imagini. raw[i][j] = y_i . y_j, sum = suma y_i.
+		 */
+		final double[][] raw = new double[m][m];
+		double[] sum = new double[length];
+		final double[][] resident = new double[block][];
+		long live = TrainingReport.doubles((long) m * m + (long) block
+				* length + 2L * length);
+
+		for (int b0 = 0; b0 < m; b0 += block) {
+			final int nb = Math.min(block, m - b0);
+			for (j = b0; j < m; j++) {
+				final double[] y = (j == 0) ? new double[length] : read(j);
+				if (j != 0)
+					for (pix = 0; pix < length; pix++)
+						y[pix] -= shift[pix];
+				if (b0 == 0)
+					for (pix = 0; pix < length; pix++)
+						sum[pix] += y[pix];
+				if (j < b0 + nb)
+					resident[j - b0] = y;
+
+				final int row = j;
+				final int first = b0;
+				final int last = Math.min(j, b0 + nb - 1);
+				Parallel.forChunks(last - first + 1, 1, new Parallel.Body() {
+					void run(int chunk, int from, int to) {
+						for (int r = first + from; r < first + to; r++) {
+							double s = TopEigenSolver.dot(resident[r - first],
+									y);
+							raw[r][row] = s;
+							raw[row][r] = s;
+						}
+					}
+				});
+			}
+			if (report != null)
+				report.step("covarianta " + b0, live);
+		}
+		for (i = 0; i < block; i++)
+			resident[i] = null;
+
+		/*
+		 * Corectia cu media: G[i][j] = raw[i][j] - r_i - r_j + t, unde r_i =
+		 * y_i . media(y) si t = media(y) . media(y).
+		 */
+		double[] r = new double[m];
+		double t = 0.0;
+		for (i = 0; i < m; i++) {
+			for (j = 0; j < m; j++)
+				r[i] += raw[i][j];
+			r[i] /= m;
+			t += r[i];
+		}
+		t /= m;
+		for (i = 0; i < m; i++)
+			for (j = i; j < m; j++) {
+				double g = raw[i][j] - r[i] - r[j] + t;
+				raw[i][j] = g;
+				raw[j][i] = g;
+			}
+
+		final double[] avgF = new double[length];
+		for (pix = 0; pix < length; pix++)
+			avgF[pix] = shift[pix] + sum[pix] / m;
+		sum = null;
+
+		double trace = 0.0;
+		for (i = 0; i < m; i++)
+			trace += raw[i][i];
+
+		TopEigenSolver solver = new TopEigenSolver(raw,
+				policy.cap(length, m));
+		ComponentSelection selection = policy.select(solver.getValues(),
+				trace, length, m);
+		int k = selection.getComponents();
+		double[][] vectors = solver.getVectors();
+		if (report != null)
+			report.step("valori proprii", live);
+		Log.i("Pachet FaceBundle", selection.toString());
+
+		/*
+		 * eigenfaces = vectors (kxM) * (x_i - medie), imagine cu imagine.
+		 */
+		final double[] eigVector = new double[k * length];
+		live = TrainingReport.doubles((long) m * m + (long) (k + 3) * length);
+		for (i = 0; i < m; i++) {
+			double[] a = centered(i, avgF);
+			for (j = 0; j < k; j++) {
+				double f = vectors[j][i];
+				int off = j * length;
+				for (pix = 0; pix < length; pix++)
+					eigVector[off + pix] += f * a[pix];
+			}
+		}
+
+		/* Normalizam matricea vectorilor proprii. */
+		for (j = 0; j < k; j++) {
+			int off = j * length;
+			double max = Double.NEGATIVE_INFINITY;
+			for (pix = 0; pix < length; pix++)
+				if (eigVector[off + pix] > max)
+					max = eigVector[off + pix];
+			for (pix = 0; pix < length; pix++)
+				eigVector[off + pix] = Math.abs(eigVector[off + pix] / max);
+		}
+		if (report != null)
+			report.step("eigenfaces", live);
+
+		/* wk - "spatiul fetei", imagine cu imagine. */
+		double[][] wk = new double[m][k];
+		for (i = 0; i < m; i++) {
+			double[] a = centered(i, avgF);
+			for (j = 0; j < k; j++) {
+				double temp = 0.0;
+				int off = j * length;
+				for (pix = 0; pix < length; pix++)
+					temp += eigVector[off + pix] * a[pix];
+				wk[i][j] = Math.abs(temp);
+			}
+		}
+		if (report != null) {
+			report.step("wk", live);
+			Log.i("Pachet FaceBundle", report.toString());
+		}
+		Log.i("Pachet FaceBundle", "antrenare din fisiere: " + m
+				+ " imagini, " + reads + " citiri, blocuri de " + block);
+
+		return new FaceBundle(new DoubleEigenSpace(avgF, eigVector), wk,
+				files, null, selection);
+	}
+
+	/**
+	 * Numarul de imagini decodate la ultima antrenare.
+	 */
+	public int getReads() {
+		return reads;
+	}
+
+	private double[] centered(int i, double[] avgF)
+			throws FileNotFoundException, IOException {
+
+		double[] a = read(i);
+		for (int pix = 0; pix < a.length; pix++)
+			a[pix] -= avgF[pix];
+		return a;
+	}
+
+	/**
+	 * Decodeaza imaginea i. Decodorul nu mai este folosit dupa aceea, asa ca
+	 * tabloul returnat poate fi modificat.
+	 */
+	private double[] read(int i) throws FileNotFoundException, IOException {
+
+		xxxFile file = EigenFaceCreator.openImage(dir, files[i]);
+		if (width == 0) {
+			width = file.getWidth();
+			height = file.getHeight();
+		}
+		EigenFaceCreator.checkSize(file, width, height);
+		reads++;
+		return file.getDouble();
+	}
+}
@@ -0,0 +1,258 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Calculeaza doar primele k perechi (valoare proprie, vector propriu) ale unei
+ * matrici simetrice pozitiv semidefinite (matricea Gram MxM din
+ * {@link EigenFaceComputation}).
+ *
+ * Foloseste iteratia pe subspatiu (block power iteration) cu o proiectie
+ * Rayleigh-Ritz la fiecare pas. Fiecare iteratie costa O(M^2 * p) unde p este
+ * marimea blocului (k plus cateva coloane suplimentare), in loc de O(M^3)
+ * pentru descompunerea completa. Descompunerea propriu-zisa (Jama) se face doar
+ * pe matricea mica pxp. Daca iteratia nu converge in {@link #MAX_ITERATIONS}
+ * pasi, rezultatul este dat de descompunerea completa.
+ */
+class TopEigenSolver {
+
+	/** Numarul maxim de iteratii pe subspatiu. */
+	static final int MAX_ITERATIONS = 300;
+
+	/** Toleranta relativa pentru reziduul vectorilor proprii. */
+	static final double TOLERANCE = 1e-8;
+
+	private double[] values;
+	private double[][] vectors;
+	private int iterations;
+	private boolean converged = true;
+
+	/**
+	 * Calculeaza primele k perechi proprii ale matricii g.
+	 *
+	 * @param g
+	 *            matrice simetrica MxM (nu este modificata).
+	 * @param k
+	 *            numarul de perechi cerute, 1 <= k <= M.
+	 */
+	TopEigenSolver(double[][] g, int k) {
+
+		int m = g.length;
+		if (k < 1 || k > m)
+			throw new IllegalArgumentException("k trebuie sa fie intre 1 si "
+					+ m);
+
+		// Cateva coloane in plus accelereaza convergenta ultimilor vectori.
+		int p = Math.min(m, k + Math.max(2, k / 2));
+
+		if (p == m) {
+			full(g, k);
+			return;
+		}
+
+		double[][] x = new double[p][m]; // p vectori coloana, stocati pe randuri
+		double[][] y = new double[p][m];
+		double[] theta = new double[p];
+		Random rnd = new Random(42);
+		int i, j, c;
+
+		for (j = 0; j < p; j++)
+			for (i = 0; i < m; i++)
+				x[j][i] = rnd.nextGaussian();
+		orthonormalize(x);
+
+		for (iterations = 1; iterations <= MAX_ITERATIONS; iterations++) {
+
+			// Y = G X
+			multiply(g, x, y);
+
+			// Rayleigh-Ritz: H = X^T G X (pxp)
+			double[][] h = new double[p][p];
+			for (i = 0; i < p; i++)
+				for (j = i; j < p; j++) {
+					double s = dot(x[i], y[j]);
+					h[i][j] = s;
+					h[j][i] = s;
+				}
+
+			EigenvalueDecomposition e = new Matrix(h, p, p).eig();
+			double[] d = EigenFaceComputation.diag(e.getD().getArray());
+			double[][] w = e.getV().getArray();
+			int[] order = descending(d);
+
+			// X = X W, Y = Y W (reordonati descrescator)
+			double[][] nx = new double[p][m];
+			double[][] ny = new double[p][m];
+			for (c = 0; c < p; c++) {
+				int col = order[c];
+				theta[c] = d[col];
+				for (j = 0; j < p; j++) {
+					double f = w[j][col];
+					if (f == 0.0)
+						continue;
+					for (i = 0; i < m; i++) {
+						nx[c][i] += f * x[j][i];
+						ny[c][i] += f * y[j][i];
+					}
+				}
+			}
+			x = nx;
+			y = ny;
+
+			// Convergenta: ||G x_j - theta_j x_j|| mic pentru primii k
+			double scale = Math.max(Math.abs(theta[0]), Double.MIN_VALUE);
+			boolean done = true;
+			for (c = 0; c < k && done; c++) {
+				double r = 0.0;
+				for (i = 0; i < m; i++) {
+					double t = y[c][i] - theta[c] * x[c][i];
+					r += t * t;
+				}
+				if (Math.sqrt(r) > TOLERANCE * scale)
+					done = false;
+			}
+			if (done)
+				break;
+			if (iterations == MAX_ITERATIONS) {
+				// vectorii si valorile nu sunt inca perechi proprii
+				converged = false;
+				full(g, k);
+				return;
+			}
+
+			// Urmatorul bloc: X = orth(G X)
+			double[][] t = x;
+			x = y;
+			y = t;
+			orthonormalize(x);
+		}
+
+		values = new double[k];
+		vectors = new double[k][];
+		for (c = 0; c < k; c++) {
+			values[c] = theta[c];
+			vectors[c] = x[c];
+		}
+	}
+
+	/**
+	 * Valorile proprii, in ordine descrescatoare.
+	 */
+	double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Vectorii proprii (normalizati), cate unul pe rand, in ordinea valorilor
+	 * proprii. Fiecare rand are lungimea M.
+	 */
+	double[][] getVectors() {
+		return vectors;
+	}
+
+	/**
+	 * Numarul de iteratii efectuate (0 daca s-a folosit de la inceput
+	 * descompunerea completa).
+	 */
+	int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * false daca iteratia pe subspatiu nu a convers in
+	 * {@link #MAX_ITERATIONS} pasi si rezultatul vine din descompunerea
+	 * completa.
+	 */
+	boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Descompunerea completa, folosita cand blocul ar acoperi oricum toata
+	 * matricea sau cand iteratia nu converge.
+	 */
+	private void full(double[][] g, int k) {
+
+		int m = g.length;
+		EigenvalueDecomposition e = new Matrix(g, m, m).eig();
+		double[] d = EigenFaceComputation.diag(e.getD().getArray());
+		double[][] v = e.getV().getArray();
+		int[] order = descending(d);
+
+		values = new double[k];
+		vectors = new double[k][m];
+		for (int c = 0; c < k; c++) {
+			values[c] = d[order[c]];
+			for (int i = 0; i < m; i++)
+				vectors[c][i] = v[i][order[c]];
+		}
+	}
+
+	/**
+	 * Indicii valorilor din d in ordine descrescatoare. Sortare prin insertie;
+	 * d are doar p elemente.
+	 */
+	private static int[] descending(double[] d) {
+
+		int[] order = new int[d.length];
+		for (int i = 0; i < d.length; i++) {
+			int j = i;
+			while (j > 0 && d[order[j - 1]] < d[i]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * out[j] = G * x[j] pentru fiecare vector x[j].
+	 */
+	private static void multiply(double[][] g, double[][] x, double[][] out) {
+
+		int m = g.length;
+		for (int j = 0; j < x.length; j++)
+			for (int i = 0; i < m; i++)
+				out[j][i] = dot(g[i], x[j]);
+	}
+
+	/**
+	 * Gram-Schmidt modificat pe randurile lui x. Un rand dependent liniar este
+	 * inlocuit cu un vector al bazei canonice ortogonalizat.
+	 */
+	static void orthonormalize(double[][] x) {
+
+		int probe = 0;
+		for (int j = 0; j < x.length; j++) {
+			double n0 = Math.sqrt(dot(x[j], x[j]));
+			for (int pass = 0; pass < 2; pass++)
+				for (int i = 0; i < j; i++) {
+					double s = dot(x[i], x[j]);
+					for (int p = 0; p < x[j].length; p++)
+						x[j][p] -= s * x[i][p];
+				}
+			double n = Math.sqrt(dot(x[j], x[j]));
+			if (n <= 1e-10 * n0 || n0 == 0.0) {
+				Arrays.fill(x[j], 0.0);
+				x[j][probe++ % x[j].length] = 1.0;
+				j--; // reortogonalizam vectorul inlocuit
+				continue;
+			}
+			for (int p = 0; p < x[j].length; p++)
+				x[j][p] /= n;
+		}
+	}
+
+	static double dot(double[] a, double[] b) {
+
+		double s = 0.0;
+		for (int i = 0; i < a.length; i++)
+			s += a[i] * b[i];
+		return s;
+	}
+}
@@ -0,0 +1,132 @@
+package com.licence.eigenface;
+
+/**
+ * Cele mai mici k chei dintr-un sir de candidati, intr-un heap marginit
+ * (max-heap de cel mult k elemente): fiecare candidat costa O(log k), iar
+ * memoria este O(k).
+ *
+ * La chei egale castiga candidatul oferit primul, ca in cautarea dupa minim
+ * din {@link FaceBundle} (comparatie stricta).
+ */
+final class TopK {
+
+	private final double[] key;
+	private final int[] id;
+	private final long[] seq;
+	private int size = 0;
+	private long offered = 0;
+
+	TopK(int k) {
+
+		if (k < 1)
+			throw new IllegalArgumentException("k (" + k
+					+ ") trebuie sa fie cel putin 1");
+		key = new double[k];
+		id = new int[k];
+		seq = new long[k];
+	}
+
+	void clear() {
+		size = 0;
+		offered = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Cheia cea mai mare pastrata, daca heap-ul este plin; altfel infinit. Un
+	 * candidat cu cheia mai mare sau egala nu mai poate intra.
+	 */
+	double bound() {
+		return size < key.length ? Double.POSITIVE_INFINITY : key[0];
+	}
+
+	/**
+	 * Ofera un candidat.
+	 *
+	 * @return true daca a fost pastrat.
+	 */
+	boolean offer(double k, int i) {
+
+		long s = offered++;
+		if (size < key.length) {
+			int c = size++;
+			// urca
+			while (c > 0) {
+				int parent = (c - 1) / 2;
+				if (!after(k, s, key[parent], seq[parent]))
+					break;
+				set(c, key[parent], id[parent], seq[parent]);
+				c = parent;
+			}
+			set(c, k, i, s);
+			return true;
+		}
+		if (!(k < key[0]))
+			return false;
+		siftDown(0, k, i, s, size);
+		return true;
+	}
+
+	/**
+	 * Goleste heap-ul in ordine crescatoare (la egalitate, in ordinea
+	 * oferirii).
+	 *
+	 * @param keys
+	 *            cheile, cel putin size() valori (poate fi null).
+	 * @param ids
+	 *            candidatii, cel putin size() valori.
+	 * @return numarul de candidati scrisi.
+	 */
+	int drain(double[] keys, int[] ids) {
+
+		int n = size;
+		for (int last = n - 1; last >= 0; last--) {
+			if (keys != null)
+				keys[last] = key[0];
+			ids[last] = id[0];
+			double k = key[last];
+			int i = id[last];
+			long s = seq[last];
+			size = last;
+			if (last > 0)
+				siftDown(0, k, i, s, last);
+		}
+		offered = 0;
+		return n;
+	}
+
+	private void siftDown(int c, double k, int i, long s, int n) {
+
+		while (true) {
+			int child = 2 * c + 1;
+			if (child >= n)
+				break;
+			if (child + 1 < n
+					&& after(key[child + 1], seq[child + 1], key[child],
+							seq[child]))
+				child++;
+			if (!after(key[child], seq[child], k, s))
+				break;
+			set(c, key[child], id[child], seq[child]);
+			c = child;
+		}
+		set(c, k, i, s);
+	}
+
+	/**
+	 * (k1, s1) vine dupa (k2, s2): cheie mai mare, sau aceeasi cheie oferita
+	 * mai tarziu.
+	 */
+	private static boolean after(double k1, long s1, double k2, long s2) {
+		return k1 > k2 || (k1 == k2 && s1 > s2);
+	}
+
+	private void set(int c, double k, int i, long s) {
+		key[c] = k;
+		id[c] = i;
+		seq[c] = s;
+	}
+}
@@ -0,0 +1,99 @@
+package com.licence.eigenface;
+
+/**
+ * Raportul de memorie al unei antrenari. Pentru fiecare etapa se inregistreaza
+ * cati octeti ocupa structurile antrenarii care sunt in viata in acel moment
+ * (estimare exacta, din dimensiunile tablourilor) si cat heap este folosit de
+ * masina virtuala (masurat, include si restul aplicatiei).
+ */
+public class TrainingReport {
+
+	private final StringBuilder steps = new StringBuilder();
+	private long peakBytes = 0;
+	private String peakStep = null;
+	private long peakHeap = 0;
+	private long startHeap = 0;
+	private long start = 0;
+	private long millis = 0;
+
+	public TrainingReport() {
+		startHeap = usedHeap();
+		start = System.currentTimeMillis();
+	}
+
+	/**
+	 * Inregistreaza o etapa.
+	 *
+	 * @param step
+	 *            numele etapei.
+	 * @param liveBytes
+	 *            octetii ocupati de structurile antrenarii in aceasta etapa.
+	 */
+	public void step(String step, long liveBytes) {
+
+		long heap = usedHeap();
+		if (liveBytes > peakBytes) {
+			peakBytes = liveBytes;
+			peakStep = step;
+		}
+		if (heap > peakHeap)
+			peakHeap = heap;
+		millis = System.currentTimeMillis() - start;
+		steps.append(step).append(": ").append(kb(liveBytes))
+				.append(" KB, heap ").append(kb(heap)).append(" KB, ")
+				.append(millis).append(" ms\n");
+	}
+
+	/**
+	 * Varful estimat al memoriei antrenarii, in octeti.
+	 */
+	public long getPeakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * Etapa in care s-a atins varful.
+	 */
+	public String getPeakStep() {
+		return peakStep;
+	}
+
+	/**
+	 * Cel mai mare heap folosit, masurat la sfarsitul etapelor, in octeti.
+	 */
+	public long getPeakHeap() {
+		return peakHeap;
+	}
+
+	/**
+	 * Heap-ul folosit la inceputul antrenarii, in octeti.
+	 */
+	public long getStartHeap() {
+		return startHeap;
+	}
+
+	/**
+	 * Durata antrenarii pana la ultima etapa inregistrata.
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	public String toString() {
+		return steps.toString() + "varf: " + kb(peakBytes) + " KB ("
+				+ peakStep + "), heap maxim " + kb(peakHeap) + " KB";
+	}
+
+	static long doubles(long n) {
+		return n * 8;
+	}
+
+	private static long kb(long bytes) {
+		return bytes / 1024;
+	}
+
+	private static long usedHeap() {
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+}
@@ -0,0 +1,242 @@
+package com.licence.eigenface;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Index exact peste ponderile unui spatiu al fetei (randurile lui wk): un
+ * arbore cu puncte de vedere (vantage-point tree). Fiecare nod alege o
+ * imagine si imparte restul dupa distanta pana la ea: jumatatea mai
+ * apropiata decat mediana intr-un subarbore, cealalta in al doilea. La
+ * cautare, inegalitatea triunghiului arata ce subarbori nu pot contine o
+ * imagine mai apropiata decat cea mai buna gasita, iar acestia nu mai sunt
+ * parcursi.
+ *
+ * Arborele foloseste {@link DistanceMetric#metric}, care ordoneaza imaginile
+ * la fel ca scorul cautarii liniare, dar este calculata altfel (ie: radacina
+ * scorului), asa ca rotunjirile pot diferi. De aceea pragul de taiere are o
+ * marja, toate imaginile din marja celei mai bune sunt pastrate, iar la
+ * sfarsit acestea sunt punctate cu scorul cautarii liniare, in ordinea
+ * imaginilor: rezultatul este acelasi, inclusiv la distante egale.
+ *
+ * Arborele nu se modifica dupa construire, asa ca poate fi folosit de mai
+ * multe fire deodata.
+ */
+final class VpTree {
+
+	// nodurile cu cel mult atatea imagini sunt parcurse direct
+	private static final int LEAF = 8;
+	// marja relativa pentru erorile de rotunjire dintre metric() si scor
+	private static final double SLACK = 1e-6;
+
+	private final double[][] wk;
+	// randurile lui wk, copiate in ordinea arborelui, ca un nod si
+	// subarborii lui sa fie apropiati si in memorie
+	private final double[][] rows;
+	private final DistanceMetric metric;
+	private final int components;
+	// imaginile, in ordinea arborelui: nodul [lo, hi) are punctul de vedere
+	// items[lo], imaginile apropiate in [lo + 1, mid) si restul in [mid, hi)
+	private final int[] items;
+	// raza nodului care incepe la lo: distanta mediana pana la items[lo]
+	private final double[] radius;
+	private final double magnitude;
+
+	/**
+	 * @param wk
+	 *            ponderile spatiului, nemodificate dupa aceea.
+	 * @param metric
+	 *            metrica legata de wk (vezi {@link DistanceMetric#bind}).
+	 */
+	VpTree(double[][] wk, DistanceMetric metric) {
+
+		this.wk = wk;
+		this.metric = metric;
+		this.components = wk[0].length;
+		int m = wk.length;
+		this.items = new int[m];
+		this.radius = new double[m];
+
+		double mag = 0.0;
+		for (int i = 0; i < m; i++) {
+			items[i] = i;
+			mag = Math.max(mag, metric.magnitude(wk[i], components));
+		}
+		this.magnitude = mag;
+
+		// puncte de vedere alese la intamplare, dar la fel la fiecare
+		// construire
+		Random random = new Random(m);
+		for (int i = m - 1; i > 0; i--) {
+			int r = random.nextInt(i + 1);
+			int t = items[i];
+			items[i] = items[r];
+			items[r] = t;
+		}
+		build(0, m, new double[m]);
+
+		rows = new double[m][];
+		for (int i = 0; i < m; i++)
+			rows[i] = wk[items[i]].clone();
+	}
+
+	private void build(int lo, int hi, double[] d) {
+
+		while (hi - lo > LEAF) {
+			double[] v = wk[items[lo]];
+			for (int i = lo + 1; i < hi; i++)
+				d[i] = metric.metric(v, wk[items[i]], components);
+			int mid = middle(lo, hi);
+			select(d, lo + 1, hi, mid);
+			radius[lo] = d[mid];
+			build(lo + 1, mid, d);
+			lo = mid;
+		}
+	}
+
+	private static int middle(int lo, int hi) {
+		return lo + 1 + (hi - lo - 1) / 2;
+	}
+
+	/**
+	 * Aseaza d[lo .. hi) (si imaginile lor) astfel incat d[k] sa fie pe
+	 * pozitia lui in ordinea crescatoare, cele mai mici inaintea lui si cele
+	 * mai mari dupa.
+	 */
+	private void select(double[] d, int lo, int hi, int k) {
+
+		hi--;
+		while (lo < hi) {
+			double pivot = d[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (d[i] < pivot)
+					i++;
+				while (d[j] > pivot)
+					j--;
+				if (i <= j) {
+					double t = d[i];
+					d[i] = d[j];
+					d[j] = t;
+					int ti = items[i];
+					items[i++] = items[j];
+					items[j--] = ti;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * Imaginea cu cel mai mic scor (acelasi ca al cautarii liniare, vezi
+	 * {@link DistanceMetric#score}); la scoruri egale, prima imagine.
+	 *
+	 * @param q
+	 *            ponderile interogarii, cel putin components valori.
+	 * @param qdata
+	 *            {@link DistanceMetric#query} pentru q.
+	 * @param best
+	 *            iese cu scorul imaginii gasite in best[0].
+	 * @return pozitia imaginii in wk.
+	 */
+	int nearest(double[] q, double qdata, double[] best) {
+
+		Search s = new Search(q, SLACK
+				* (metric.magnitude(q, components) + magnitude));
+		search(s, 0, items.length);
+
+		// candidatii ramasi in marja, punctati in ordinea imaginilor
+		int[] c = s.candidates;
+		int n = 0;
+		for (int i = 0; i < s.count; i++)
+			if (s.distance[i] <= s.tau + s.slack)
+				c[n++] = c[i];
+		Arrays.sort(c, 0, n);
+
+		double score = Double.POSITIVE_INFINITY;
+		int idx = 0;
+		for (int i = 0; i < n; i++) {
+			double partial = metric.score(q, qdata, wk[c[i]], c[i],
+					components, score);
+			if (partial < score) {
+				idx = c[i];
+				score = partial;
+			}
+		}
+		best[0] = score;
+		return idx;
+	}
+
+	private void search(Search s, int lo, int hi) {
+
+		if (hi - lo <= LEAF) {
+			for (int i = lo; i < hi; i++)
+				s.visit(items[i], metric.metric(s.q, rows[i], components));
+			return;
+		}
+
+		double d = metric.metric(s.q, rows[lo], components);
+		s.visit(items[lo], d);
+		int mid = middle(lo, hi);
+		double r = radius[lo];
+		// imaginile din [lo + 1, mid) sunt la cel mult r de punctul de vedere,
+		// cele din [mid, hi) la cel putin r
+		if (d < r) {
+			if (d - r <= s.tau + s.slack)
+				search(s, lo + 1, mid);
+			if (r - d <= s.tau + s.slack)
+				search(s, mid, hi);
+		} else {
+			if (r - d <= s.tau + s.slack)
+				search(s, mid, hi);
+			if (d - r <= s.tau + s.slack)
+				search(s, lo + 1, mid);
+		}
+	}
+
+	/** Starea unei cautari. */
+	private static final class Search {
+
+		final double[] q;
+		final double slack;
+		// cea mai mica distanta gasita
+		double tau = Double.POSITIVE_INFINITY;
+		int[] candidates = new int[16];
+		double[] distance = new double[16];
+		int count;
+
+		Search(double[] q, double slack) {
+			this.q = q;
+			this.slack = slack;
+		}
+
+		void visit(int image, double d) {
+
+			if (d > tau + slack)
+				return;
+			if (d < tau)
+				tau = d;
+			if (count == candidates.length) {
+				// cei iesiti din marja intre timp nu mai sunt pastrati
+				int n = 0;
+				for (int i = 0; i < count; i++)
+					if (distance[i] <= tau + slack) {
+						candidates[n] = candidates[i];
+						distance[n++] = distance[i];
+					}
+				count = n;
+				if (count > candidates.length / 2) {
+					candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+					distance = Arrays.copyOf(distance, 2 * distance.length);
+				}
+			}
+			candidates[count] = image;
+			distance[count++] = d;
+		}
+	}
+}
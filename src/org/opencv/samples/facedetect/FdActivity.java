@@ -1,7 +1,6 @@
 package org.opencv.samples.facedetect;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,6 +36,7 @@ import android.view.WindowManager;
 import android.widget.Toast;
 
 import com.licence.eigenface.EigenFaceCreator;
+import com.licence.eigenface.MatchResult;
 import com.licence.templateface.TemplateFace;
 
 public class FdActivity extends Activity implements CvCameraViewListener2,
@@ -46,6 +46,11 @@ public class FdActivity extends Activity implements CvCameraViewListener2,
 	private static final Scalar FACE_RECT_COLOR = new Scalar(0, 255, 0, 255);
 	public static final int JAVA_DETECTOR = 0;
 	public static final int NATIVE_DETECTOR = 1;
+	// un singur spatiu al fetei pentru toate persoanele (vezi
+	// EigenFaceCreator.readGallery), in locul unui spatiu pentru fiecare
+	// persoana; THRESHOLD este ales pentru spatiile pe persoana, asa ca trebuie
+	// ales din nou pentru galerie
+	private static final boolean GALLERY_MODE = false;
 
 	private MenuItem mItemFace50;
 	private MenuItem mItemFace40;
@@ -62,6 +67,8 @@ public class FdActivity extends Activity implements CvCameraViewListener2,
 	private int mDetectorType = JAVA_DETECTOR;
 	private String[] mDetectorName;
 	private EigenFaceCreator creator;
+	// spatiile fetei au fost construite pentru toate persoanele
+	private boolean facesLoaded = false;
 	private Rect[] facesArray;
 
 	private float mRelativeFaceSize = 0.2f;
@@ -159,6 +166,8 @@ public class FdActivity extends Activity implements CvCameraViewListener2,
 	@Override
 	public void onResume() {
 		super.onResume();
+		// pot exista persoane sau imagini noi (TemplateFace)
+		facesLoaded = false;
 		OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_2_4_3, this,
 				mLoaderCallback);
 	}
@@ -264,6 +273,64 @@ public class FdActivity extends Activity implements CvCameraViewListener2,
 		}
 	}
 
+	/**
+	 * Construieste spatiile fetei pentru toate persoanele (cate un director
+	 * pentru fiecare), o singura data, intr-un singur EigenFaceCreator: o
+	 * galerie sau cate un spatiu pentru fiecare persoana.
+	 */
+	private void loadFaces() {
+
+		String path = Environment.getExternalStorageDirectory()
+				+ File.separator + "Face Recognition" + File.separator;
+
+		creator = new EigenFaceCreator();
+		if (GALLERY_MODE) {
+			try {
+				creator.readGallery(path);
+				facesLoaded = true;
+			} catch (IOException e) {
+				Log.e(TAG, "Failed to load the face gallery", e);
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "Failed to load the face gallery", e);
+			}
+			return;
+		}
+
+		File[] files = new File(path).listFiles();
+		if (files == null) {
+			Log.e(TAG, "No face directory at " + path);
+			return;
+		}
+
+		// ramane false daca o persoana nu a putut fi incarcata, ca spatiile
+		// sa fie construite din nou la urmatoarea atingere
+		boolean loaded = true;
+		for (File inFile : files) {
+			if (inFile.isDirectory() && inFile.getName() != "") {
+				int facesNumber = inFile.listFiles().length;
+				String faceName = inFile.getName();
+				if (facesNumber > 8) {
+					facesNumber = 8;
+				}
+				creator.setFACES_NUMBER(facesNumber);
+
+				try {
+					creator.addFaceBundles(path + File.separator + faceName);
+				} catch (IOException e) {
+					Log.e(TAG, "Failed to load the faces of " + faceName, e);
+					loaded = false;
+				} catch (IllegalArgumentException e) {
+					Log.e(TAG, "Failed to load the faces of " + faceName, e);
+					loaded = false;
+				} catch (ClassNotFoundException e) {
+					Log.e(TAG, "Failed to load the faces of " + faceName, e);
+					loaded = false;
+				}
+			}
+		}
+		facesLoaded = loaded;
+	}
+
 	@Override
 	public boolean onTouch(View v, MotionEvent event) {
 		float pointerX = event.getX();
@@ -285,55 +352,17 @@ public class FdActivity extends Activity implements CvCameraViewListener2,
 						.createScaledBitmap(bitmap, TemplateFace.IMAGE_SIZE,
 								TemplateFace.IMAGE_SIZE, false);
 
-				String path = Environment.getExternalStorageDirectory()
-						+ File.separator + "Face Recognition" + File.separator;
-
-				File f = new File(path);
-				File[] files = f.listFiles();
-				double distMin = 10000;
-
-				for (File inFile : files) {
-					if (inFile.isDirectory() && inFile.getName() != "") {
-						int facesNumber = inFile.listFiles().length;
-						String faceName = inFile.getName();
-						System.out.println(faceName + " " + facesNumber);
-						if (facesNumber > 8) {
-							facesNumber = 8;
-						}
-						creator.setFACES_NUMBER(facesNumber);
-
-						try {
-							creator.readFaceBundles(path + File.separator
-									+ faceName);
-						} catch (FileNotFoundException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (IllegalArgumentException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (IOException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (ClassNotFoundException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-
-						try {
-							if (bitmap != null) {
-								creator.checkAgainst(bitmap);
-								if (distMin > creator.DISTANCE) {
-									name = faceName;
-									distMin = creator.DISTANCE;
-								}
-							}
-						} catch (FileNotFoundException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (IOException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
+				if (!facesLoaded)
+					loadFaces();
+
+				if (bitmap != null) {
+					MatchResult result = creator.match(bitmap);
+					if (result != null) {
+						// "persoana/fisier", sau doar "persoana" in modul
+						// galerie
+						String id = result.getIdentity();
+						int slash = id.indexOf('/');
+						name = slash < 0 ? id : id.substring(0, slash);
 					}
 				}
 				break;